@@ -0,0 +1,192 @@
+package bitmap.benchmark;
+
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory stand-in of Redis for the benchmarks, with the bitmap commands used by the services.
+ * <p>
+ * Bits are in the Redis order, the most significant bit of a byte first. Keys never expire. Commands not used by the
+ * services throw {@link UnsupportedOperationException}.
+ */
+public class InMemoryRedis {
+
+    private final Map<ByteBuffer, byte[]> values = new ConcurrentHashMap<>();
+    private final Map<ByteBuffer, Map<ByteBuffer, byte[]>> hashes = new ConcurrentHashMap<>();
+
+    /**
+     * Create a template on top of the store.
+     *
+     * @return template
+     */
+    public StringRedisTemplate template() {
+        RedisConnectionFactory connectionFactory = (RedisConnectionFactory) Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class[]{RedisConnectionFactory.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getConnection":
+                            return this.connection();
+                        case "getConvertPipelineAndTxResults":
+                            return true;
+                        case "translateExceptionIfPossible":
+                            return null;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+        StringRedisTemplate template = new StringRedisTemplate(connectionFactory);
+        template.afterPropertiesSet();
+        return template;
+    }
+
+    /**
+     * Set the value of the key.
+     *
+     * @param key   key
+     * @param value value
+     */
+    public void set(String key, byte[] value) {
+        values.put(ByteBuffer.wrap(key.getBytes()), value);
+    }
+
+    private RedisConnection connection() {
+        return (RedisConnection) Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class[]{RedisConnection.class},
+                new Connection());
+    }
+
+    private class Connection implements InvocationHandler {
+
+        private List<Object> pipeline;
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            switch (method.getName()) {
+                case "openPipeline":
+                    pipeline = new ArrayList<>();
+                    return null;
+                case "closePipeline":
+                    List<Object> results = pipeline;
+                    pipeline = null;
+                    return results;
+                case "isPipelined":
+                    return pipeline != null;
+                case "isQueueing":
+                case "isClosed":
+                    return false;
+                case "close":
+                    return null;
+                case "getNativeConnection":
+                    return InMemoryRedis.this;
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return "InMemoryRedisConnection";
+                default:
+                    Object result = this.execute(method.getName(), args);
+                    if (pipeline == null) {
+                        return result;
+                    }
+                    pipeline.add(result);
+                    return null;
+            }
+        }
+
+        private Object execute(String command, Object[] args) {
+            ByteBuffer key = ByteBuffer.wrap((byte[]) args[0]);
+            switch (command) {
+                case "get":
+                    return values.get(key);
+                case "set":
+                    values.put(key, (byte[]) args[1]);
+                    return true;
+                case "getBit":
+                    return getBit(values.get(key), (Long) args[1]);
+                case "setBit":
+                    return setBit(key, (Long) args[1], (Boolean) args[2]);
+                case "bitCount":
+                    byte[] bytes = values.get(key);
+                    if (bytes == null) {
+                        return 0L;
+                    }
+                    return args.length == 1
+                            ? bitCount(bytes, 0, bytes.length - 1)
+                            : bitCount(bytes, (Long) args[1], (Long) args[2]);
+                case "getRange":
+                    byte[] range = values.get(key);
+                    long start = (Long) args[1];
+                    if (range == null || start >= range.length) {
+                        return new byte[0];
+                    }
+                    return Arrays.copyOfRange(range, (int) start, (int) Math.min((Long) args[2] + 1, range.length));
+                case "hMSet":
+                    Map<ByteBuffer, byte[]> hash = hashes.computeIfAbsent(key, k -> new ConcurrentHashMap<>());
+                    ((Map<?, ?>) args[1]).forEach((field, value)
+                            -> hash.put(ByteBuffer.wrap((byte[]) field), (byte[]) value));
+                    return null;
+                case "expire":
+                    return values.containsKey(key) || hashes.containsKey(key);
+                default:
+                    throw new UnsupportedOperationException(command);
+            }
+        }
+    }
+
+    private synchronized boolean setBit(ByteBuffer key, long offset, boolean value) {
+        int index = (int) (offset >>> 3);
+        byte[] bytes = values.get(key);
+        if (bytes == null || bytes.length <= index) {
+            bytes = bytes == null ? new byte[index + 1] : Arrays.copyOf(bytes, index + 1);
+            values.put(key, bytes);
+        }
+
+        int mask = 0x80 >>> (offset & 7);
+        boolean previous = (bytes[index] & mask) != 0;
+        bytes[index] = (byte) (value ? bytes[index] | mask : bytes[index] & ~mask);
+        return previous;
+    }
+
+    private static boolean getBit(byte[] bytes, long offset) {
+        int index = (int) (offset >>> 3);
+        return bytes != null && index < bytes.length && (bytes[index] & (0x80 >>> (offset & 7))) != 0;
+    }
+
+    /**
+     * BITCOUNT of the byte range, both ends inclusive.
+     *
+     * @param bytes value
+     * @param start first byte
+     * @param end   last byte
+     * @return number of bits set
+     */
+    public static long bitCount(byte[] bytes, long start, long end) {
+        long count = 0;
+        int last = (int) Math.min(end, bytes.length - 1);
+        int i = (int) start;
+
+        // Count 8 bytes at a time, the bit order does not matter for the count.
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        for (; i + 7 <= last; i += 8) {
+            count += Long.bitCount(buffer.getLong(i));
+        }
+        for (; i <= last; i++) {
+            count += Integer.bitCount(bytes[i] & 0xFF);
+        }
+        return count;
+    }
+}
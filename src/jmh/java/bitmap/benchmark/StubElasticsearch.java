@@ -0,0 +1,106 @@
+package bitmap.benchmark;
+
+import bitmap.dto.EventDTO;
+import bitmap.scanner.DailyLaunchScanner;
+import org.apache.http.HttpHost;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.springframework.beans.BeanUtils;
+import org.springframework.data.elasticsearch.core.ElasticsearchRestTemplate;
+import org.springframework.data.elasticsearch.core.MultiGetItem;
+import org.springframework.data.elasticsearch.core.mapping.IndexCoordinates;
+import org.springframework.data.elasticsearch.core.query.Query;
+import org.springframework.data.elasticsearch.core.query.UpdateQuery;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Stand-ins of ES for the benchmarks, nothing is sent over the network.
+ */
+public final class StubElasticsearch {
+
+    private StubElasticsearch() {
+    }
+
+    /**
+     * Template counting the bulk updates, the updated fields are kept so that they can be read back.
+     */
+    public static class Template extends ElasticsearchRestTemplate {
+
+        private final RestHighLevelClient client;
+        private final AtomicLong updates = new AtomicLong();
+        private final Map<String, Map<String, Object>> documents = new ConcurrentHashMap<>();
+
+        public Template() {
+            // The client is never called, it only satisfies the constructor.
+            this(new RestHighLevelClient(RestClient.builder(new HttpHost("localhost", 9200))));
+        }
+
+        private Template(RestHighLevelClient client) {
+            super(client);
+            this.client = client;
+        }
+
+        @Override
+        public void bulkUpdate(List<UpdateQuery> queries, IndexCoordinates index) {
+            for (UpdateQuery query : queries) {
+                documents.computeIfAbsent(index.getIndexName() + "/" + query.getId(), key -> new ConcurrentHashMap<>())
+                        .putAll(query.getDocument());
+            }
+            updates.addAndGet(queries.size());
+        }
+
+        // Every document exists, those never updated have no fields. Only map types are supported.
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> List<MultiGetItem<T>> multiGet(Query query, Class<T> clazz, IndexCoordinates index) {
+            List<MultiGetItem<T>> items = new ArrayList<>(query.getIds().size());
+            for (String id : query.getIds()) {
+                Map<String, Object> item = (Map<String, Object>) BeanUtils.instantiateClass(clazz);
+                Map<String, Object> document = documents.get(index.getIndexName() + "/" + id);
+                if (document != null) {
+                    item.putAll(document);
+                }
+                items.add(MultiGetItem.of((T) item, null));
+            }
+            return items;
+        }
+
+        public long getUpdates() {
+            return updates.get();
+        }
+
+        public void close() throws IOException {
+            client.close();
+        }
+    }
+
+    /**
+     * Scanner returning the same pages on every scan.
+     */
+    public static class Scanner extends DailyLaunchScanner {
+
+        private final List<List<EventDTO>> pages;
+
+        public Scanner(List<List<EventDTO>> pages) {
+            this.pages = pages;
+        }
+
+        @Override
+        public long scan(LocalDate activeDate, Consumer<List<EventDTO>> consumer) {
+            long scanned = 0;
+            for (List<EventDTO> page : pages) {
+                consumer.accept(page);
+                scanned += page.size();
+            }
+            return scanned;
+        }
+    }
+}
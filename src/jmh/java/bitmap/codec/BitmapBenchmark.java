@@ -0,0 +1,98 @@
+package bitmap.codec;
+
+import bitmap.benchmark.InMemoryRedis;
+import org.openjdk.jmh.annotations.*;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.data.redis.serializer.JdkSerializationRedisSerializer;
+
+import java.time.LocalDateTime;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding of the values kept in Redis and counting of the bitmaps, BITCOUNT is done the way Redis does it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BitmapBenchmark {
+
+    /**
+     * Days since the first launch of the device.
+     */
+    @Param({"30", "365"})
+    private int days;
+
+    private ZonedDateTime firstLaunchTime;
+    private byte[] firstLaunchTimeBytes;
+    private byte[] legacyFirstLaunchTimeBytes;
+    private byte[] heartbeats;
+    private byte[] population;
+
+    @Setup
+    public void setup() {
+        firstLaunchTime = ZonedDateTime.now();
+        firstLaunchTimeBytes = FirstLaunchTimeCodec.encode(firstLaunchTime);
+        legacyFirstLaunchTimeBytes = new JdkSerializationRedisSerializer().serialize(LocalDateTime.now());
+
+        // An hour of heartbeats a day.
+        Random random = new Random(0);
+        heartbeats = new byte[days * 180];
+        for (int day = 0; day < days; day++) {
+            int start = random.nextInt(1380);
+            for (int minute = start; minute < start + 60; minute++) {
+                int offset = day * 1440 + minute;
+                heartbeats[offset >>> 3] |= (byte) (0x80 >>> (offset & 7));
+            }
+        }
+
+        // A tenth of a million devices active.
+        population = new byte[1_000_000 / 8];
+        for (int i = 0; i < 100_000; i++) {
+            int offset = random.nextInt(1_000_000);
+            population[offset >>> 3] |= (byte) (0x80 >>> (offset & 7));
+        }
+    }
+
+    @Benchmark
+    public byte[] encodeFirstLaunchTime() {
+        return FirstLaunchTimeCodec.encode(firstLaunchTime);
+    }
+
+    @Benchmark
+    public ZonedDateTime decodeFirstLaunchTime() {
+        return FirstLaunchTimeCodec.decode(firstLaunchTimeBytes);
+    }
+
+    @Benchmark
+    public ZonedDateTime decodeLegacyFirstLaunchTime() {
+        return FirstLaunchTimeCodec.decode(legacyFirstLaunchTimeBytes);
+    }
+
+    @Benchmark
+    public long bitCountOfDay() {
+        long start = (days - 1) * 180L;
+        return InMemoryRedis.bitCount(heartbeats, start, start + 179);
+    }
+
+    @Benchmark
+    public SessionSegments sessionsOfDay() {
+        int start = (days - 1) * 180;
+        return SessionSegments.of(Arrays.copyOfRange(heartbeats, start, start + 180));
+    }
+
+    @Benchmark
+    public long bitCountOfLifetime() {
+        return InMemoryRedis.bitCount(heartbeats, 0, heartbeats.length - 1);
+    }
+
+    @Benchmark
+    public RoaringBitmap populationToRoaring() {
+        return RedisBitmaps.toRoaring(population);
+    }
+}
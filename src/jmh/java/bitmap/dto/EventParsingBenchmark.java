@@ -0,0 +1,58 @@
+package bitmap.dto;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of the ingestion events: the map based {@link EventDTO} and the streaming {@link DeviceEvent}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventParsingBenchmark {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private String json;
+    private EventDTO eventDTO;
+
+    @Setup
+    public void setup() throws IOException {
+        json = "{\"platform\":\"android\",\"androidid\":\"6c0e3a4f-2b7d-4a53-9a0e-8f5b7d1c2e3f\","
+                + "\"app_version\":\"3.2.1\",\"os_version\":\"13\",\"network\":\"wifi\","
+                + "\"request_time\":\"" + ZonedDateTime.now().format(DateTimeFormatter.ISO_OFFSET_DATE_TIME) + "\","
+                + "\"event_time_offset_sec\":-5}";
+        eventDTO = objectMapper.readValue(json, EventDTO.class);
+    }
+
+    @Benchmark
+    public String eventDTOGetDeviceId() {
+        return eventDTO.getDeviceId();
+    }
+
+    @Benchmark
+    public ZonedDateTime eventDTOGetEventTime() {
+        return eventDTO.getEventTime();
+    }
+
+    @Benchmark
+    public ZonedDateTime readEventDTO() throws IOException {
+        EventDTO event = objectMapper.readValue(json, EventDTO.class);
+        event.getDeviceId();
+        return event.getEventTime();
+    }
+
+    @Benchmark
+    public ZonedDateTime readDeviceEvent() throws IOException {
+        DeviceEvent event = objectMapper.readValue(json, DeviceEvent.class);
+        event.getDeviceId();
+        return event.getEventTime();
+    }
+}
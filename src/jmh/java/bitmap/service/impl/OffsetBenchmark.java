@@ -0,0 +1,39 @@
+package bitmap.service.impl;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalDateTime;
+import java.time.ZonedDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Offset computations of the heartbeat and the daily launch bitmaps.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OffsetBenchmark {
+
+    private final String deviceId = "android_6c0e3a4f-2b7d-4a53-9a0e-8f5b7d1c2e3f";
+    private ZonedDateTime firstLaunchTime;
+    private LocalDateTime eventTime;
+
+    @Setup
+    public void setup() {
+        firstLaunchTime = ZonedDateTime.now().minusDays(200).withHour(13);
+        eventTime = LocalDateTime.now();
+    }
+
+    @Benchmark
+    public long heartbeatOffset() {
+        return HeartbeatServiceImpl.calculateOffset(deviceId, firstLaunchTime, eventTime);
+    }
+
+    @Benchmark
+    public long dailyLaunchOffset() {
+        return AppLaunchServiceImpl.calculateDayOffset(deviceId, firstLaunchTime.toLocalDateTime(), eventTime);
+    }
+}
@@ -0,0 +1,155 @@
+package bitmap.service.impl;
+
+import bitmap.benchmark.InMemoryRedis;
+import bitmap.benchmark.StubElasticsearch;
+import bitmap.cache.UpdateFingerprintCache;
+import bitmap.config.BitmapProperties;
+import bitmap.dto.EventDTO;
+import bitmap.metrics.BitmapMetrics;
+import bitmap.store.BitmapStore;
+import bitmap.store.LocalBitmapStore;
+import bitmap.store.RedisBitmapStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Nightly statistics over the pages of daily launch events, with Redis and ES in memory.
+ * <p>
+ * ES keeps the updated fields, so after the first run the retention and lifetime job measures the reconciliation of
+ * documents already up to date. Likewise the session duration job skips the devices fingerprinted by the first run,
+ * the daily documents are rewritten as the scanned pages never change. The bitmaps are either in the in-memory
+ * Redis or in the local store.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StatisticsBenchmark {
+
+    @Param({"1000"})
+    private int pageSize;
+
+    @Param({"10"})
+    private int pages;
+
+    @Param({"redis", "local"})
+    private String store;
+
+    private final LocalDate activeDate = LocalDate.now();
+    private StubElasticsearch.Template elasticsearchRestTemplate;
+    private HeartbeatServiceImpl heartbeatService;
+    private AppLaunchServiceImpl appLaunchService;
+    private LocalBitmapStore localBitmapStore;
+
+    @Setup
+    public void setup() throws IOException {
+        InMemoryRedis redis = new InMemoryRedis();
+        StringRedisTemplate stringRedisTemplate = redis.template();
+        Random random = new Random(0);
+        BitmapProperties bitmapProperties = new BitmapProperties();
+
+        BitmapStore bitmapStore;
+        if ("local".equals(store)) {
+            Path directory = Files.createTempDirectory("bitmap-store");
+            bitmapProperties.getStore().setType(BitmapProperties.StoreType.LOCAL);
+            bitmapProperties.getStore().getLocal().setDirectory(directory.toString());
+            localBitmapStore = new LocalBitmapStore();
+            ReflectionTestUtils.setField(localBitmapStore, "bitmapProperties", bitmapProperties);
+            localBitmapStore.init();
+            bitmapStore = localBitmapStore;
+        } else {
+            bitmapStore = new RedisBitmapStore();
+            ReflectionTestUtils.setField(bitmapStore, "stringRedisTemplate", stringRedisTemplate);
+        }
+
+        // Devices first launched up to a year ago, with an hour of heartbeats on the active date.
+        List<List<EventDTO>> eventPages = new ArrayList<>(pages);
+        for (int p = 0; p < pages; p++) {
+            List<EventDTO> page = new ArrayList<>(pageSize);
+            for (int i = 0; i < pageSize; i++) {
+                String deviceId = "android_" + p + "_" + i;
+                int days = random.nextInt(365);
+                ZonedDateTime launchTime = activeDate.atTime(12, 0).atZone(ZoneId.systemDefault());
+                ZonedDateTime firstLaunchTime = launchTime.minusDays(days);
+
+                String keyOfHeartbeat = String.format(HeartbeatServiceImpl.KEY_OF_HEARTBEAT_PER_MINUTE, deviceId);
+                for (int minute = 0; minute < 60; minute++) {
+                    bitmapStore.setBit(keyOfHeartbeat, days * 1440L + 720 + minute, true);
+                }
+                String keyOfLaunch = String.format(AppLaunchServiceImpl.KEY_OF_LAUNCH_PER_DAY, deviceId);
+                for (int day = 0; day <= days; day += 1 + random.nextInt(3)) {
+                    bitmapStore.setBit(keyOfLaunch, day, true);
+                }
+
+                EventDTO eventDTO = new EventDTO();
+                eventDTO.put("device_id", deviceId);
+                eventDTO.put("first_launch_time", firstLaunchTime.format(DateTimeFormatter.ISO_OFFSET_DATE_TIME));
+                eventDTO.put("launch_time", launchTime.format(DateTimeFormatter.ISO_OFFSET_DATE_TIME));
+                page.add(eventDTO);
+            }
+            eventPages.add(page);
+        }
+
+        elasticsearchRestTemplate = new StubElasticsearch.Template();
+        StubElasticsearch.Scanner scanner = new StubElasticsearch.Scanner(eventPages);
+        BitmapMetrics bitmapMetrics = new BitmapMetrics();
+        ReflectionTestUtils.setField(bitmapMetrics, "meterRegistry", new SimpleMeterRegistry());
+        UpdateFingerprintCache updateFingerprintCache = new UpdateFingerprintCache();
+        ReflectionTestUtils.setField(updateFingerprintCache, "bitmapProperties", bitmapProperties);
+        ReflectionTestUtils.setField(updateFingerprintCache, "meterRegistry", new SimpleMeterRegistry());
+        updateFingerprintCache.init();
+
+        heartbeatService = new HeartbeatServiceImpl();
+        ReflectionTestUtils.setField(heartbeatService, "stringRedisTemplate", stringRedisTemplate);
+        ReflectionTestUtils.setField(heartbeatService, "bitmapStore", bitmapStore);
+        ReflectionTestUtils.setField(heartbeatService, "elasticsearchRestTemplate", elasticsearchRestTemplate);
+        ReflectionTestUtils.setField(heartbeatService, "dailyLaunchScanner", scanner);
+        ReflectionTestUtils.setField(heartbeatService, "bitmapProperties", bitmapProperties);
+        ReflectionTestUtils.setField(heartbeatService, "bitmapMetrics", bitmapMetrics);
+        ReflectionTestUtils.setField(heartbeatService, "updateFingerprintCache", updateFingerprintCache);
+
+        appLaunchService = new AppLaunchServiceImpl();
+        ReflectionTestUtils.setField(appLaunchService, "stringRedisTemplate", stringRedisTemplate);
+        ReflectionTestUtils.setField(appLaunchService, "bitmapStore", bitmapStore);
+        ReflectionTestUtils.setField(appLaunchService, "elasticsearchRestTemplate", elasticsearchRestTemplate);
+        ReflectionTestUtils.setField(appLaunchService, "dailyLaunchScanner", scanner);
+        ReflectionTestUtils.setField(appLaunchService, "bitmapProperties", bitmapProperties);
+        ReflectionTestUtils.setField(appLaunchService, "bitmapMetrics", bitmapMetrics);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException, InterruptedException {
+        elasticsearchRestTemplate.close();
+        if (localBitmapStore != null) {
+            localBitmapStore.destroy();
+        }
+    }
+
+    @Benchmark
+    public long sessionDuration() {
+        heartbeatService.statisticsSessionDuration(activeDate);
+        return elasticsearchRestTemplate.getUpdates();
+    }
+
+    @Benchmark
+    public long retentionAndLifetime() {
+        appLaunchService.statisticsRetentionAndLifetime(activeDate);
+        return elasticsearchRestTemplate.getUpdates();
+    }
+}
@@ -0,0 +1,117 @@
+package bitmap.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Synthetic devices sending events the way the apps do: a launch, then a heartbeat every minute.
+ * <p>
+ * Time is simulated, the devices launch at the start and each round is the next minute, so that minutes of traffic
+ * are sent as fast as the service takes them. Events are sent late by a random number of seconds, as the apps
+ * buffer them.
+ */
+public class DevicePopulation {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final List<Map<String, Object>> devices;
+    private final ZonedDateTime start;
+    private final int jitterSec;
+
+    /**
+     * Create the population.
+     *
+     * @param size         number of devices
+     * @param androidRatio ratio of android devices, the others are ios
+     * @param start        simulated time of the launches
+     * @param jitterSec    maximum seconds an event is sent late
+     * @param seed         seed of the devices, the same seed gives the same devices
+     */
+    public DevicePopulation(int size, double androidRatio, ZonedDateTime start, int jitterSec, long seed) {
+        this.start = start;
+        this.jitterSec = jitterSec;
+        Random random = new Random(seed);
+        this.devices = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            Map<String, Object> device = new LinkedHashMap<>();
+            UUID id = new UUID(random.nextLong(), random.nextLong());
+            if (random.nextDouble() < androidRatio) {
+                device.put("platform", "android");
+                device.put("androidid", id.toString());
+                device.put("os_version", String.valueOf(9 + random.nextInt(5)));
+            } else {
+                device.put("platform", "ios");
+                device.put("idfv", id.toString().toUpperCase());
+                device.put("os_version", (14 + random.nextInt(4)) + "." + random.nextInt(6));
+            }
+            device.put("app_version", "3." + random.nextInt(4) + "." + random.nextInt(10));
+            device.put("network", random.nextInt(4) == 0 ? "cellular" : "wifi");
+            devices.add(device);
+        }
+    }
+
+    public int size() {
+        return devices.size();
+    }
+
+    /**
+     * Launch event of the device.
+     *
+     * @param device index of the device
+     * @return JSON body
+     */
+    public String launch(int device) {
+        return this.event(device, start);
+    }
+
+    /**
+     * Heartbeat event of the device in the minute.
+     *
+     * @param device index of the device
+     * @param minute minute since the launch
+     * @return JSON body
+     */
+    public String heartbeat(int device, int minute) {
+        return this.event(device, start.plusMinutes(minute).plusSeconds(ThreadLocalRandom.current().nextInt(60)));
+    }
+
+    /**
+     * Heartbeat events of the devices in the minute, as one batch.
+     *
+     * @param fromDevice index of the first device
+     * @param toDevice   index after the last device
+     * @param minute     minute since the launch
+     * @return JSON body
+     */
+    public String heartbeats(int fromDevice, int toDevice, int minute) {
+        StringBuilder body = new StringBuilder("[");
+        for (int device = fromDevice; device < toDevice; device++) {
+            if (device > fromDevice) {
+                body.append(',');
+            }
+            body.append(this.heartbeat(device, minute));
+        }
+        return body.append(']').toString();
+    }
+
+    private String event(int device, ZonedDateTime eventTime) {
+        // The request arrives late, the offset brings the event time back.
+        int late = ThreadLocalRandom.current().nextInt(jitterSec + 1);
+        Map<String, Object> event = new LinkedHashMap<>(devices.get(device));
+        event.put("request_time", eventTime.plusSeconds(late).format(DateTimeFormatter.ISO_OFFSET_DATE_TIME));
+        event.put("event_time_offset_sec", -late);
+        try {
+            return objectMapper.writeValueAsString(event);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
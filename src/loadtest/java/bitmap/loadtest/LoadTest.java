@@ -0,0 +1,245 @@
+package bitmap.loadtest;
+
+import bitmap.BitMap;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.apache.hc.client5.http.classic.methods.HttpPost;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.apache.hc.core5.http.io.entity.StringEntity;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntFunction;
+
+/**
+ * Load test of the ingestion endpoints, run with {@code mvn -Ploadtest -DskipTests verify}.
+ * <p>
+ * The service is started in the JVM against the local Redis and a stub of ES. The devices launch the app once and
+ * then send a heartbeat every simulated minute. Latency distributions are reported per endpoint, with the Redis
+ * commands and ES requests per event. Redis counts come from INFO commandstats, so other clients of the same Redis
+ * are counted as well.
+ * <p>
+ * Settings are system properties:
+ * <ul>
+ *     <li>loadtest.devices: number of devices, 1000 by default</li>
+ *     <li>loadtest.minutes: minutes of heartbeats of each device, 10 by default</li>
+ *     <li>loadtest.android-ratio: ratio of android devices, 0.7 by default</li>
+ *     <li>loadtest.jitter-sec: maximum seconds an event is sent late, 30 by default</li>
+ *     <li>loadtest.concurrency: number of connections sending requests, 16 by default</li>
+ *     <li>loadtest.rate: target events per second, 0 for as fast as possible</li>
+ *     <li>loadtest.batch-size: heartbeats per request to /heartbeat/batch, 0 to send them one by one</li>
+ *     <li>loadtest.output: directory of the histograms, target by default</li>
+ * </ul>
+ * Properties of the service are passed as arguments, e.g. {@code --bitmap.heartbeat.write-mode=script}, or from
+ * Maven through the environment, e.g. {@code BITMAP_HEARTBEAT_WRITEMODE=script}.
+ */
+public class LoadTest {
+
+    private final int concurrency = Integer.getInteger("loadtest.concurrency", 16);
+    private final double rate = Double.parseDouble(System.getProperty("loadtest.rate", "0"));
+    private final File output = new File(System.getProperty("loadtest.output", "target"));
+    private final StubElasticsearchServer elasticsearch;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final CloseableHttpClient client;
+    private final String baseUrl;
+
+    private LoadTest(StubElasticsearchServer elasticsearch, StringRedisTemplate stringRedisTemplate, int port) {
+        this.elasticsearch = elasticsearch;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.baseUrl = "http://localhost:" + port;
+
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(concurrency);
+        connectionManager.setDefaultMaxPerRoute(concurrency);
+        this.client = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .build();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int devices = Integer.getInteger("loadtest.devices", 1000);
+        int minutes = Integer.getInteger("loadtest.minutes", 10);
+        double androidRatio = Double.parseDouble(System.getProperty("loadtest.android-ratio", "0.7"));
+        int jitterSec = Integer.getInteger("loadtest.jitter-sec", 30);
+        int batchSize = Integer.getInteger("loadtest.batch-size", 0);
+
+        StubElasticsearchServer elasticsearch = new StubElasticsearchServer();
+        elasticsearch.start();
+
+        List<String> appArgs = new ArrayList<>();
+        appArgs.add("--server.port=0");
+        appArgs.add("--spring.elasticsearch.uris=" + elasticsearch.getUri());
+        appArgs.add("--logging.level.bitmap=info");
+        for (String arg : args) {
+            appArgs.add(arg);
+        }
+        ServletWebServerApplicationContext context = (ServletWebServerApplicationContext)
+                SpringApplication.run(BitMap.class, appArgs.toArray(new String[0]));
+
+        int exitCode = 0;
+        LoadTest loadTest = new LoadTest(elasticsearch, context.getBean(StringRedisTemplate.class),
+                context.getWebServer().getPort());
+        try {
+            // Launch a while ago, so that all the heartbeats are in the past.
+            ZonedDateTime start = ZonedDateTime.now().minusMinutes(minutes + 1L).truncatedTo(ChronoUnit.MINUTES);
+            DevicePopulation population = new DevicePopulation(devices, androidRatio, start, jitterSec, 1L);
+            System.out.printf("%d devices, %.0f%% android, %d minutes of heartbeats, %d connections, rate %s%n",
+                    devices, androidRatio * 100, minutes, loadTest.concurrency,
+                    loadTest.rate > 0 ? loadTest.rate + " events/s" : "unbounded");
+
+            loadTest.run("app_launch", "/app_launch", devices, 1, population::launch);
+
+            if (batchSize > 0) {
+                int batchesPerMinute = (devices + batchSize - 1) / batchSize;
+                loadTest.run("heartbeat_batch", "/heartbeat/batch", batchesPerMinute * minutes, batchSize, i -> {
+                    int minute = i / batchesPerMinute;
+                    int from = (i % batchesPerMinute) * batchSize;
+                    return population.heartbeats(from, Math.min(from + batchSize, devices), minute);
+                });
+            } else {
+                loadTest.run("heartbeat", "/heartbeat", devices * minutes, 1,
+                        i -> population.heartbeat(i % devices, i / devices));
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            exitCode = 1;
+        } finally {
+            loadTest.client.close();
+            context.close();
+            elasticsearch.stop();
+        }
+        System.exit(exitCode);
+    }
+
+    /**
+     * Send the requests of a phase and report.
+     *
+     * @param name              name of the phase
+     * @param path              path of the endpoint
+     * @param requests          number of requests
+     * @param eventsPerRequest  number of events in a request
+     * @param body              body of the request of the index
+     */
+    private void run(String name, String path, int requests, int eventsPerRequest, IntFunction<String> body)
+            throws InterruptedException, IOException {
+        Map<String, Long> redisBefore = this.redisCommands();
+        Map<String, Long> elasticsearchBefore = elasticsearch.getOperations();
+
+        // Latency from the intended send time when the rate is bounded, so that stalls are not hidden.
+        Histogram histogram = new ConcurrentHistogram(3);
+        AtomicInteger next = new AtomicInteger();
+        AtomicLong errors = new AtomicLong();
+        long intervalNanos = rate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) * eventsPerRequest / rate) : 0;
+        long startNanos = System.nanoTime();
+
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+        for (int w = 0; w < concurrency; w++) {
+            workers.execute(() -> {
+                int i;
+                while ((i = next.getAndIncrement()) < requests) {
+                    long intendedNanos = startNanos + i * intervalNanos;
+                    long waitNanos;
+                    while ((waitNanos = intendedNanos - System.nanoTime()) > 0) {
+                        LockSupport.parkNanos(waitNanos);
+                    }
+
+                    HttpPost post = new HttpPost(baseUrl + path);
+                    post.setEntity(new StringEntity(body.apply(i), ContentType.APPLICATION_JSON));
+                    long sendNanos = System.nanoTime();
+                    try {
+                        int code = client.execute(post, response -> {
+                            EntityUtils.consume(response.getEntity());
+                            return response.getCode();
+                        });
+                        if (code != 200) {
+                            errors.incrementAndGet();
+                        }
+                    } catch (IOException e) {
+                        errors.incrementAndGet();
+                    }
+                    histogram.recordValue(System.nanoTime() - (intervalNanos > 0 ? intendedNanos : sendNanos));
+                }
+            });
+        }
+        workers.shutdown();
+        workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+
+        long events = (long) requests * eventsPerRequest;
+        System.out.printf("%n== %s: %d events in %d requests, %.1f s, %.0f events/s, %d errors%n",
+                name, events, requests, seconds, events / seconds, errors.get());
+        System.out.printf("latency (ms) p50=%.2f p90=%.2f p99=%.2f p99.9=%.2f max=%.2f%n",
+                histogram.getValueAtPercentile(50) / 1e6,
+                histogram.getValueAtPercentile(90) / 1e6,
+                histogram.getValueAtPercentile(99) / 1e6,
+                histogram.getValueAtPercentile(99.9) / 1e6,
+                histogram.getMaxValue() / 1e6);
+        System.out.println("redis commands per event: " + perEvent(redisBefore, this.redisCommands(), events));
+        System.out.println("es requests per event: "
+                + perEvent(elasticsearchBefore, elasticsearch.getOperations(), events));
+
+        // The full distribution, to be plotted or compared across builds.
+        if (output.isDirectory() || output.mkdirs()) {
+            File file = new File(output, "loadtest-" + name + ".hgrm");
+            try (PrintStream out = new PrintStream(new FileOutputStream(file), true, "UTF-8")) {
+                histogram.outputPercentileDistribution(out, 1e6);
+            }
+        }
+    }
+
+    // Calls by command from INFO commandstats, without the INFO called here.
+    private Map<String, Long> redisCommands() {
+        Properties stats = stringRedisTemplate.execute((RedisCallback<Properties>) connection
+                -> connection.info("commandstats"));
+        Map<String, Long> calls = new TreeMap<>();
+        if (stats == null) {
+            return calls;
+        }
+        for (String name : stats.stringPropertyNames()) {
+            if (!name.startsWith("cmdstat_") || "cmdstat_info".equals(name)) {
+                continue;
+            }
+            for (String field : stats.getProperty(name).split(",")) {
+                if (field.startsWith("calls=")) {
+                    calls.put(name.substring("cmdstat_".length()), Long.parseLong(field.substring("calls=".length())));
+                }
+            }
+        }
+        return calls;
+    }
+
+    private static String perEvent(Map<String, Long> before, Map<String, Long> after, long events) {
+        StringBuilder result = new StringBuilder();
+        after.forEach((name, count) -> {
+            long delta = count - before.getOrDefault(name, 0L);
+            if (delta > 0) {
+                result.append(result.length() == 0 ? "" : " ").append(String.format("%s=%.3f", name,
+                        (double) delta / events));
+            }
+        });
+        return result.length() == 0 ? "none" : result.toString();
+    }
+}
@@ -0,0 +1,212 @@
+package bitmap.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stand-in of ES for the load test, answering the requests of the ingestion the way ES 7 does.
+ * <p>
+ * Documents are not stored, only their IDs, so that creating an existing document is a conflict. Requests are
+ * counted by operation.
+ */
+public class StubElasticsearchServer {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Set<String> documents = ConcurrentHashMap.newKeySet();
+    private final Map<String, AtomicLong> operations = new ConcurrentHashMap<>();
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final HttpServer server;
+
+    public StubElasticsearchServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    public String getUri() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    /**
+     * Number of requests and bulk items by operation since the start.
+     *
+     * @return operation to count
+     */
+    public Map<String, Long> getOperations() {
+        Map<String, Long> counts = new TreeMap<>();
+        operations.forEach((operation, count) -> counts.put(operation, count.get()));
+        return counts;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            String path = exchange.getRequestURI().getPath();
+            String[] segments = path.substring(1).split("/");
+
+            if ("/".equals(path)) {
+                this.count("info");
+                this.respond(exchange, 200, this.info());
+            } else if (path.endsWith("/_bulk")) {
+                this.count("bulk");
+                this.respond(exchange, 200, this.bulk(exchange));
+            } else if (segments.length == 3 && ("_create".equals(segments[1]) || "_doc".equals(segments[1]))
+                    && ("PUT".equals(method) || "POST".equals(method))) {
+                this.count("index");
+                this.drain(exchange);
+                this.create(exchange, segments[0], segments[2]);
+            } else {
+                this.count("other");
+                this.drain(exchange);
+                ObjectNode error = objectMapper.createObjectNode();
+                error.putObject("error").put("type", "unsupported").put("reason", method + " " + path);
+                error.put("status", 400);
+                this.respond(exchange, 400, error);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void create(HttpExchange exchange, String index, String id) throws IOException {
+        if (documents.add(index + "/" + id)) {
+            this.respond(exchange, 201, this.item(index, id, 201));
+        } else {
+            this.count("conflict");
+            ObjectNode error = objectMapper.createObjectNode();
+            error.set("error", this.conflict(index, id));
+            error.put("status", 409);
+            this.respond(exchange, 409, error);
+        }
+    }
+
+    private ObjectNode bulk(HttpExchange exchange) throws IOException {
+        ObjectNode response = objectMapper.createObjectNode();
+        response.put("took", 1);
+        ArrayNode items = response.putArray("items");
+        boolean errors = false;
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(exchange.getRequestBody(),
+                StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            JsonNode action = objectMapper.readTree(line);
+            String type = action.fieldNames().next();
+            JsonNode metadata = action.get(type);
+            String index = metadata.path("_index").asText();
+            String id = metadata.path("_id").asText();
+            if (!"delete".equals(type)) {
+                // Skip the source.
+                reader.readLine();
+            }
+            this.count("bulk_" + type);
+
+            ObjectNode item;
+            if (!"create".equals(type) || documents.add(index + "/" + id)) {
+                item = this.item(index, id, 201);
+            } else {
+                this.count("conflict");
+                errors = true;
+                item = objectMapper.createObjectNode();
+                item.put("_index", index).put("_type", "_doc").put("_id", id).put("status", 409);
+                item.set("error", this.conflict(index, id));
+            }
+            items.addObject().set(type, item);
+        }
+
+        response.put("errors", errors);
+        return response;
+    }
+
+    private ObjectNode item(String index, String id, int status) {
+        ObjectNode item = objectMapper.createObjectNode();
+        item.put("_index", index)
+                .put("_type", "_doc")
+                .put("_id", id)
+                .put("_version", 1)
+                .put("result", "created")
+                .put("_seq_no", 0)
+                .put("_primary_term", 1)
+                .put("status", status);
+        item.putObject("_shards").put("total", 1).put("successful", 1).put("failed", 0);
+        return item;
+    }
+
+    private ObjectNode conflict(String index, String id) {
+        ObjectNode error = objectMapper.createObjectNode();
+        error.put("type", "version_conflict_engine_exception")
+                .put("reason", "[" + id + "]: version conflict, document already exists")
+                .put("index", index);
+        return error;
+    }
+
+    private ObjectNode info() {
+        ObjectNode info = objectMapper.createObjectNode();
+        info.put("name", "stub")
+                .put("cluster_name", "stub")
+                .put("cluster_uuid", "_na_")
+                .put("tagline", "You Know, for Search");
+        info.putObject("version")
+                .put("number", "7.17.3")
+                .put("build_flavor", "default")
+                .put("build_type", "docker")
+                .put("build_hash", "5ad023604c8d7416c9eb6c0eadb62b14e766caff")
+                .put("build_date", "2022-04-19T08:11:19.070913226Z")
+                .put("build_snapshot", false)
+                .put("lucene_version", "8.11.1")
+                .put("minimum_wire_compatibility_version", "6.8.0")
+                .put("minimum_index_compatibility_version", "6.0.0-beta1");
+        return info;
+    }
+
+    private void count(String operation) {
+        operations.computeIfAbsent(operation, key -> new AtomicLong()).incrementAndGet();
+    }
+
+    private void drain(HttpExchange exchange) throws IOException {
+        byte[] buffer = new byte[8192];
+        while (exchange.getRequestBody().read(buffer) >= 0) {
+            // Discard the document.
+        }
+    }
+
+    private void respond(HttpExchange exchange, int status, JsonNode body) throws IOException {
+        byte[] bytes = objectMapper.writeValueAsBytes(body);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+        exchange.getResponseHeaders().set("X-Elastic-Product", "Elasticsearch");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package bitmap.aggregation;
+
+import java.util.function.LongConsumer;
+
+/**
+ * Bits of one device collected in memory, backed by a window of primitive long words.
+ */
+final class DeviceBits {
+
+    /**
+     * Maximum span of the window, 64 words cover 4096 consecutive offsets.
+     */
+    static final int MAX_SPAN_WORDS = 64;
+
+    private static final long[] EMPTY = new long[0];
+
+    // Index of the first word in the window.
+    private long baseWord;
+    private long[] words = EMPTY;
+
+    /**
+     * Set the bit at the offset.
+     *
+     * @param offset offset of the bit
+     * @return false if the offset is too far from the bits already collected
+     */
+    boolean set(long offset) {
+        long word = offset >>> 6;
+        if (!this.ensureCovered(word, word)) {
+            return false;
+        }
+        words[(int) (word - baseWord)] |= 1L << (offset & 63);
+        return true;
+    }
+
+    /**
+     * Merge all the bits of the other device bits into this one, the window grows up to the maximum span.
+     *
+     * @param other other device bits
+     * @return false if the bits are too far apart, this one is left unchanged
+     */
+    boolean or(DeviceBits other) {
+        if (other.words.length == 0) {
+            return true;
+        }
+        if (!this.ensureCovered(other.baseWord, other.baseWord + other.words.length - 1)) {
+            return false;
+        }
+        int shift = (int) (other.baseWord - baseWord);
+        for (int i = 0; i < other.words.length; i++) {
+            words[shift + i] |= other.words[i];
+        }
+        return true;
+    }
+
+    /**
+     * Number of bits set.
+     */
+    int cardinality() {
+        int cardinality = 0;
+        for (long word : words) {
+            cardinality += Long.bitCount(word);
+        }
+        return cardinality;
+    }
+
+    /**
+     * Visit the offsets of all the bits set in ascending order.
+     *
+     * @param consumer offset consumer
+     */
+    void forEach(LongConsumer consumer) {
+        for (int i = 0; i < words.length; i++) {
+            long word = words[i];
+            while (word != 0) {
+                consumer.accept(((baseWord + i) << 6) + Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+        }
+    }
+
+    // Grow the window to cover the words between first and last.
+    private boolean ensureCovered(long first, long last) {
+        if (words.length == 0) {
+            baseWord = first;
+            words = new long[(int) (last - first + 1)];
+            return true;
+        }
+
+        long end = baseWord + words.length;
+        if (first >= baseWord && last < end) {
+            return true;
+        }
+
+        long newBase = Math.min(baseWord, first);
+        long newEnd = Math.max(end, last + 1);
+        if (newEnd - newBase > MAX_SPAN_WORDS) {
+            return false;
+        }
+
+        long[] newWords = new long[(int) (newEnd - newBase)];
+        System.arraycopy(words, 0, newWords, (int) (baseWord - newBase), words.length);
+        baseWord = newBase;
+        words = newWords;
+        return true;
+    }
+}
@@ -0,0 +1,299 @@
+package bitmap.aggregation;
+
+import bitmap.config.BitmapProperties;
+import bitmap.metrics.BitmapMetrics;
+import io.lettuce.core.RedisCommandExecutionException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.data.redis.connection.RedisPipelineException;
+import org.springframework.data.redis.connection.BitFieldSubCommands;
+import org.springframework.data.redis.connection.BitFieldSubCommands.BitFieldSet;
+import org.springframework.data.redis.connection.BitFieldSubCommands.BitFieldSubCommand;
+import org.springframework.data.redis.connection.BitFieldSubCommands.BitFieldType;
+import org.springframework.data.redis.connection.BitFieldSubCommands.Offset;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Write-behind aggregator of heartbeat bits.
+ * <p>
+ * Bits are collected per key in memory, sharded by the hash of the key, and flushed to Redis every window
+ * with one BITFIELD per key. A failed flush puts the bits back into the buffer and suspends the flushes of the
+ * callers and the write-throughs for the backoff, only the flush thread retries. While flushes fail, the buffer is
+ * bounded by a hard limit of devices, bits beyond it are dropped. Offsets out of the range of a Redis bitmap are
+ * dropped when added, and the bits of a key of which Redis rejects the command are dropped instead of put back, so
+ * that one bad key does not hold back the flushes. Dropped bits are counted by
+ * {@code bitmap.heartbeat.aggregator.dropped} tagged with the reason. The buffer is drained when the application
+ * shuts down.
+ */
+@Slf4j
+@Component
+public class HeartbeatAggregator implements DisposableBean {
+
+    private static final BitFieldType BIT = BitFieldType.unsigned(1);
+    /**
+     * Largest offset of a Redis bitmap, 2^32 - 1.
+     */
+    static final long MAX_OFFSET = (1L << 32) - 1;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private BitmapProperties bitmapProperties;
+    @Resource
+    private BitmapMetrics bitmapMetrics;
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    private final AtomicInteger bufferedDevices = new AtomicInteger();
+    private Shard[] shards;
+    private ScheduledExecutorService scheduler;
+    // Bits dropped while flushes fail, out of range, rejected by Redis.
+    private Counter dropped;
+    private Counter outOfRange;
+    private Counter rejected;
+    // Time before which only the flush thread writes to Redis, after a failure.
+    private volatile long suspendedUntil = System.nanoTime();
+
+    @PostConstruct
+    public void init() {
+        BitmapProperties.Aggregator aggregator = bitmapProperties.getHeartbeat().getAggregator();
+        shards = new Shard[aggregator.getShards()];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard();
+        }
+        dropped = this.droppedCounter("flush_failed");
+        outOfRange = this.droppedCounter("out_of_range");
+        rejected = this.droppedCounter("rejected");
+
+        // Only start the flush thread when the aggregator is in use.
+        if (bitmapProperties.getHeartbeat().getWriteMode() == BitmapProperties.WriteMode.AGGREGATE) {
+            long window = aggregator.getWindow().toMillis();
+            scheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("heartbeat-aggregator-"));
+            scheduler.scheduleWithFixedDelay(this::scheduledFlush, window, window, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private Counter droppedCounter(String reason) {
+        return Counter.builder("bitmap.heartbeat.aggregator.dropped")
+                .description("Number of heartbeat bits dropped by the aggregator")
+                .tag("reason", reason)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Set the bit at the offset of the key, it will be written to Redis with the next flush.
+     *
+     * @param key    key of the bitmap
+     * @param offset offset of the bit
+     * @return false if the offset is out of the range of a Redis bitmap, e.g. before the first launch day
+     */
+    public boolean add(String key, long offset) {
+        if (offset < 0 || offset > MAX_OFFSET) {
+            outOfRange.increment();
+            log.warn("Heartbeat offset {} of {} is out of range, dropped.", offset, key);
+            return false;
+        }
+
+        BitmapProperties.Aggregator aggregator = bitmapProperties.getHeartbeat().getAggregator();
+        Shard shard = shards[(key.hashCode() & Integer.MAX_VALUE) % shards.length];
+        boolean overflow = false;
+        boolean accepted;
+        synchronized (shard) {
+            DeviceBits bits = shard.buffer.get(key);
+            if (bits == null) {
+                if (bufferedDevices.get() >= aggregator.getMaxDevicesOnFailure()) {
+                    dropped.increment();
+                    return true;
+                }
+                bits = new DeviceBits();
+                shard.buffer.put(key, bits);
+                overflow = bufferedDevices.incrementAndGet() > aggregator.getMaxDevices();
+            }
+            accepted = bits.set(offset);
+        }
+
+        // The offset is far away from the buffered bits, write it through.
+        if (!accepted) {
+            this.writeThrough(key, offset);
+        }
+
+        // Bound the memory by flushing the shard on the caller thread, unless flushes fail.
+        if (overflow && !this.isSuspended()) {
+            this.flush(shard);
+        }
+        return true;
+    }
+
+    /**
+     * Flush all the shards to Redis, stops at the first failure.
+     */
+    public void flush() {
+        for (Shard shard : shards) {
+            if (!this.flush(shard)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Number of keys waiting to be flushed.
+     */
+    public int getBufferedDevices() {
+        return bufferedDevices.get();
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        if (scheduler != null) {
+            scheduler.shutdown();
+            if (!scheduler.awaitTermination(30, TimeUnit.SECONDS)) {
+                log.warn("Heartbeat aggregator did not stop in time.");
+            }
+        }
+
+        // Drain the buffer.
+        this.flush();
+        if (bufferedDevices.get() > 0) {
+            log.error("Heartbeat aggregator shut down with {} devices not flushed.", bufferedDevices.get());
+        }
+    }
+
+    private boolean isSuspended() {
+        return System.nanoTime() - suspendedUntil < 0;
+    }
+
+    private void suspend() {
+        suspendedUntil = System.nanoTime() + bitmapProperties.getHeartbeat().getAggregator().getBackoff().toNanos();
+    }
+
+    // Write the bit that does not fit in the buffer, dropped while flushes fail.
+    private void writeThrough(String key, long offset) {
+        if (this.isSuspended()) {
+            dropped.increment();
+            return;
+        }
+        try {
+            bitmapMetrics.redis("heartbeat_write_through", () -> stringRedisTemplate.opsForValue()
+                    .setBit(key, offset, true));
+        } catch (Exception e) {
+            if (isRejected(e)) {
+                rejected.increment();
+                log.error("Write heartbeat bit of {} through rejected, dropped.", key, e);
+                return;
+            }
+            this.suspend();
+            dropped.increment();
+            log.error("Write heartbeat bit through error, flushes suspended for {}.",
+                    bitmapProperties.getHeartbeat().getAggregator().getBackoff(), e);
+        }
+    }
+
+    private boolean flush(Shard shard) {
+        Map<String, DeviceBits> drained;
+        synchronized (shard) {
+            if (shard.buffer.isEmpty()) {
+                return true;
+            }
+            drained = shard.buffer;
+            shard.buffer = new HashMap<>();
+            bufferedDevices.addAndGet(-drained.size());
+        }
+
+        try {
+            this.write(new ArrayList<>(drained.entrySet()));
+            return true;
+        } catch (Exception e) {
+            // Put the bits back so that they are written by the flush thread after the backoff.
+            this.suspend();
+            log.error("Flush heartbeat bits of {} devices error, flushes suspended for {}.", drained.size(),
+                    bitmapProperties.getHeartbeat().getAggregator().getBackoff(), e);
+            this.requeue(shard, drained);
+            return false;
+        }
+    }
+
+    // Whether Redis answered the command with an error, as opposed to not being reachable or not answering in time.
+    private static boolean isRejected(Exception e) {
+        return e.getCause() instanceof RedisCommandExecutionException;
+    }
+
+    // Flush of the flush thread, skipped during the backoff.
+    private void scheduledFlush() {
+        if (!this.isSuspended()) {
+            this.flush();
+        }
+    }
+
+    // Write the bits with one BITFIELD per key in a single pipeline. The pipeline fails as a whole when Redis rejects a
+    // command, it is then split in halves until the rejected keys are alone, their bits are dropped.
+    private void write(List<Map.Entry<String, DeviceBits>> entries) {
+        try {
+            bitmapMetrics.redis("heartbeat_bitfield", () -> stringRedisTemplate.executePipelined(
+                    (RedisCallback<Object>) connection -> {
+                        for (Map.Entry<String, DeviceBits> entry : entries) {
+                            DeviceBits bits = entry.getValue();
+                            List<BitFieldSubCommand> subCommands = new ArrayList<>(bits.cardinality());
+                            bits.forEach(offset -> subCommands.add(BitFieldSet.create(BIT, Offset.offset(offset), 1)));
+                            connection.bitField(entry.getKey().getBytes(),
+                                    BitFieldSubCommands.create(subCommands.toArray(new BitFieldSubCommand[0])));
+                        }
+                        return null;
+                    }));
+        } catch (RedisPipelineException e) {
+            if (!isRejected(e)) {
+                throw e;
+            }
+            if (entries.size() == 1) {
+                rejected.increment(entries.get(0).getValue().cardinality());
+                log.error("Write heartbeat bits of {} rejected, dropped.", entries.get(0).getKey(), e);
+                return;
+            }
+            int half = entries.size() / 2;
+            this.write(entries.subList(0, half));
+            this.write(entries.subList(half, entries.size()));
+            return;
+        }
+        log.debug("Flushed heartbeat bits of {} devices.", entries.size());
+    }
+
+    // Put the bits back up to the hard limit, bits that do not fit in the window of newer bits are dropped.
+    private void requeue(Shard shard, Map<String, DeviceBits> drained) {
+        int maxDevices = bitmapProperties.getHeartbeat().getAggregator().getMaxDevicesOnFailure();
+        long droppedBits = 0;
+        synchronized (shard) {
+            for (Map.Entry<String, DeviceBits> entry : drained.entrySet()) {
+                DeviceBits bits = shard.buffer.get(entry.getKey());
+                if (bits == null && bufferedDevices.get() < maxDevices) {
+                    shard.buffer.put(entry.getKey(), entry.getValue());
+                    bufferedDevices.incrementAndGet();
+                } else if (bits == null || !bits.or(entry.getValue())) {
+                    droppedBits += entry.getValue().cardinality();
+                }
+            }
+        }
+        if (droppedBits > 0) {
+            dropped.increment(droppedBits);
+            log.warn("Dropped {} heartbeat bits while flushes fail.", droppedBits);
+        }
+    }
+
+    private static class Shard {
+        private Map<String, DeviceBits> buffer = new HashMap<>();
+    }
+}
@@ -0,0 +1,180 @@
+package bitmap.cache;
+
+import bitmap.config.BitmapProperties;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Near cache of the first launch time of the devices.
+ * <p>
+ * The first launch time never changes once it is written, so entries never expire and are only evicted by size.
+ * Devices without first launch time can optionally be cached for a short while as well.
+ */
+@Component
+public class FirstLaunchTimeCache {
+
+    @Resource
+    private BitmapProperties bitmapProperties;
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    // Device ID -> first launch time in epoch seconds and zone offset, packed by pack.
+    private Cache<String, Long> cache;
+    // Device ID of the devices without first launch time.
+    private Cache<String, Boolean> negativeCache;
+
+    @PostConstruct
+    public void init() {
+        BitmapProperties.FirstLaunchTimeCache properties = bitmapProperties.getFirstLaunchTimeCache();
+        cache = Caffeine.newBuilder()
+                .maximumSize(properties.getMaximumSize())
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "first_launch_time");
+
+        negativeCache = Caffeine.newBuilder()
+                .maximumSize(properties.getNegativeMaximumSize())
+                .expireAfterWrite(properties.getNegativeTtl())
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, negativeCache, "first_launch_time_negative");
+    }
+
+    /**
+     * Get the first launch time of the device, the loader is called on cache miss.
+     *
+     * @param deviceId deviceId
+     * @param loader   loader of the first launch time
+     * @return first launch time of the device
+     */
+    public ZonedDateTime get(String deviceId, Function<String, ZonedDateTime> loader) {
+        if (!this.isEnabled()) {
+            return loader.apply(deviceId);
+        }
+
+        Long packed = cache.getIfPresent(deviceId);
+        if (packed != null) {
+            return unpack(packed);
+        }
+        if (this.isNegativeCached(deviceId)) {
+            return null;
+        }
+
+        ZonedDateTime firstLaunchTime = loader.apply(deviceId);
+        this.put(deviceId, firstLaunchTime);
+        return firstLaunchTime;
+    }
+
+    /**
+     * Get the first launch time of the device without blocking, the loader is subscribed to on cache miss.
+     *
+     * @param deviceId deviceId
+     * @param loader   loader of the first launch time, empty if the device is unknown
+     * @return first launch time of the device, empty if the device is unknown
+     */
+    public Mono<ZonedDateTime> getAsync(String deviceId, Function<String, Mono<ZonedDateTime>> loader) {
+        if (!this.isEnabled()) {
+            return loader.apply(deviceId);
+        }
+
+        Long packed = cache.getIfPresent(deviceId);
+        if (packed != null) {
+            return Mono.just(unpack(packed));
+        }
+        if (this.isNegativeCached(deviceId)) {
+            return Mono.empty();
+        }
+        return loader.apply(deviceId)
+                .doOnNext(firstLaunchTime -> this.put(deviceId, firstLaunchTime))
+                .switchIfEmpty(Mono.fromRunnable(() -> this.put(deviceId, null)));
+    }
+
+    /**
+     * Get the first launch time of the devices, the loader is called once with all the devices missed.
+     *
+     * @param deviceIds deviceIds
+     * @param loader    loader of the first launch time
+     * @return first launch time of the devices, devices without first launch time are absent
+     */
+    public Map<String, ZonedDateTime> getAll(Collection<String> deviceIds,
+                                             Function<Collection<String>, Map<String, ZonedDateTime>> loader) {
+        if (!this.isEnabled()) {
+            return loader.apply(deviceIds);
+        }
+
+        Map<String, ZonedDateTime> firstLaunchTimes = new HashMap<>(deviceIds.size());
+        Set<String> missed = new LinkedHashSet<>();
+        for (String deviceId : deviceIds) {
+            Long packed = cache.getIfPresent(deviceId);
+            if (packed != null) {
+                firstLaunchTimes.put(deviceId, unpack(packed));
+            } else if (!this.isNegativeCached(deviceId)) {
+                missed.add(deviceId);
+            }
+        }
+        if (missed.isEmpty()) {
+            return firstLaunchTimes;
+        }
+
+        Map<String, ZonedDateTime> loaded = loader.apply(missed);
+        for (String deviceId : missed) {
+            ZonedDateTime firstLaunchTime = loaded.get(deviceId);
+            this.put(deviceId, firstLaunchTime);
+            if (firstLaunchTime != null) {
+                firstLaunchTimes.put(deviceId, firstLaunchTime);
+            }
+        }
+        return firstLaunchTimes;
+    }
+
+    /**
+     * Put the first launch time of the device.
+     *
+     * @param deviceId        deviceId
+     * @param firstLaunchTime first launch time of the device, null if the device is unknown
+     */
+    public void put(String deviceId, ZonedDateTime firstLaunchTime) {
+        if (!this.isEnabled()) {
+            return;
+        }
+
+        if (firstLaunchTime != null) {
+            cache.put(deviceId, pack(firstLaunchTime));
+            negativeCache.invalidate(deviceId);
+        } else if (bitmapProperties.getFirstLaunchTimeCache().isNegativeEnabled()) {
+            negativeCache.put(deviceId, Boolean.TRUE);
+        }
+    }
+
+    private boolean isEnabled() {
+        return bitmapProperties.getFirstLaunchTimeCache().isEnabled();
+    }
+
+    private boolean isNegativeCached(String deviceId) {
+        return bitmapProperties.getFirstLaunchTimeCache().isNegativeEnabled()
+                && negativeCache.getIfPresent(deviceId) != null;
+    }
+
+    // Epoch seconds in the high bits, the zone offset in seconds shifted to be positive in the low 17 bits, so that
+    // the wall clock of the device is kept in a long.
+    private static long pack(ZonedDateTime firstLaunchTime) {
+        return firstLaunchTime.toEpochSecond() << 17 | (firstLaunchTime.getOffset().getTotalSeconds() + 65536);
+    }
+
+    private static ZonedDateTime unpack(long packed) {
+        return Instant.ofEpochSecond(packed >> 17)
+                .atZone(ZoneOffset.ofTotalSeconds((int) (packed & 0x1FFFF) - 65536));
+    }
+}
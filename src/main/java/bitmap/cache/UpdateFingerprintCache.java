@@ -0,0 +1,93 @@
+package bitmap.cache;
+
+import bitmap.config.BitmapProperties;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Fingerprints of the fields last updated to ES by the nightly jobs.
+ * <p>
+ * A rerun of a job skips the documents whose fields are unchanged since the last update from this node. Documents
+ * and fields are both kept as 64-bit hashes, about 50 bytes per document. Fingerprints expire, so that a document
+ * changed by another writer meanwhile is written again by a later run.
+ */
+@Component
+public class UpdateFingerprintCache {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    @Resource
+    private BitmapProperties bitmapProperties;
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    // Hash of the index and document ID -> hash of the fields.
+    private Cache<Long, Long> cache;
+
+    @PostConstruct
+    public void init() {
+        BitmapProperties.Fingerprint properties = bitmapProperties.getFingerprint();
+        cache = Caffeine.newBuilder()
+                .maximumSize(properties.getMaximumSize())
+                .expireAfterWrite(properties.getTtl())
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "update_fingerprint");
+    }
+
+    /**
+     * Whether the fields are the ones last updated to the document.
+     *
+     * @param index  index name
+     * @param id     document ID
+     * @param fields fields to update
+     * @return true if the update can be skipped
+     */
+    public boolean isUnchanged(String index, String id, Map<String, ?> fields) {
+        if (!bitmapProperties.getFingerprint().isEnabled()) {
+            return false;
+        }
+        Long fingerprint = cache.getIfPresent(hash(index + "/" + id));
+        return fingerprint != null && fingerprint == fingerprint(fields);
+    }
+
+    /**
+     * Remember the fields updated to the document, once the update succeeded.
+     *
+     * @param index  index name
+     * @param id     document ID
+     * @param fields fields updated
+     */
+    public void put(String index, String id, Map<String, ?> fields) {
+        if (bitmapProperties.getFingerprint().isEnabled()) {
+            cache.put(hash(index + "/" + id), fingerprint(fields));
+        }
+    }
+
+    // Hash of the fields in the order of their names.
+    static long fingerprint(Map<String, ?> fields) {
+        StringBuilder content = new StringBuilder();
+        new TreeMap<>(fields).forEach((name, value) -> content.append(name).append('=').append(value).append(';'));
+        return hash(content.toString());
+    }
+
+    // 64-bit FNV-1a of the UTF-8 bytes.
+    private static long hash(String value) {
+        long hash = FNV_OFFSET_BASIS;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+}
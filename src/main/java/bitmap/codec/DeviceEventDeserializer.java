@@ -0,0 +1,114 @@
+package bitmap.codec;
+
+import bitmap.dto.DeviceEvent;
+import bitmap.dto.EventDTO;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+
+import java.io.IOException;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Streaming reader of {@link DeviceEvent}.
+ * <p>
+ * The fields are read in one pass into the raw event, while the fields used by the ingestion are captured on the
+ * way and parsed once.
+ */
+public class DeviceEventDeserializer extends JsonDeserializer<DeviceEvent> {
+
+    @Override
+    public DeviceEvent deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            return (DeviceEvent) context.handleUnexpectedToken(DeviceEvent.class, parser);
+        }
+
+        EventDTO payload = new EventDTO();
+        String platform = null;
+        String androidId = null;
+        String idfv = null;
+        String requestTime = null;
+        long eventTimeOffsetSec = 0;
+
+        String name;
+        while ((name = parser.nextFieldName()) != null) {
+            JsonToken token = parser.nextToken();
+            Object value = readValue(parser, context, token);
+            payload.put(name, value);
+            if (value == null) {
+                continue;
+            }
+
+            switch (name) {
+                case "platform":
+                    platform = value.toString();
+                    break;
+                case "androidid":
+                    androidId = value.toString();
+                    break;
+                case "idfv":
+                    idfv = value.toString();
+                    break;
+                case "request_time":
+                    requestTime = value.toString();
+                    break;
+                case "event_time_offset_sec":
+                    eventTimeOffsetSec = value instanceof Number
+                            ? ((Number) value).longValue()
+                            : Long.parseLong(value.toString());
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        // Same rules as EventDTO#getDeviceId.
+        String deviceId = null;
+        if ("android".equalsIgnoreCase(platform) && androidId != null) {
+            deviceId = platform + "_" + androidId;
+        } else if ("ios".equalsIgnoreCase(platform) && idfv != null) {
+            deviceId = platform + "_" + idfv;
+        }
+
+        // Same rules as EventDTO#getEventTime, the request time defaults to now.
+        long requestTimeMillis;
+        ZoneId zone;
+        if (requestTime == null) {
+            ZonedDateTime now = ZonedDateTime.now();
+            payload.put("request_time", now.format(DateTimeFormatter.ISO_OFFSET_DATE_TIME));
+            requestTimeMillis = now.toInstant().toEpochMilli();
+            zone = now.getZone();
+        } else {
+            OffsetDateTime parsed = OffsetDateTime.parse(requestTime, DateTimeFormatter.ISO_OFFSET_DATE_TIME);
+            requestTimeMillis = parsed.toInstant().toEpochMilli();
+            zone = parsed.getOffset();
+        }
+
+        return new DeviceEvent(platform, deviceId, requestTimeMillis + eventTimeOffsetSec * 1000, zone, payload);
+    }
+
+    private static Object readValue(JsonParser parser, DeserializationContext context, JsonToken token)
+            throws IOException {
+        switch (token) {
+            case VALUE_STRING:
+                return parser.getText();
+            case VALUE_NUMBER_INT:
+                return parser.getNumberValue();
+            case VALUE_NUMBER_FLOAT:
+                return parser.getDoubleValue();
+            case VALUE_TRUE:
+                return Boolean.TRUE;
+            case VALUE_FALSE:
+                return Boolean.FALSE;
+            case VALUE_NULL:
+                return null;
+            default:
+                // Nested objects and arrays are passed through as maps and lists.
+                return context.readValue(parser, Object.class);
+        }
+    }
+}
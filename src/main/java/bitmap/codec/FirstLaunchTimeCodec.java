@@ -0,0 +1,97 @@
+package bitmap.codec;
+
+import org.springframework.data.redis.serializer.JdkSerializationRedisSerializer;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+
+/**
+ * Codec of the first launch time stored in Redis.
+ * <p>
+ * The value is written as epoch seconds and the zone offset of the event in seconds, e.g. {@code 1655000000+28800},
+ * so that the first launch time is read back in the wall clock of the device, like the event times. Values of epoch
+ * seconds only, and Java serialized {@link LocalDateTime} written before, are still understood when read, in the
+ * system default zone.
+ */
+public final class FirstLaunchTimeCodec {
+
+    private static final JdkSerializationRedisSerializer LEGACY_SERIALIZER = new JdkSerializationRedisSerializer();
+
+    private FirstLaunchTimeCodec() {
+    }
+
+    /**
+     * Encode the first launch time.
+     *
+     * @param firstLaunchTime first launch time in the zone of the event
+     * @return epoch seconds and zone offset in decimal
+     */
+    public static byte[] encode(ZonedDateTime firstLaunchTime) {
+        int offset = firstLaunchTime.getOffset().getTotalSeconds();
+        return (firstLaunchTime.toEpochSecond() + (offset < 0 ? "-" : "+") + Math.abs(offset))
+                .getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Decode the first launch time.
+     *
+     * @param bytes value in Redis, epoch seconds with or without zone offset, or a Java serialized
+     *              {@link LocalDateTime}
+     * @return first launch time in the zone offset of the event, or in the system default zone for the values
+     * written without offset, null if the value is null
+     */
+    public static ZonedDateTime decode(byte[] bytes) {
+        if (bytes == null) {
+            return null;
+        }
+
+        if (isLegacy(bytes)) {
+            LocalDateTime localDateTime = (LocalDateTime) LEGACY_SERIALIZER.deserialize(bytes);
+            return localDateTime == null ? null : localDateTime.atZone(ZoneId.systemDefault());
+        }
+
+        // The sign of the offset ends the epoch seconds.
+        int sign = 1;
+        while (sign < bytes.length && bytes[sign] != '+' && bytes[sign] != '-') {
+            sign++;
+        }
+        Instant instant = Instant.ofEpochSecond(parse(bytes, 0, sign));
+        if (sign == bytes.length) {
+            return instant.atZone(ZoneId.systemDefault());
+        }
+        int offset = (int) parse(bytes, sign + 1, bytes.length);
+        return instant.atZone(ZoneOffset.ofTotalSeconds(bytes[sign] == '-' ? -offset : offset));
+    }
+
+    // Parse the decimal digits of the range.
+    private static long parse(byte[] bytes, int from, int to) {
+        if (from == to) {
+            throw new IllegalArgumentException("Invalid first launch time: "
+                    + new String(bytes, StandardCharsets.US_ASCII));
+        }
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            byte b = bytes[i];
+            if (b < '0' || b > '9') {
+                throw new IllegalArgumentException("Invalid first launch time: "
+                        + new String(bytes, StandardCharsets.US_ASCII));
+            }
+            value = value * 10 + (b - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Whether the value is a Java serialized object, which starts with the stream magic 0xACED.
+     *
+     * @param bytes value in Redis
+     * @return true if the value was written before the compact encoding
+     */
+    public static boolean isLegacy(byte[] bytes) {
+        return bytes.length >= 2 && bytes[0] == (byte) 0xAC && bytes[1] == (byte) 0xED;
+    }
+}
@@ -0,0 +1,100 @@
+package bitmap.codec;
+
+import org.roaringbitmap.RoaringBitmap;
+import org.roaringbitmap.RoaringBitmapWriter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Conversions of Redis bitmaps.
+ * <p>
+ * Redis numbers the bits of a string from the most significant bit of the first byte, so bit {@code i} is bit
+ * {@code 7 - i % 8} of byte {@code i / 8}.
+ */
+public final class RedisBitmaps {
+
+    private RedisBitmaps() {
+    }
+
+    /**
+     * Convert a Redis bitmap to a Roaring bitmap, the offsets of the bits set become the values.
+     *
+     * @param bytes Redis bitmap, may be null
+     * @return Roaring bitmap
+     */
+    public static RoaringBitmap toRoaring(byte[] bytes) {
+        RoaringBitmapWriter<RoaringBitmap> writer = RoaringBitmapWriter.writer().get();
+        if (bytes == null) {
+            return writer.get();
+        }
+
+        int i = 0;
+        // Scan 8 bytes at a time, the big-endian word keeps the Redis bit order.
+        for (; i + 8 <= bytes.length; i += 8) {
+            long word = getLong(bytes, i);
+            while (word != 0) {
+                int bit = Long.numberOfLeadingZeros(word);
+                writer.add((i << 3) + bit);
+                word &= ~(Long.MIN_VALUE >>> bit);
+            }
+        }
+        for (; i < bytes.length; i++) {
+            int b = bytes[i] & 0xFF;
+            while (b != 0) {
+                int bit = Integer.numberOfLeadingZeros(b) - 24;
+                writer.add((i << 3) + bit);
+                b &= ~(0x80 >>> bit);
+            }
+        }
+        return writer.get();
+    }
+
+    /**
+     * Serialize a Roaring bitmap in the portable format.
+     *
+     * @param bitmap Roaring bitmap
+     * @return serialized bitmap
+     */
+    public static byte[] serialize(RoaringBitmap bitmap) {
+        bitmap.runOptimize();
+        ByteBuffer buffer = ByteBuffer.allocate(bitmap.serializedSizeInBytes());
+        bitmap.serialize(buffer);
+        return buffer.array();
+    }
+
+    /**
+     * Deserialize a Roaring bitmap in the portable format.
+     *
+     * @param bytes serialized bitmap
+     * @return Roaring bitmap
+     */
+    public static RoaringBitmap deserialize(byte[] bytes) {
+        RoaringBitmap bitmap = new RoaringBitmap();
+        try {
+            bitmap.deserialize(ByteBuffer.wrap(bytes));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Read 8 bytes as a big-endian long.
+     *
+     * @param bytes  bytes
+     * @param offset offset of the first byte
+     * @return big-endian long
+     */
+    public static long getLong(byte[] bytes, int offset) {
+        return ((long) bytes[offset] << 56)
+                | ((long) (bytes[offset + 1] & 0xFF) << 48)
+                | ((long) (bytes[offset + 2] & 0xFF) << 40)
+                | ((long) (bytes[offset + 3] & 0xFF) << 32)
+                | ((long) (bytes[offset + 4] & 0xFF) << 24)
+                | ((long) (bytes[offset + 5] & 0xFF) << 16)
+                | ((long) (bytes[offset + 6] & 0xFF) << 8)
+                | ((long) (bytes[offset + 7] & 0xFF));
+    }
+}
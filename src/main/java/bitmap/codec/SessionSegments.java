@@ -0,0 +1,128 @@
+package bitmap.codec;
+
+import lombok.Getter;
+
+import java.util.Arrays;
+
+/**
+ * Sessions of a device in a day, the runs of consecutive minutes with a heartbeat.
+ * <p>
+ * The day is a 180-byte slice of a heartbeat bitmap in the Redis bit order, minute {@code i} of the day is bit
+ * {@code 7 - i % 8} of byte {@code i / 8}. The slice is scanned a word at a time: the bytes are read as big-endian
+ * words and bit-reversed, so that minute {@code i} of a word is its bit {@code i} and the start and the end of a run
+ * are found with {@link Long#numberOfTrailingZeros(long)}.
+ */
+@Getter
+public final class SessionSegments {
+
+    /**
+     * Minutes of a day.
+     */
+    public static final int MINUTES_PER_DAY = 1440;
+
+    /**
+     * Number of minutes with a heartbeat.
+     */
+    private final int activeMinutes;
+
+    /**
+     * Number of sessions.
+     */
+    private final int sessionCount;
+
+    /**
+     * Minutes of the longest session, 0 without session.
+     */
+    private final int longestSession;
+
+    /**
+     * Minutes of the median session, the shorter of the two middle ones when the count is even, 0 without session.
+     */
+    private final int medianSession;
+
+    /**
+     * Minute of the day of the first heartbeat, -1 without session.
+     */
+    private final int firstActiveMinute;
+
+    /**
+     * Minute of the day of the last heartbeat, -1 without session.
+     */
+    private final int lastActiveMinute;
+
+    private SessionSegments(int activeMinutes, int sessionCount, int longestSession, int medianSession,
+                            int firstActiveMinute, int lastActiveMinute) {
+        this.activeMinutes = activeMinutes;
+        this.sessionCount = sessionCount;
+        this.longestSession = longestSession;
+        this.medianSession = medianSession;
+        this.firstActiveMinute = firstActiveMinute;
+        this.lastActiveMinute = lastActiveMinute;
+    }
+
+    /**
+     * Find the sessions of the day.
+     *
+     * @param slice bytes of the day, may be shorter than a day or null when the bitmap ends before
+     * @return sessions of the day
+     */
+    public static SessionSegments of(byte[] slice) {
+        long[] words = toWords(slice);
+
+        // Run lengths, at most one session every other minute.
+        int[] sessions = new int[MINUTES_PER_DAY / 2];
+        int count = 0;
+        int activeMinutes = 0;
+        int longest = 0;
+        int first = -1;
+        int last = -1;
+        int start;
+        int end = 0;
+        while ((start = next(words, end, false)) < MINUTES_PER_DAY) {
+            end = next(words, start, true);
+            int length = end - start;
+            sessions[count++] = length;
+            activeMinutes += length;
+            longest = Math.max(longest, length);
+            if (first < 0) {
+                first = start;
+            }
+            last = end - 1;
+        }
+        if (count == 0) {
+            return new SessionSegments(0, 0, 0, 0, -1, -1);
+        }
+
+        Arrays.sort(sessions, 0, count);
+        return new SessionSegments(activeMinutes, count, longest, sessions[(count - 1) / 2], first, last);
+    }
+
+    // Bit-reversed big-endian words of the day, the minutes beyond the slice are clear.
+    private static long[] toWords(byte[] slice) {
+        long[] words = new long[(MINUTES_PER_DAY + 63) / 64];
+        int length = slice == null ? 0 : Math.min(slice.length, MINUTES_PER_DAY / 8);
+        for (int i = 0; i < length; i++) {
+            words[i >>> 3] |= (slice[i] & 0xFFL) << (56 - ((i & 7) << 3));
+        }
+        for (int i = 0; i < words.length; i++) {
+            words[i] = Long.reverse(words[i]);
+        }
+        return words;
+    }
+
+    // First minute from the given one that is clear, or set, MINUTES_PER_DAY if none.
+    private static int next(long[] words, int from, boolean clear) {
+        int index = from >>> 6;
+        if (index >= words.length) {
+            return MINUTES_PER_DAY;
+        }
+        long word = (clear ? ~words[index] : words[index]) & (-1L << from);
+        while (word == 0) {
+            if (++index == words.length) {
+                return MINUTES_PER_DAY;
+            }
+            word = clear ? ~words[index] : words[index];
+        }
+        return Math.min(MINUTES_PER_DAY, (index << 6) + Long.numberOfTrailingZeros(word));
+    }
+}
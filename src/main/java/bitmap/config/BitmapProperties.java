@@ -0,0 +1,500 @@
+package bitmap.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.time.DayOfWeek;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Bitmap properties
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "bitmap")
+public class BitmapProperties {
+
+    /**
+     * Heartbeat properties.
+     */
+    private Heartbeat heartbeat = new Heartbeat();
+
+    /**
+     * First launch time cache properties.
+     */
+    private FirstLaunchTimeCache firstLaunchTimeCache = new FirstLaunchTimeCache();
+
+    /**
+     * Population bitmap properties.
+     */
+    private Population population = new Population();
+
+    /**
+     * Retention properties.
+     */
+    private Retention retention = new Retention();
+
+    /**
+     * Scan properties of the daily launch events.
+     */
+    private Scan scan = new Scan();
+
+    /**
+     * Bulk indexing properties of the launch events.
+     */
+    private Bulk bulk = new Bulk();
+
+    /**
+     * Fingerprint properties of the documents updated by the nightly jobs.
+     */
+    private Fingerprint fingerprint = new Fingerprint();
+
+    /**
+     * Metrics query properties.
+     */
+    private Query query = new Query();
+
+    /**
+     * Bitmap store properties.
+     */
+    private Store store = new Store();
+
+    /**
+     * Reactive ingestion properties.
+     */
+    private Reactive reactive = new Reactive();
+
+    /**
+     * Ingestion queue properties.
+     */
+    private Ingestion ingestion = new Ingestion();
+
+    @Data
+    public static class Heartbeat {
+
+        /**
+         * How heartbeat bits are written to Redis.
+         */
+        private WriteMode writeMode = WriteMode.DIRECT;
+
+        /**
+         * Aggregator properties, used when write mode is {@link WriteMode#AGGREGATE}.
+         */
+        private Aggregator aggregator = new Aggregator();
+
+        /**
+         * Layout of the heartbeat bitmaps in Redis.
+         */
+        private Layout layout = Layout.LEGACY;
+
+        /**
+         * Period covered by a heartbeat bitmap of the bucketed layout.
+         */
+        private Bucket bucket = Bucket.DAY;
+
+        /**
+         * How long a heartbeat bitmap of the bucketed layout is kept after its last newly recorded minute.
+         */
+        private Duration bucketTtl = Duration.ofDays(35);
+    }
+
+    @Data
+    public static class Aggregator {
+
+        /**
+         * How long bits are collected in memory before flushing to Redis.
+         */
+        private Duration window = Duration.ofSeconds(5);
+
+        /**
+         * Number of shards, devices are assigned to a shard by hash.
+         */
+        private int shards = 16;
+
+        /**
+         * Maximum number of devices buffered across all shards, a shard is flushed early when exceeded.
+         */
+        private int maxDevices = 100_000;
+
+        /**
+         * Hard limit of the devices buffered while flushes fail, the bits of further devices are dropped.
+         */
+        private int maxDevicesOnFailure = 1_000_000;
+
+        /**
+         * How long flushes and write-throughs are suspended after a failure, only the flush thread retries then.
+         */
+        private Duration backoff = Duration.ofSeconds(10);
+    }
+
+    @Data
+    public static class FirstLaunchTimeCache {
+
+        /**
+         * Whether first launch times are cached in the JVM.
+         */
+        private boolean enabled = true;
+
+        /**
+         * Maximum number of devices cached, the least recently used are evicted first.
+         */
+        private long maximumSize = 200_000;
+
+        /**
+         * Whether devices without first launch time are cached as well.
+         */
+        private boolean negativeEnabled = false;
+
+        /**
+         * How long a device without first launch time is cached.
+         */
+        private Duration negativeTtl = Duration.ofSeconds(10);
+
+        /**
+         * Maximum number of devices without first launch time cached.
+         */
+        private long negativeMaximumSize = 50_000;
+    }
+
+    @Data
+    public static class Population {
+
+        /**
+         * Whether the per-day population bitmaps of active and new devices are recorded.
+         */
+        private boolean enabled = true;
+
+        /**
+         * Maximum number of dense device IDs cached.
+         */
+        private long dictionaryCacheSize = 200_000;
+
+        /**
+         * Time to live of the per-day population bitmaps, zero to keep them forever.
+         */
+        private Duration ttl = Duration.ofDays(400);
+    }
+
+    @Data
+    public static class Retention {
+
+        /**
+         * Day offsets since the first launch of which the retention is calculated.
+         */
+        private List<Integer> days = new ArrayList<>(Arrays.asList(1, 2, 3, 7, 15));
+
+        /**
+         * Number of most recent days, today included, of which the population bitmaps are read at every calculation.
+         * The bitmaps of older days are converted once and converted again only when their bit count changes.
+         */
+        private int recentDays = 2;
+
+        /**
+         * Maximum size in bytes of the Roaring bitmaps of past days kept in memory.
+         */
+        private long cacheMaximumBytes = 64L * 1024 * 1024;
+
+        /**
+         * Whether the Roaring bitmaps of past days are persisted to Redis, so that other nodes skip the conversion.
+         */
+        private boolean persist = true;
+
+        /**
+         * Whether the retention and lifetime of a device are updated when it launches on a new day, so that the
+         * nightly job only corrects the updates that were missed.
+         */
+        private boolean incremental = true;
+    }
+
+    @Data
+    public static class Scan {
+
+        /**
+         * Number of events fetched per page.
+         */
+        private int pageSize = 1000;
+
+        /**
+         * How long the point in time is kept alive between two pages.
+         */
+        private Duration keepAlive = Duration.ofMinutes(5);
+
+        /**
+         * Number of slices of the point in time scanned in parallel.
+         */
+        private int slices = 4;
+
+        /**
+         * Number of workers processing the pages.
+         */
+        private int workers = 4;
+
+        /**
+         * Number of pages waiting for a worker, the slice scans run the page themselves when exceeded.
+         */
+        private int queueCapacity = 8;
+    }
+
+    @Data
+    public static class Bulk {
+
+        /**
+         * Whether launch events are queued and indexed in bulk in the background, instead of on the request thread.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Maximum number of documents per bulk request.
+         */
+        private int actions = 1000;
+
+        /**
+         * Maximum time a document waits in the queue before the bulk request is sent.
+         */
+        private Duration flushInterval = Duration.ofSeconds(1);
+
+        /**
+         * Maximum number of documents queued, callers are blocked when exceeded.
+         */
+        private int queueCapacity = 100_000;
+
+        /**
+         * Maximum number of retries of a document failed with a retryable error.
+         */
+        private int maxRetries = 3;
+
+        /**
+         * Backoff before the first retry, doubled for each retry.
+         */
+        private Duration initialBackoff = Duration.ofMillis(100);
+    }
+
+    @Data
+    public static class Fingerprint {
+
+        /**
+         * Whether the nightly jobs skip the updates of documents unchanged since the last update from this node.
+         */
+        private boolean enabled = true;
+
+        /**
+         * Maximum number of documents fingerprinted.
+         */
+        private long maximumSize = 1_000_000;
+
+        /**
+         * How long the fingerprint of an update is kept.
+         */
+        private Duration ttl = Duration.ofDays(1);
+    }
+
+    @Data
+    public static class Query {
+
+        /**
+         * How long the result of a metrics query is cached, zero to disable the cache.
+         */
+        private Duration cacheTtl = Duration.ofSeconds(10);
+
+        /**
+         * Maximum number of results cached.
+         */
+        private long cacheMaximumSize = 10_000;
+    }
+
+    @Data
+    public static class Reactive {
+
+        /**
+         * Whether /app_launch and /heartbeat are served without blocking the request threads, on the reactive Redis
+         * template and the async ES client.
+         */
+        private boolean enabled = false;
+    }
+
+    @Data
+    public static class Ingestion {
+
+        /**
+         * Whether /app_launch and /heartbeat queue the events and answer at once, the events are recorded by workers.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Number of workers recording the events, launches are taken before heartbeats.
+         */
+        private int workers = 8;
+
+        /**
+         * Maximum number of launches queued, further launches are spilled to disk or rejected with 503.
+         */
+        private int launchCapacity = 10_000;
+
+        /**
+         * Maximum number of heartbeats queued, further heartbeats are shed with 429.
+         */
+        private int heartbeatMaxDepth = 50_000;
+
+        /**
+         * Retry-After of the rejected requests.
+         */
+        private Duration retryAfter = Duration.ofSeconds(1);
+
+        /**
+         * Spill properties of the launches.
+         */
+        private Spill spill = new Spill();
+    }
+
+    @Data
+    public static class Spill {
+
+        /**
+         * Whether launches are written to disk when the launch queue is full, and queued again when it has room.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Directory of the spilled launches.
+         */
+        private String directory = "data/ingestion";
+    }
+
+    @Data
+    public static class Store {
+
+        /**
+         * Where the bitmaps of the devices and of the populations are kept.
+         */
+        private StoreType type = StoreType.REDIS;
+
+        /**
+         * Local store properties, used when type is {@link StoreType#LOCAL}.
+         */
+        private Local local = new Local();
+
+        /**
+         * Sharded store properties, used when type is {@link StoreType#SHARDED}.
+         */
+        private Sharded sharded = new Sharded();
+    }
+
+    @Data
+    public static class Local {
+
+        /**
+         * Directory of the write-ahead log and of the snapshots.
+         */
+        private String directory = "data/bitmap";
+
+        /**
+         * Size of a segment of the write-ahead log, a new segment is started when full.
+         */
+        private DataSize segmentSize = DataSize.ofMegabytes(64);
+
+        /**
+         * How often the bitmaps are snapshotted, the log before the snapshot is deleted.
+         */
+        private Duration snapshotInterval = Duration.ofMinutes(10);
+
+        /**
+         * How often the write-ahead log is forced to disk, writes of the last interval may be lost on a power
+         * failure, not on a crash of the process.
+         */
+        private Duration fsyncInterval = Duration.ofSeconds(1);
+    }
+
+    @Data
+    public static class Sharded {
+
+        /**
+         * Redis nodes as URIs, e.g. redis://localhost:6380/0. Devices keep their node when nodes are reordered. The
+         * nodes are fixed for the lifetime of the data: bitmaps are not migrated, so the store fails to start when
+         * a node is added, removed or renamed.
+         */
+        private List<String> nodes = new ArrayList<>();
+
+        /**
+         * Number of points of a node on the consistent hash ring.
+         */
+        private int virtualNodes = 160;
+
+        /**
+         * Maximum number of connections to a node, a batch holds one connection per node it has commands for.
+         */
+        private int maxConnections = 64;
+    }
+
+    public enum StoreType {
+        /**
+         * Bitmaps in Redis.
+         */
+        REDIS,
+        /**
+         * Bitmaps in memory on this node, persisted to memory-mapped files.
+         */
+        LOCAL,
+        /**
+         * Bitmaps sharded across Redis nodes by device.
+         */
+        SHARDED
+    }
+
+    public enum WriteMode {
+        /**
+         * SETBIT on every heartbeat.
+         */
+        DIRECT,
+        /**
+         * Coalesce bits in memory and flush them periodically.
+         */
+        AGGREGATE,
+        /**
+         * Read the first launch time and SETBIT in one round trip with a Lua script.
+         */
+        SCRIPT
+    }
+
+    public enum Layout {
+        /**
+         * One bitmap per device, one bit per minute since the first launch day.
+         */
+        LEGACY,
+        /**
+         * Write both layouts and read the bucketed one first, for the migration.
+         */
+        DUAL,
+        /**
+         * One bitmap per device per bucket with a TTL, the legacy bitmaps are still read.
+         */
+        BUCKETED
+    }
+
+    public enum Bucket {
+        /**
+         * A bitmap per day, 1440 bits.
+         */
+        DAY,
+        /**
+         * A bitmap per week starting on Monday, 10080 bits.
+         */
+        WEEK;
+
+        /**
+         * First day of the bucket the date falls in.
+         *
+         * @param date date
+         * @return first day of the bucket
+         */
+        public LocalDate startOf(LocalDate date) {
+            return this == WEEK ? date.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY)) : date;
+        }
+    }
+}
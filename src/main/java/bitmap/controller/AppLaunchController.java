@@ -1,46 +1,37 @@
 package bitmap.controller;
 
-import bitmap.dto.EventDTO;
+import bitmap.dto.DeviceEvent;
+import bitmap.ingestion.IngestionQueue;
 import bitmap.service.AppLaunchService;
 import cn.hutool.core.map.MapUtil;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
-import java.time.LocalDate;
 
 /**
  * App launch controller
  */
 @Slf4j
 @RestController
+@ConditionalOnProperty(prefix = "bitmap.reactive", name = "enabled", havingValue = "false", matchIfMissing = true)
 @RequestMapping
 public class AppLaunchController {
 
     @Resource
     private AppLaunchService appLaunchService;
+    @Resource
+    private IngestionQueue ingestionQueue;
 
     @PostMapping("/app_launch")
-    public Object appLaunch(@RequestBody EventDTO eventDTO) {
-        // Record the first launch time of the device.
-        appLaunchService.recordFirstLaunchTime(eventDTO);
-
-        // Record app launch event when first launch.
-        appLaunchService.recordFirstLaunch(eventDTO);
-
-        // Record app launch event every day.
-        appLaunchService.recordDailyLaunch(eventDTO);
-
-        return MapUtil.builder()
-                .put("code", 0)
-                .put("msg", "SUCCESS")
-                .build();
-    }
+    public Object appLaunch(@RequestBody DeviceEvent event) {
+        if (ingestionQueue.isEnabled()) {
+            ingestionQueue.submitAppLaunch(event);
+        } else {
+            appLaunchService.receiveAppLaunch(event);
+        }
 
-    @PostMapping("/stat-retention-and-lifetime")
-    public Object statRetention(@RequestParam @DateTimeFormat(pattern = "yyyy-MM-dd") LocalDate date) {
-        appLaunchService.statisticsRetentionAndLifetime(date);
         return MapUtil.builder()
                 .put("code", 0)
                 .put("msg", "SUCCESS")
@@ -1,29 +1,37 @@
 package bitmap.controller;
 
-import bitmap.dto.EventDTO;
+import bitmap.dto.DeviceEvent;
+import bitmap.ingestion.IngestionQueue;
 import bitmap.service.HeartbeatService;
 import cn.hutool.core.map.MapUtil;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
-import java.time.LocalDate;
+import java.util.List;
 
 /**
  * Heartbeat controller
  */
 @Slf4j
 @RestController
+@ConditionalOnProperty(prefix = "bitmap.reactive", name = "enabled", havingValue = "false", matchIfMissing = true)
 @RequestMapping
 public class HeartbeatController {
 
     @Resource
     private HeartbeatService heartbeatService;
+    @Resource
+    private IngestionQueue ingestionQueue;
 
     @PostMapping("/heartbeat")
-    public Object heartbeat(@RequestBody EventDTO eventDTO) {
-        heartbeatService.receiveHeartbeat(eventDTO);
+    public Object heartbeat(@RequestBody DeviceEvent event) {
+        if (ingestionQueue.isEnabled()) {
+            ingestionQueue.submitHeartbeat(event);
+        } else {
+            heartbeatService.receiveHeartbeat(event);
+        }
 
         return MapUtil.builder()
                 .put("code", 0)
@@ -31,9 +39,14 @@ public class HeartbeatController {
                 .build();
     }
 
-    @PostMapping("/stat-session-duration")
-    public Object statSessionDuration(@RequestParam @DateTimeFormat(pattern = "yyyy-MM-dd") LocalDate date) {
-        heartbeatService.statisticsSessionDuration(date);
+    @PostMapping("/heartbeat/batch")
+    public Object heartbeatBatch(@RequestBody List<DeviceEvent> events) {
+        if (ingestionQueue.isEnabled()) {
+            ingestionQueue.submitHeartbeats(events);
+        } else {
+            heartbeatService.receiveHeartbeats(events);
+        }
+
         return MapUtil.builder()
                 .put("code", 0)
                 .put("msg", "SUCCESS")
@@ -0,0 +1,32 @@
+package bitmap.controller;
+
+import bitmap.config.BitmapProperties;
+import bitmap.ingestion.IngestionRejectedException;
+import cn.hutool.core.map.MapUtil;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+import javax.annotation.Resource;
+
+/**
+ * Answers the events rejected by the ingestion queue with 429 or 503 and a Retry-After.
+ */
+@RestControllerAdvice
+public class IngestionExceptionHandler {
+
+    @Resource
+    private BitmapProperties bitmapProperties;
+
+    @ExceptionHandler(IngestionRejectedException.class)
+    public ResponseEntity<Object> rejected(IngestionRejectedException e) {
+        return ResponseEntity.status(e.getStatus())
+                .header(HttpHeaders.RETRY_AFTER,
+                        String.valueOf(Math.max(1, bitmapProperties.getIngestion().getRetryAfter().getSeconds())))
+                .body(MapUtil.builder()
+                        .put("code", e.getStatus().value())
+                        .put("msg", e.getMessage())
+                        .build());
+    }
+}
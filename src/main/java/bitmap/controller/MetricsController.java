@@ -0,0 +1,54 @@
+package bitmap.controller;
+
+import bitmap.service.MetricsService;
+import cn.hutool.core.map.MapUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.web.bind.annotation.*;
+
+import javax.annotation.Resource;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Metrics controller, answered from the bitmaps in Redis without ES aggregations.
+ */
+@Slf4j
+@RestController
+@RequestMapping("/metrics")
+public class MetricsController {
+
+    @Resource
+    private MetricsService metricsService;
+
+    @GetMapping("/dau")
+    public Object dau(@RequestParam @DateTimeFormat(pattern = "yyyy-MM-dd") LocalDate date) {
+        return MapUtil.builder()
+                .put("code", 0)
+                .put("msg", "SUCCESS")
+                .put("data", metricsService.getDailyActive(date))
+                .build();
+    }
+
+    @GetMapping("/retention")
+    public Object retention(@RequestParam @DateTimeFormat(pattern = "yyyy-MM-dd") LocalDate cohort,
+                            @RequestParam(required = false) List<Integer> days) {
+        return MapUtil.builder()
+                .put("code", 0)
+                .put("msg", "SUCCESS")
+                .put("data", metricsService.getRetention(cohort, days))
+                .build();
+    }
+
+    /**
+     * Session duration of the day, data is null until the session duration statistics of the day have run.
+     */
+    @GetMapping("/session-duration")
+    public Object sessionDuration(@RequestParam @DateTimeFormat(pattern = "yyyy-MM-dd") LocalDate date) {
+        return MapUtil.builder()
+                .put("code", 0)
+                .put("msg", "SUCCESS")
+                .put("data", metricsService.getSessionDuration(date))
+                .build();
+    }
+}
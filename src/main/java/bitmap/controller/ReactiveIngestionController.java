@@ -0,0 +1,50 @@
+package bitmap.controller;
+
+import bitmap.dto.DeviceEvent;
+import bitmap.service.ReactiveIngestionService;
+import cn.hutool.core.map.MapUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.Resource;
+import java.util.List;
+
+/**
+ * App launch and heartbeat controller without blocking, the request thread is released until Redis and ES reply.
+ */
+@Slf4j
+@RestController
+@ConditionalOnProperty(prefix = "bitmap.reactive", name = "enabled", havingValue = "true")
+@RequestMapping
+public class ReactiveIngestionController {
+
+    @Resource
+    private ReactiveIngestionService reactiveIngestionService;
+
+    @PostMapping("/app_launch")
+    public Mono<Object> appLaunch(@RequestBody DeviceEvent event) {
+        return reactiveIngestionService.receiveAppLaunch(event)
+                .then(Mono.fromSupplier(this::success));
+    }
+
+    @PostMapping("/heartbeat")
+    public Mono<Object> heartbeat(@RequestBody DeviceEvent event) {
+        return reactiveIngestionService.receiveHeartbeat(event)
+                .then(Mono.fromSupplier(this::success));
+    }
+
+    @PostMapping("/heartbeat/batch")
+    public Mono<Object> heartbeatBatch(@RequestBody List<DeviceEvent> events) {
+        return reactiveIngestionService.receiveHeartbeats(events)
+                .then(Mono.fromSupplier(this::success));
+    }
+
+    private Object success() {
+        return MapUtil.builder()
+                .put("code", 0)
+                .put("msg", "SUCCESS")
+                .build();
+    }
+}
@@ -0,0 +1,43 @@
+package bitmap.controller;
+
+import bitmap.service.AppLaunchService;
+import bitmap.service.HeartbeatService;
+import cn.hutool.core.map.MapUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.web.bind.annotation.*;
+
+import javax.annotation.Resource;
+import java.time.LocalDate;
+
+/**
+ * Statistics controller, runs the nightly jobs on demand with either ingestion stack.
+ */
+@Slf4j
+@RestController
+@RequestMapping
+public class StatisticsController {
+
+    @Resource
+    private AppLaunchService appLaunchService;
+    @Resource
+    private HeartbeatService heartbeatService;
+
+    @PostMapping("/stat-retention-and-lifetime")
+    public Object statRetention(@RequestParam @DateTimeFormat(pattern = "yyyy-MM-dd") LocalDate date) {
+        appLaunchService.statisticsRetentionAndLifetime(date);
+        return MapUtil.builder()
+                .put("code", 0)
+                .put("msg", "SUCCESS")
+                .build();
+    }
+
+    @PostMapping("/stat-session-duration")
+    public Object statSessionDuration(@RequestParam @DateTimeFormat(pattern = "yyyy-MM-dd") LocalDate date) {
+        heartbeatService.statisticsSessionDuration(date);
+        return MapUtil.builder()
+                .put("code", 0)
+                .put("msg", "SUCCESS")
+                .build();
+    }
+}
@@ -0,0 +1,93 @@
+package bitmap.dictionary;
+
+import bitmap.config.BitmapProperties;
+import bitmap.metrics.BitmapMetrics;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Dictionary of device ID to a dense integer ID, so that a device can be used as an offset of a population bitmap.
+ * <p>
+ * IDs are allocated atomically by a Lua script and never change, so they are cached locally.
+ */
+@Component
+public class DeviceDictionary {
+
+    /**
+     * Key of the dense ID of the device.
+     */
+    public static final String KEY_OF_DENSE_ID = "device:%s:dense_id";
+    /**
+     * Key of the sequence of the dense ID.
+     */
+    public static final String KEY_OF_DENSE_ID_SEQUENCE = "device:dense_id:sequence";
+    private static final RedisScript<Long> ALLOCATE_SCRIPT =
+            RedisScript.of(new ClassPathResource("lua/allocate_device_id.lua"), Long.class);
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private ReactiveStringRedisTemplate reactiveStringRedisTemplate;
+    @Resource
+    private BitmapProperties bitmapProperties;
+    @Resource
+    private MeterRegistry meterRegistry;
+    @Resource
+    private BitmapMetrics bitmapMetrics;
+
+    private Cache<String, Long> cache;
+
+    @PostConstruct
+    public void init() {
+        cache = Caffeine.newBuilder()
+                .maximumSize(bitmapProperties.getPopulation().getDictionaryCacheSize())
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "device_dense_id");
+    }
+
+    /**
+     * Get the dense ID of the device, allocate one if the device has none.
+     *
+     * @param deviceId deviceId
+     * @return dense ID of the device, starts from 1
+     */
+    public long getOrAllocate(String deviceId) {
+        Objects.requireNonNull(deviceId, "Device ID must not be null");
+        return cache.get(deviceId, key -> bitmapMetrics.redis("dense_id_allocate",
+                () -> stringRedisTemplate.execute(ALLOCATE_SCRIPT,
+                        Arrays.asList(String.format(KEY_OF_DENSE_ID, key), KEY_OF_DENSE_ID_SEQUENCE))));
+    }
+
+    /**
+     * Get the dense ID of the device without blocking, allocate one if the device has none.
+     *
+     * @param deviceId deviceId
+     * @return dense ID of the device, starts from 1
+     */
+    public Mono<Long> getOrAllocateAsync(String deviceId) {
+        Objects.requireNonNull(deviceId, "Device ID must not be null");
+        Long denseId = cache.getIfPresent(deviceId);
+        if (denseId != null) {
+            return Mono.just(denseId);
+        }
+        return bitmapMetrics.mono(BitmapMetrics.REDIS, "dense_id_allocate", reactiveStringRedisTemplate
+                        .execute(ALLOCATE_SCRIPT, Arrays.asList(String.format(KEY_OF_DENSE_ID, deviceId),
+                                KEY_OF_DENSE_ID_SEQUENCE))
+                        .next())
+                .doOnNext(allocated -> cache.put(deviceId, allocated));
+    }
+}
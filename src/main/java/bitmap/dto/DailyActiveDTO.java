@@ -0,0 +1,27 @@
+package bitmap.dto;
+
+import lombok.Data;
+
+import java.time.LocalDate;
+
+/**
+ * Active and new devices of a date.
+ */
+@Data
+public class DailyActiveDTO {
+
+    /**
+     * Active date.
+     */
+    private LocalDate activeDate;
+
+    /**
+     * Number of devices launched on the date.
+     */
+    private long activeDevices;
+
+    /**
+     * Number of devices launched for the first time on the date.
+     */
+    private long newDevices;
+}
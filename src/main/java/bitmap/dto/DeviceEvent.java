@@ -0,0 +1,74 @@
+package bitmap.dto;
+
+import bitmap.codec.DeviceEventDeserializer;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import lombok.Getter;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+
+/**
+ * Event of a device with the fields used by the ingestion parsed once.
+ * <p>
+ * The raw event is kept as {@link EventDTO} only to be passed through to ES.
+ */
+@Getter
+@JsonDeserialize(using = DeviceEventDeserializer.class)
+public class DeviceEvent {
+
+    /**
+     * Platform of the device, android or ios.
+     */
+    private final String platform;
+
+    /**
+     * Device ID, platform and the ID of the device on the platform, null if unknown.
+     */
+    private final String deviceId;
+
+    /**
+     * Event time in epoch milliseconds, request time plus the event time offset.
+     */
+    private final long eventTimeMillis;
+
+    /**
+     * Zone of the request time.
+     */
+    private final ZoneId zone;
+
+    /**
+     * Raw event.
+     */
+    private final EventDTO payload;
+
+    public DeviceEvent(String platform, String deviceId, long eventTimeMillis, ZoneId zone, EventDTO payload) {
+        this.platform = platform;
+        this.deviceId = deviceId;
+        this.eventTimeMillis = eventTimeMillis;
+        this.zone = zone;
+        this.payload = payload;
+    }
+
+    /**
+     * Create the event from the raw event.
+     *
+     * @param eventDTO raw event
+     * @return event
+     */
+    public static DeviceEvent of(EventDTO eventDTO) {
+        ZonedDateTime eventTime = eventDTO.getEventTime();
+        return new DeviceEvent(eventDTO.get("platform") == null ? null : eventDTO.get("platform").toString(),
+                eventDTO.getDeviceId(),
+                eventTime.toInstant().toEpochMilli(),
+                eventTime.getZone(),
+                eventDTO);
+    }
+
+    /**
+     * Event time in the zone of the request time.
+     */
+    public ZonedDateTime getEventTime() {
+        return Instant.ofEpochMilli(eventTimeMillis).atZone(zone);
+    }
+}
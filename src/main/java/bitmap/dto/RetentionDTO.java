@@ -0,0 +1,34 @@
+package bitmap.dto;
+
+import lombok.Data;
+
+import java.time.LocalDate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Retention of a cohort of devices first launched on the same date.
+ */
+@Data
+public class RetentionDTO {
+
+    /**
+     * First launch date of the cohort.
+     */
+    private LocalDate cohortDate;
+
+    /**
+     * Number of devices in the cohort.
+     */
+    private long cohortSize;
+
+    /**
+     * Day offset -> number of devices of the cohort launched on that day, days in the future are absent.
+     */
+    private Map<Integer, Long> retainedDevices = new LinkedHashMap<>();
+
+    /**
+     * Day offset -> retained devices divided by the cohort size.
+     */
+    private Map<Integer, Double> retentionRates = new LinkedHashMap<>();
+}
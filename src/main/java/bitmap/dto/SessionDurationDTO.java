@@ -0,0 +1,32 @@
+package bitmap.dto;
+
+import lombok.Data;
+
+import java.time.LocalDate;
+
+/**
+ * Session duration of the devices active on a date.
+ */
+@Data
+public class SessionDurationDTO {
+
+    /**
+     * Active date.
+     */
+    private LocalDate activeDate;
+
+    /**
+     * Number of devices launched on the date.
+     */
+    private long activeDevices;
+
+    /**
+     * Minutes with a heartbeat on the date, of all the active devices.
+     */
+    private long sessionMinutes;
+
+    /**
+     * Session minutes divided by the number of active devices.
+     */
+    private double averageSessionMinutes;
+}
@@ -0,0 +1,408 @@
+package bitmap.indexer;
+
+import bitmap.config.BitmapProperties;
+import bitmap.metrics.BitmapMetrics;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.client.Cancellable;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.rest.RestStatus;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.data.elasticsearch.core.ElasticsearchRestTemplate;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Schedulers;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Indexer of documents with {@code op_type=create}, and of partial updates of documents.
+ * <p>
+ * A document that already exists is a conflict and is ignored, which makes indexing idempotent without an
+ * {@code exists} check. An update of a document that does not exist is ignored as well. When bulk indexing is
+ * enabled, requests are queued and sent in the background by size or time, in the order they were queued, failed
+ * requests are retried with exponential backoff. A document that fails for good runs its failure callback on the
+ * indexer thread, so that the caller can undo what made it index the document.
+ */
+@Slf4j
+@Component
+public class BulkIndexer implements DisposableBean {
+
+    @Resource
+    private ElasticsearchRestTemplate elasticsearchRestTemplate;
+    @Resource
+    private BitmapProperties bitmapProperties;
+    @Resource
+    private MeterRegistry meterRegistry;
+    @Resource
+    private BitmapMetrics bitmapMetrics;
+
+    private BlockingQueue<Document> queue;
+    private Thread flusher;
+    private volatile boolean running;
+    private Timer flushTimer;
+    private Counter created;
+    private Counter conflicted;
+    private Counter updated;
+    private Counter missing;
+    private Counter failed;
+
+    @PostConstruct
+    public void init() {
+        BitmapProperties.Bulk bulk = bitmapProperties.getBulk();
+        queue = new LinkedBlockingQueue<>(bulk.getQueueCapacity());
+        Gauge.builder("bitmap.bulk.queue.depth", queue, BlockingQueue::size)
+                .description("Number of documents waiting to be indexed")
+                .register(meterRegistry);
+        flushTimer = Timer.builder("bitmap.bulk.flush")
+                .description("Latency of the bulk requests")
+                .register(meterRegistry);
+        created = this.documentCounter("created");
+        conflicted = this.documentCounter("conflict");
+        updated = this.documentCounter("updated");
+        missing = this.documentCounter("missing");
+        failed = this.documentCounter("failed");
+
+        if (bulk.isEnabled()) {
+            running = true;
+            flusher = new CustomizableThreadFactory("bulk-indexer-").newThread(this::run);
+            flusher.start();
+        }
+    }
+
+    /**
+     * Create the document if it does not exist.
+     *
+     * @param index  index name
+     * @param id     document ID
+     * @param source document source, must not be changed after the call when bulk indexing is enabled
+     */
+    public void create(String index, String id, Map<String, Object> source) {
+        this.create(index, id, source, null);
+    }
+
+    /**
+     * Create the document if it does not exist.
+     *
+     * @param index     index name
+     * @param id        document ID
+     * @param source    document source, must not be changed after the call when bulk indexing is enabled
+     * @param onFailure run if the document fails for good in the background when bulk indexing is enabled, failures
+     *                  are thrown otherwise
+     */
+    public void create(String index, String id, Map<String, Object> source, Runnable onFailure) {
+        IndexRequest request = new IndexRequest(index)
+                .id(id)
+                .source(source)
+                .opType(DocWriteRequest.OpType.CREATE);
+
+        if (!running) {
+            this.createNow(request);
+            return;
+        }
+        this.enqueue(new Document(request, onFailure));
+    }
+
+    /**
+     * Update the fields of the document if it exists.
+     *
+     * @param index  index name
+     * @param id     document ID
+     * @param fields fields to update, must not be changed after the call when bulk indexing is enabled
+     */
+    public void update(String index, String id, Map<String, Object> fields) {
+        UpdateRequest request = new UpdateRequest(index, id).doc(fields);
+
+        if (!running) {
+            this.updateNow(request);
+            return;
+        }
+        this.enqueue(new Document(request, null));
+    }
+
+    /**
+     * Create the document if it does not exist, without blocking.
+     *
+     * @param index  index name
+     * @param id     document ID
+     * @param source document source, must not be changed after the call
+     * @return completion of the request, or of the queueing when bulk indexing is enabled
+     */
+    public Mono<Void> createAsync(String index, String id, Map<String, Object> source) {
+        return this.createAsync(index, id, source, null);
+    }
+
+    /**
+     * Create the document if it does not exist, without blocking.
+     *
+     * @param index     index name
+     * @param id        document ID
+     * @param source    document source, must not be changed after the call
+     * @param onFailure run if the document fails for good in the background when bulk indexing is enabled, failures
+     *                  are signaled otherwise
+     * @return completion of the request, or of the queueing when bulk indexing is enabled
+     */
+    public Mono<Void> createAsync(String index, String id, Map<String, Object> source, Runnable onFailure) {
+        IndexRequest request = new IndexRequest(index)
+                .id(id)
+                .source(source)
+                .opType(DocWriteRequest.OpType.CREATE);
+
+        if (running) {
+            return this.enqueueAsync(new Document(request, onFailure));
+        }
+        return bitmapMetrics.mono(BitmapMetrics.ELASTICSEARCH, "index", Mono.create(sink -> {
+            Cancellable cancellable = elasticsearchRestTemplate.execute(client -> client.indexAsync(request,
+                    RequestOptions.DEFAULT, this.listener(sink, created, RestStatus.CONFLICT, conflicted)));
+            sink.onCancel(cancellable::cancel);
+        }));
+    }
+
+    /**
+     * Update the fields of the document if it exists, without blocking.
+     *
+     * @param index  index name
+     * @param id     document ID
+     * @param fields fields to update, must not be changed after the call
+     * @return completion of the request, or of the queueing when bulk indexing is enabled
+     */
+    public Mono<Void> updateAsync(String index, String id, Map<String, Object> fields) {
+        UpdateRequest request = new UpdateRequest(index, id).doc(fields);
+
+        if (running) {
+            return this.enqueueAsync(new Document(request, null));
+        }
+        return bitmapMetrics.mono(BitmapMetrics.ELASTICSEARCH, "update", Mono.create(sink -> {
+            Cancellable cancellable = elasticsearchRestTemplate.execute(client -> client.updateAsync(request,
+                    RequestOptions.DEFAULT, this.listener(sink, updated, RestStatus.NOT_FOUND, missing)));
+            sink.onCancel(cancellable::cancel);
+        }));
+    }
+
+    // Complete the sink with the response, the expected status is counted apart and is not an error.
+    private <T> ActionListener<T> listener(MonoSink<Void> sink, Counter succeeded, RestStatus ignored,
+                                           Counter ignoredCounter) {
+        return new ActionListener<T>() {
+            @Override
+            public void onResponse(T response) {
+                succeeded.increment();
+                sink.success();
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                if (e instanceof ElasticsearchStatusException && ((ElasticsearchStatusException) e).status() == ignored) {
+                    ignoredCounter.increment();
+                    sink.success();
+                    return;
+                }
+                sink.error(e);
+            }
+        };
+    }
+
+    // Queue the request, waiting for room on a worker thread rather than the caller when the queue is full.
+    private Mono<Void> enqueueAsync(Document document) {
+        return Mono.defer(() -> {
+            if (queue.offer(document)) {
+                return Mono.empty();
+            }
+            return Mono.<Void>fromRunnable(() -> this.enqueue(document)).subscribeOn(Schedulers.boundedElastic());
+        });
+    }
+
+    private void enqueue(Document document) {
+        try {
+            queue.put(document);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while queueing document " + document.request.id(), e);
+        }
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        if (flusher != null) {
+            // Drain the queue.
+            running = false;
+            flusher.join(TimeUnit.SECONDS.toMillis(30));
+            if (!queue.isEmpty()) {
+                log.error("Bulk indexer shut down with {} documents not indexed.", queue.size());
+            }
+        }
+    }
+
+    // Index one document on the caller thread.
+    private void createNow(IndexRequest request) {
+        bitmapMetrics.elasticsearch("index", () -> elasticsearchRestTemplate.execute(client -> {
+            try {
+                client.index(request, RequestOptions.DEFAULT);
+                created.increment();
+            } catch (ElasticsearchStatusException e) {
+                if (e.status() != RestStatus.CONFLICT) {
+                    throw e;
+                }
+                conflicted.increment();
+            }
+            return null;
+        }));
+    }
+
+    // Update one document on the caller thread.
+    private void updateNow(UpdateRequest request) {
+        bitmapMetrics.elasticsearch("update", () -> elasticsearchRestTemplate.execute(client -> {
+            try {
+                client.update(request, RequestOptions.DEFAULT);
+                updated.increment();
+            } catch (ElasticsearchStatusException e) {
+                if (e.status() != RestStatus.NOT_FOUND) {
+                    throw e;
+                }
+                missing.increment();
+            }
+            return null;
+        }));
+    }
+
+    // Collect documents by size or time and flush them, until stopped and drained.
+    private void run() {
+        BitmapProperties.Bulk bulk = bitmapProperties.getBulk();
+        long flushInterval = bulk.getFlushInterval().toNanos();
+        while (running || !queue.isEmpty()) {
+            try {
+                Document first = queue.poll(flushInterval, TimeUnit.NANOSECONDS);
+                if (first == null) {
+                    continue;
+                }
+
+                List<Document> documents = new ArrayList<>(bulk.getActions());
+                documents.add(first);
+                long deadline = System.nanoTime() + flushInterval;
+                while (documents.size() < bulk.getActions()) {
+                    queue.drainTo(documents, bulk.getActions() - documents.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (documents.size() >= bulk.getActions() || remaining <= 0 || !running) {
+                        break;
+                    }
+                    Document next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next != null) {
+                        documents.add(next);
+                    }
+                }
+
+                this.flush(documents);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.error("Bulk indexer error.", e);
+            }
+        }
+    }
+
+    // Send the documents in one bulk request, retry the retryable failures with exponential backoff.
+    private void flush(List<Document> documents) throws InterruptedException {
+        BitmapProperties.Bulk bulk = bitmapProperties.getBulk();
+        long backoff = bulk.getInitialBackoff().toMillis();
+        for (int attempt = 0; !documents.isEmpty(); attempt++) {
+            if (attempt > 0) {
+                if (attempt > bulk.getMaxRetries()) {
+                    failed.increment(documents.size());
+                    log.error("Index {} documents failed after {} retries.", documents.size(), bulk.getMaxRetries());
+                    documents.forEach(this::fail);
+                    return;
+                }
+                Thread.sleep(backoff);
+                backoff *= 2;
+            }
+
+            BulkRequest bulkRequest = new BulkRequest();
+            documents.forEach(document -> bulkRequest.add(document.request));
+            BulkResponse response;
+            try {
+                response = flushTimer.recordCallable(() -> elasticsearchRestTemplate.execute(client
+                        -> client.bulk(bulkRequest, RequestOptions.DEFAULT)));
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                log.warn("Bulk request of {} documents failed, attempt {}.", documents.size(), attempt + 1, e);
+                continue;
+            }
+
+            // Keep the documents to retry.
+            List<Document> retries = new ArrayList<>();
+            for (BulkItemResponse item : response.getItems()) {
+                boolean update = item.getOpType() == DocWriteRequest.OpType.UPDATE;
+                if (!item.isFailed()) {
+                    (update ? updated : created).increment();
+                } else if (!update && item.status() == RestStatus.CONFLICT) {
+                    conflicted.increment();
+                } else if (update && item.status() == RestStatus.NOT_FOUND) {
+                    missing.increment();
+                } else if (isRetryable(item.status())) {
+                    retries.add(documents.get(item.getItemId()));
+                } else {
+                    failed.increment();
+                    log.error("Index document {} failed: {}", item.getId(), item.getFailureMessage());
+                    this.fail(documents.get(item.getItemId()));
+                }
+            }
+            documents = retries;
+        }
+    }
+
+    // Run the failure callback of the document that failed for good.
+    private void fail(Document document) {
+        if (document.onFailure == null) {
+            return;
+        }
+        try {
+            document.onFailure.run();
+        } catch (Exception e) {
+            log.error("Failure callback of document {} error.", document.request.id(), e);
+        }
+    }
+
+    private Counter documentCounter(String outcome) {
+        return Counter.builder("bitmap.bulk.documents")
+                .description("Number of documents indexed")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    private static boolean isRetryable(RestStatus status) {
+        return status == RestStatus.TOO_MANY_REQUESTS || status.getStatus() >= 500;
+    }
+
+    private static class Document {
+
+        private final DocWriteRequest<?> request;
+        // Run when the document fails for good, may be null.
+        private final Runnable onFailure;
+
+        private Document(DocWriteRequest<?> request, Runnable onFailure) {
+            this.request = request;
+            this.onFailure = onFailure;
+        }
+    }
+}
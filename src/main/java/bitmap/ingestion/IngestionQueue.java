@@ -0,0 +1,289 @@
+package bitmap.ingestion;
+
+import bitmap.config.BitmapProperties;
+import bitmap.dto.DeviceEvent;
+import bitmap.service.AppLaunchService;
+import bitmap.service.HeartbeatService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded in-process queue between the ingestion endpoints and the services.
+ * <p>
+ * Events are recorded by workers, a worker always takes a launch before a heartbeat. Heartbeats beyond the max depth
+ * are shed, launches beyond the capacity are spilled to disk when enabled and queued again once the queue has drained
+ * to half, rejected otherwise. The queue is drained when the application shuts down, launches left after the timeout
+ * are spilled.
+ */
+@Slf4j
+@Component
+public class IngestionQueue implements DisposableBean {
+
+    private static final String LAUNCH = "launch";
+    private static final String HEARTBEAT = "heartbeat";
+
+    @Resource
+    private AppLaunchService appLaunchService;
+    @Resource
+    private HeartbeatService heartbeatService;
+    @Resource
+    private BitmapProperties bitmapProperties;
+    @Resource
+    private MeterRegistry meterRegistry;
+    @Resource
+    private ObjectMapper objectMapper;
+
+    // Tasks of both queues, so that a worker waits for either.
+    private final Semaphore available = new Semaphore(0);
+    private final AtomicInteger heartbeatDepth = new AtomicInteger();
+    private final Map<String, Counter> counters = new HashMap<>();
+    private final Map<String, Timer> waitTimers = new HashMap<>();
+    private BlockingQueue<Task> launches;
+    private Queue<Task> heartbeats;
+    private LaunchSpill spill;
+    private ExecutorService workers;
+    private ScheduledExecutorService restorer;
+    private volatile boolean running;
+
+    @PostConstruct
+    public void init() throws IOException {
+        BitmapProperties.Ingestion ingestion = bitmapProperties.getIngestion();
+        launches = new LinkedBlockingQueue<>(ingestion.getLaunchCapacity());
+        heartbeats = new ConcurrentLinkedQueue<>();
+        Gauge.builder("bitmap.ingestion.queue.depth", launches, BlockingQueue::size)
+                .description("Number of events waiting for a worker")
+                .tag("type", LAUNCH)
+                .register(meterRegistry);
+        Gauge.builder("bitmap.ingestion.queue.depth", heartbeatDepth, AtomicInteger::get)
+                .description("Number of events waiting for a worker")
+                .tag("type", HEARTBEAT)
+                .register(meterRegistry);
+        for (String type : new String[]{LAUNCH, HEARTBEAT}) {
+            for (String outcome : new String[]{"queued", "spilled", "shed", "processed", "failed"}) {
+                counters.put(type + '/' + outcome, Counter.builder("bitmap.ingestion.events")
+                        .description("Number of events received by the ingestion queue")
+                        .tag("type", type)
+                        .tag("outcome", outcome)
+                        .register(meterRegistry));
+            }
+            waitTimers.put(type, Timer.builder("bitmap.ingestion.wait")
+                    .description("Time of the events in the ingestion queue")
+                    .tag("type", type)
+                    .register(meterRegistry));
+        }
+
+        if (!ingestion.isEnabled()) {
+            return;
+        }
+        if (ingestion.getSpill().isEnabled()) {
+            spill = new LaunchSpill(Paths.get(ingestion.getSpill().getDirectory()), objectMapper);
+            Gauge.builder("bitmap.ingestion.spill.depth", spill, LaunchSpill::size)
+                    .description("Number of launches spilled to disk")
+                    .register(meterRegistry);
+            restorer = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("ingestion-restorer-"));
+            restorer.scheduleWithFixedDelay(this::restore, 0, 1, TimeUnit.SECONDS);
+        }
+        running = true;
+        workers = Executors.newFixedThreadPool(ingestion.getWorkers(), new CustomizableThreadFactory("ingestion-"));
+        for (int i = 0; i < ingestion.getWorkers(); i++) {
+            workers.execute(this::work);
+        }
+    }
+
+    /**
+     * Whether the events go through the queue.
+     */
+    public boolean isEnabled() {
+        return bitmapProperties.getIngestion().isEnabled();
+    }
+
+    /**
+     * Queue the app launch, or spill it when the queue is full.
+     *
+     * @param event event data
+     * @throws IngestionRejectedException if the queue is full and the launch cannot be spilled
+     */
+    public void submitAppLaunch(DeviceEvent event) {
+        if (launches.offer(new Task(event, 1, () -> appLaunchService.receiveAppLaunch(event)))) {
+            available.release();
+            this.count(LAUNCH, "queued", 1);
+            return;
+        }
+
+        if (spill != null) {
+            try {
+                spill.append(event);
+                this.count(LAUNCH, "spilled", 1);
+                return;
+            } catch (IOException e) {
+                log.error("Spill launch of device {} error.", event.getDeviceId(), e);
+            }
+        }
+        this.count(LAUNCH, "shed", 1);
+        throw new IngestionRejectedException(HttpStatus.SERVICE_UNAVAILABLE, "Launch queue is full");
+    }
+
+    /**
+     * Queue the heartbeat.
+     *
+     * @param event event data
+     * @throws IngestionRejectedException if the heartbeats queued exceed the max depth
+     */
+    public void submitHeartbeat(DeviceEvent event) {
+        this.submitHeartbeats(1, () -> heartbeatService.receiveHeartbeat(event));
+    }
+
+    /**
+     * Queue the batch of heartbeats, the batch is accepted or shed as a whole.
+     *
+     * @param events event data
+     * @throws IngestionRejectedException if the heartbeats queued exceed the max depth
+     */
+    public void submitHeartbeats(List<DeviceEvent> events) {
+        this.submitHeartbeats(events.size(), () -> heartbeatService.receiveHeartbeats(events));
+    }
+
+    private void submitHeartbeats(int size, Runnable recording) {
+        if (heartbeatDepth.addAndGet(size) > bitmapProperties.getIngestion().getHeartbeatMaxDepth()) {
+            heartbeatDepth.addAndGet(-size);
+            this.count(HEARTBEAT, "shed", size);
+            throw new IngestionRejectedException(HttpStatus.TOO_MANY_REQUESTS, "Heartbeat queue is full");
+        }
+        heartbeats.add(new Task(null, size, recording));
+        available.release();
+        this.count(HEARTBEAT, "queued", size);
+    }
+
+    // Record the events, launches first, until stopped and drained.
+    private void work() {
+        while (running || available.availablePermits() > 0) {
+            try {
+                if (!available.tryAcquire(100, TimeUnit.MILLISECONDS)) {
+                    continue;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            // A permit is released after its task is queued, so either queue has a task.
+            String type = LAUNCH;
+            Task task = launches.poll();
+            if (task == null) {
+                type = HEARTBEAT;
+                task = heartbeats.poll();
+                heartbeatDepth.addAndGet(-task.size);
+            }
+
+            waitTimers.get(type).record(System.nanoTime() - task.queuedAt, TimeUnit.NANOSECONDS);
+            try {
+                task.recording.run();
+                this.count(type, "processed", task.size);
+            } catch (Exception e) {
+                this.count(type, "failed", task.size);
+                log.error("Record {} events error.", type, e);
+            }
+        }
+    }
+
+    // Queue the spilled launches again once the queue has drained to half.
+    private void restore() {
+        if (spill.size() == 0 || launches.size() > bitmapProperties.getIngestion().getLaunchCapacity() / 2) {
+            return;
+        }
+        try {
+            long restored = spill.restore(event -> {
+                try {
+                    launches.put(new Task(event, 1, () -> appLaunchService.receiveAppLaunch(event)));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while restoring spilled launches", e);
+                }
+                available.release();
+            });
+            log.info("Restored {} spilled launches.", restored);
+        } catch (Exception e) {
+            log.error("Restore spilled launches error.", e);
+        }
+    }
+
+    private void count(String type, String outcome, int size) {
+        counters.get(type + '/' + outcome).increment(size);
+    }
+
+    @Override
+    public void destroy() throws InterruptedException, IOException {
+        if (!running) {
+            return;
+        }
+        if (restorer != null) {
+            restorer.shutdownNow();
+            restorer.awaitTermination(10, TimeUnit.SECONDS);
+        }
+
+        // Drain the queues.
+        running = false;
+        workers.shutdown();
+        if (!workers.awaitTermination(30, TimeUnit.SECONDS)) {
+            workers.shutdownNow();
+        }
+
+        Task task;
+        int spilled = 0;
+        while (spill != null && (task = launches.poll()) != null) {
+            spill.append(task.launch);
+            spilled++;
+        }
+        if (spill != null) {
+            spill.close();
+        }
+        if (spilled > 0) {
+            log.warn("Ingestion queue shut down, {} launches spilled.", spilled);
+        }
+        if (!launches.isEmpty() || !heartbeats.isEmpty()) {
+            log.error("Ingestion queue shut down with {} launches and {} heartbeats not recorded.", launches.size(),
+                    heartbeatDepth.get());
+        }
+    }
+
+    private static class Task {
+
+        // Launch event, kept to be spilled on shutdown, null for heartbeats.
+        private final DeviceEvent launch;
+        private final int size;
+        private final Runnable recording;
+        private final long queuedAt = System.nanoTime();
+
+        private Task(DeviceEvent launch, int size, Runnable recording) {
+            this.launch = launch;
+            this.size = size;
+            this.recording = recording;
+        }
+    }
+}
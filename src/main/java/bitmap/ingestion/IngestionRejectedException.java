@@ -0,0 +1,23 @@
+package bitmap.ingestion;
+
+import org.springframework.http.HttpStatus;
+
+/**
+ * Events not accepted by the ingestion queue, the client should retry later.
+ */
+public class IngestionRejectedException extends RuntimeException {
+
+    private final HttpStatus status;
+
+    public IngestionRejectedException(HttpStatus status, String message) {
+        super(message);
+        this.status = status;
+    }
+
+    /**
+     * {@link HttpStatus#TOO_MANY_REQUESTS} for shed heartbeats, {@link HttpStatus#SERVICE_UNAVAILABLE} for launches.
+     */
+    public HttpStatus getStatus() {
+        return status;
+    }
+}
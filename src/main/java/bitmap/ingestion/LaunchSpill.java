@@ -0,0 +1,211 @@
+package bitmap.ingestion;
+
+import bitmap.dto.DeviceEvent;
+import bitmap.dto.EventDTO;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.ZoneId;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Launch events spilled to disk, one JSON line per event in append-only files.
+ * <p>
+ * Events are appended to the current file and flushed to the OS, they survive a crash of the process, not a power
+ * failure. Restoring closes the current file and hands the events of the closed files over oldest first, a file is
+ * deleted once handed over. Files left by a previous run are restored as well. An event may be handed over twice
+ * after a crash or a failure during a restore, which is harmless as the recording of a launch is idempotent. Lines
+ * that cannot be parsed, e.g. torn by a crash, are moved to a {@code .rejected} file next to the spill file.
+ */
+@Slf4j
+class LaunchSpill implements Closeable {
+
+    private static final String PREFIX = "launches-";
+    private static final String SUFFIX = ".log";
+    private static final String REJECTED_SUFFIX = ".rejected";
+
+    private final Path directory;
+    private final ObjectMapper objectMapper;
+    private final AtomicLong size = new AtomicLong();
+    private long sequence;
+    private BufferedWriter writer;
+
+    LaunchSpill(Path directory, ObjectMapper objectMapper) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.objectMapper = objectMapper;
+
+        // Count the events left by a previous run, new events go to the next file.
+        for (Path file : this.files()) {
+            sequence = Math.max(sequence, sequenceOf(file) + 1);
+        }
+        this.count();
+        if (size.get() > 0) {
+            log.info("Found {} spilled launches in {}.", size.get(), directory);
+        }
+    }
+
+    /**
+     * Append the event to the current file.
+     *
+     * @param event launch event
+     * @throws IOException if the event cannot be written
+     */
+    synchronized void append(DeviceEvent event) throws IOException {
+        if (writer == null) {
+            writer = Files.newBufferedWriter(this.file(sequence), StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+
+        Map<String, Object> record = new LinkedHashMap<>();
+        record.put("event_time_millis", event.getEventTimeMillis());
+        record.put("zone", event.getZone().getId());
+        record.put("payload", event.getPayload());
+        writer.write(objectMapper.writeValueAsString(record));
+        writer.newLine();
+        writer.flush();
+        size.incrementAndGet();
+    }
+
+    /**
+     * Hand the spilled events over oldest first, the consumer may block until it has room.
+     *
+     * @param consumer consumer of the events, an exception stops the restore and keeps the current file, its events
+     *                 are handed over again by the next restore
+     * @return number of events handed over
+     * @throws IOException if a file cannot be read
+     */
+    long restore(Consumer<DeviceEvent> consumer) throws IOException {
+        try {
+            return this.restore(consumer, this.closeCurrent());
+        } catch (IOException | RuntimeException e) {
+            // The events of a file are only uncounted once it is deleted, count again in case of a partial delete.
+            this.count();
+            throw e;
+        }
+    }
+
+    // Close the current file, events spilled meanwhile go to the next one, return the sequence of the next one.
+    private synchronized long closeCurrent() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+            sequence++;
+        }
+        return sequence;
+    }
+
+    private long restore(Consumer<DeviceEvent> consumer, long end) throws IOException {
+        long restored = 0;
+        for (Path file : this.files()) {
+            if (sequenceOf(file) >= end) {
+                break;
+            }
+            long lines = 0;
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isEmpty()) {
+                        continue;
+                    }
+                    lines++;
+                    DeviceEvent event;
+                    try {
+                        event = this.parse(line);
+                    } catch (IOException | RuntimeException e) {
+                        this.reject(file, line, e);
+                        continue;
+                    }
+                    consumer.accept(event);
+                    restored++;
+                }
+            }
+            Files.delete(file);
+            size.addAndGet(-lines);
+        }
+        return restored;
+    }
+
+    // Keep the line that cannot be parsed aside, so that the rest of the file is restored.
+    private void reject(Path file, String line, Exception e) throws IOException {
+        String name = file.getFileName().toString();
+        Path rejected = file.resolveSibling(name.substring(0, name.length() - SUFFIX.length()) + REJECTED_SUFFIX);
+        log.error("Spilled launch cannot be parsed, moved to {}.", rejected, e);
+        Files.write(rejected, Collections.singletonList(line), StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    // Count the events on disk, appends wait meanwhile.
+    private synchronized void count() throws IOException {
+        long count = 0;
+        for (Path file : this.files()) {
+            try (Stream<String> lines = Files.lines(file, StandardCharsets.UTF_8)) {
+                count += lines.filter(line -> !line.isEmpty()).count();
+            }
+        }
+        size.set(count);
+    }
+
+    /**
+     * Number of events on disk.
+     */
+    long size() {
+        return size.get();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+            sequence++;
+        }
+    }
+
+    private DeviceEvent parse(String line) throws IOException {
+        JsonNode record = objectMapper.readTree(line);
+        EventDTO payload = objectMapper.treeToValue(record.get("payload"), EventDTO.class);
+        Object platform = payload.get("platform");
+        return new DeviceEvent(platform == null ? null : platform.toString(),
+                payload.getDeviceId(),
+                record.get("event_time_millis").asLong(),
+                ZoneId.of(record.get("zone").asText()),
+                payload);
+    }
+
+    // Spill files ordered by sequence.
+    private List<Path> files() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> {
+                        String name = file.getFileName().toString();
+                        return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+                    })
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private Path file(long sequence) {
+        return directory.resolve(String.format(PREFIX + "%020d" + SUFFIX, sequence));
+    }
+
+    private static long sequenceOf(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+}
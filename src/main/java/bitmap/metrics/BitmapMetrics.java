@@ -0,0 +1,179 @@
+package bitmap.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.Resource;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Meters of the calls to Redis and ES and of the nightly statistics jobs.
+ * <p>
+ * Calls are timed by {@code bitmap.dependency.calls} tagged with the dependency, the operation and the outcome, the
+ * count of the {@code error} outcome is the error count. Operations are call sites, never keys or device IDs, so that
+ * the tags stay low-cardinality.
+ */
+@Component
+public class BitmapMetrics {
+
+    public static final String REDIS = "redis";
+    public static final String ELASTICSEARCH = "elasticsearch";
+    public static final String SUCCESS = "success";
+    public static final String ERROR = "error";
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+
+    /**
+     * Time a call to Redis.
+     *
+     * @param operation call site
+     * @param call      call
+     * @return result of the call
+     */
+    public <T> T redis(String operation, Supplier<T> call) {
+        return this.call(REDIS, operation, call);
+    }
+
+    /**
+     * Time a call to ES.
+     *
+     * @param operation call site
+     * @param call      call
+     * @return result of the call
+     */
+    public <T> T elasticsearch(String operation, Supplier<T> call) {
+        return this.call(ELASTICSEARCH, operation, call);
+    }
+
+    /**
+     * Time a call to ES without result.
+     *
+     * @param operation call site
+     * @param call      call
+     */
+    public void elasticsearch(String operation, Runnable call) {
+        this.call(ELASTICSEARCH, operation, () -> {
+            call.run();
+            return null;
+        });
+    }
+
+    /**
+     * Time a non-blocking call, from the subscription to the result.
+     *
+     * @param dependency {@link #REDIS} or {@link #ELASTICSEARCH}
+     * @param operation  call site
+     * @param call       call
+     * @return the call timed
+     */
+    public <T> Mono<T> mono(String dependency, String operation, Mono<T> call) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return call.doOnSuccess(result -> this.record(dependency, operation, start, true))
+                    .doOnError(e -> this.record(dependency, operation, start, false));
+        });
+    }
+
+    /**
+     * Record a call timed by the caller, for calls throwing checked exceptions.
+     *
+     * @param dependency {@link #REDIS} or {@link #ELASTICSEARCH}
+     * @param operation  call site
+     * @param startNanos {@link System#nanoTime()} before the call
+     * @param success    whether the call succeeded
+     */
+    public void record(String dependency, String operation, long startNanos, boolean success) {
+        this.timer("bitmap.dependency.calls", "Latency of the calls to Redis and ES",
+                "dependency", dependency, "operation", operation, success)
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Process a page of a nightly job, timed by {@code bitmap.statistics.page} and counted by
+     * {@code bitmap.statistics.devices} when processed.
+     *
+     * @param job        job name
+     * @param page       devices of the page
+     * @param processing processing of the page
+     */
+    public void page(String job, List<?> page, Runnable processing) {
+        this.time("bitmap.statistics.page", "Processing time of a page of the nightly jobs", "job", job, processing);
+        counters.computeIfAbsent(job, key -> Counter.builder("bitmap.statistics.devices")
+                        .description("Number of devices processed by the nightly jobs")
+                        .tag("job", key)
+                        .register(meterRegistry))
+                .increment(page.size());
+    }
+
+    /**
+     * Run a nightly job, timed by {@code bitmap.statistics.run}.
+     *
+     * @param job job name
+     * @param run the job
+     */
+    public void run(String job, Runnable run) {
+        this.time("bitmap.statistics.run", "Duration of the nightly jobs", "job", job, run);
+    }
+
+    /**
+     * Time a call to a dependency, e.g. the bitmap store by its name.
+     *
+     * @param dependency dependency name
+     * @param operation  call site
+     * @param call       call
+     * @return result of the call
+     */
+    public <T> T call(String dependency, String operation, Supplier<T> call) {
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            T result = call.get();
+            success = true;
+            return result;
+        } finally {
+            this.record(dependency, operation, start, success);
+        }
+    }
+
+    private void time(String name, String description, String tagKey, String tagValue, Runnable runnable) {
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            runnable.run();
+            success = true;
+        } finally {
+            this.timer(name, description, tagKey, tagValue, null, null, success)
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    // Timers are cached, so that the hot path does not build a meter ID per call.
+    private Timer timer(String name, String description, String tagKey, String tagValue,
+                        String operationKey, String operation, boolean success) {
+        String outcome = success ? SUCCESS : ERROR;
+        String cacheKey = name + '/' + tagValue + '/' + operation + '/' + outcome;
+        Timer timer = timers.get(cacheKey);
+        if (timer == null) {
+            Timer.Builder builder = Timer.builder(name)
+                    .description(description)
+                    .tag(tagKey, tagValue)
+                    .tag("outcome", outcome);
+            if (operationKey != null) {
+                builder.tag(operationKey, operation);
+            }
+            timer = timers.computeIfAbsent(cacheKey, key -> builder.register(meterRegistry));
+        }
+        return timer;
+    }
+}
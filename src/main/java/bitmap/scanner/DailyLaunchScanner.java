@@ -0,0 +1,263 @@
+package bitmap.scanner;
+
+import bitmap.config.BitmapProperties;
+import bitmap.dto.EventDTO;
+import bitmap.metrics.BitmapMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.search.*;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.core.TimeValue;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.PointInTimeBuilder;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.slice.SliceBuilder;
+import org.elasticsearch.search.sort.SortBuilders;
+import org.springframework.data.elasticsearch.core.ElasticsearchRestTemplate;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Scanner of the daily launch events of a day.
+ * <p>
+ * The events are paged with a point in time and search_after on {@code _shard_doc}, so the cost of a page does not
+ * grow with the page number and the scan is not limited by {@code max_result_window}. The point in time is split
+ * into slices scanned in parallel, and the pages are processed on a bounded pool of workers while the next page is
+ * fetched. When all the workers are busy and the queue is full, the slice runs the page itself, which holds back
+ * the fetching.
+ */
+@Slf4j
+@Component
+public class DailyLaunchScanner {
+
+    /**
+     * Index of the daily launch events.
+     */
+    public static final String INDEX = "daily_app_launch_unique";
+    /**
+     * Fields fetched from the source.
+     */
+    private static final String[] INCLUDES = {"device_id", "first_launch_time", "launch_time", "session_duration",
+            "session_count", "longest_session", "median_session", "first_active_minute", "last_active_minute"};
+    @Resource
+    private ElasticsearchRestTemplate elasticsearchRestTemplate;
+    @Resource
+    private BitmapProperties bitmapProperties;
+    @Resource
+    private BitmapMetrics bitmapMetrics;
+
+    /**
+     * Device ID of a scanned event, the source only carries the {@code device_id} field.
+     *
+     * @param eventDTO scanned event
+     * @return device ID
+     */
+    public static String deviceIdOf(EventDTO eventDTO) {
+        return Optional.ofNullable(eventDTO.get("device_id"))
+                .map(Object::toString)
+                .orElse(null);
+    }
+
+    /**
+     * Scan the daily launch events of the day page by page, the consumer may be called concurrently.
+     *
+     * @param activeDate active date
+     * @param consumer   consumer of each page
+     * @return number of events scanned
+     */
+    public long scan(LocalDate activeDate, Consumer<List<EventDTO>> consumer) {
+        return elasticsearchRestTemplate.execute(client -> this.scan(client, activeDate, consumer));
+    }
+
+    private long scan(RestHighLevelClient client, LocalDate activeDate, Consumer<List<EventDTO>> consumer)
+            throws IOException {
+        BitmapProperties.Scan properties = bitmapProperties.getScan();
+        TimeValue keepAlive = TimeValue.timeValueMillis(properties.getKeepAlive().toMillis());
+        int slices = Math.max(1, properties.getSlices());
+
+        // Open a point in time, the events indexed meanwhile are not visible to the scan.
+        long openStart = System.nanoTime();
+        boolean opened = false;
+        String pointInTimeId;
+        try {
+            pointInTimeId = client.openPointInTime(new OpenPointInTimeRequest(INDEX).keepAlive(keepAlive),
+                    RequestOptions.DEFAULT).getPointInTimeId();
+            opened = true;
+        } finally {
+            bitmapMetrics.record(BitmapMetrics.ELASTICSEARCH, "open_point_in_time", openStart, opened);
+        }
+
+        ThreadPoolExecutor workers = new ThreadPoolExecutor(properties.getWorkers(), properties.getWorkers(),
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(properties.getQueueCapacity()),
+                new CustomizableThreadFactory("scan-worker-"),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        ExecutorService sliceExecutor = Executors.newFixedThreadPool(slices,
+                new CustomizableThreadFactory("scan-slice-"));
+        Scan scan = new Scan(client, bitmapMetrics, activeDate, pointInTimeId, keepAlive, properties.getPageSize(),
+                workers, consumer);
+        try {
+            List<Future<?>> futures = new ArrayList<>(slices);
+            for (int i = 0; i < slices; i++) {
+                SliceBuilder slice = slices > 1 ? new SliceBuilder(i, slices) : null;
+                futures.add(sliceExecutor.submit(() -> scan.scanSlice(slice)));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    scan.fail(e.getCause());
+                }
+            }
+
+            // Wait for the pages still being processed.
+            workers.shutdown();
+            while (!workers.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.info("Waiting for {} pages of {} to be processed.", workers.getQueue().size(), activeDate);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            scan.fail(e);
+        } finally {
+            sliceExecutor.shutdownNow();
+            workers.shutdownNow();
+            long closeStart = System.nanoTime();
+            try {
+                client.closePointInTime(new ClosePointInTimeRequest(pointInTimeId), RequestOptions.DEFAULT);
+                bitmapMetrics.record(BitmapMetrics.ELASTICSEARCH, "close_point_in_time", closeStart, true);
+            } catch (Exception e) {
+                bitmapMetrics.record(BitmapMetrics.ELASTICSEARCH, "close_point_in_time", closeStart, false);
+                log.warn("Close point in time error.", e);
+            }
+        }
+
+        scan.rethrow();
+        return scan.scanned.get();
+    }
+
+    /**
+     * State of one scan shared by its slices.
+     */
+    private static class Scan {
+
+        private final RestHighLevelClient client;
+        private final BitmapMetrics bitmapMetrics;
+        private final ZonedDateTime start;
+        private final String pointInTimeId;
+        private final TimeValue keepAlive;
+        private final int pageSize;
+        private final Executor workers;
+        private final Consumer<List<EventDTO>> consumer;
+        private final AtomicLong scanned = new AtomicLong();
+        private final AtomicReference<Throwable> error = new AtomicReference<>();
+
+        private Scan(RestHighLevelClient client, BitmapMetrics bitmapMetrics, LocalDate activeDate,
+                     String pointInTimeId, TimeValue keepAlive, int pageSize, Executor workers,
+                     Consumer<List<EventDTO>> consumer) {
+            this.client = client;
+            this.bitmapMetrics = bitmapMetrics;
+            this.start = activeDate.atStartOfDay(ZoneId.systemDefault());
+            this.pointInTimeId = pointInTimeId;
+            this.keepAlive = keepAlive;
+            this.pageSize = pageSize;
+            this.workers = workers;
+            this.consumer = consumer;
+        }
+
+        private void scanSlice(SliceBuilder slice) {
+            Object[] searchAfter = null;
+            while (error.get() == null) {
+                SearchSourceBuilder sourceBuilder = new SearchSourceBuilder()
+                        .query(QueryBuilders.boolQuery().filter(
+                                QueryBuilders.rangeQuery("launch_time")
+                                        .gte(start)
+                                        .lt(start.plusDays(1))
+                        ))
+                        .fetchSource(INCLUDES, null)
+                        .size(pageSize)
+                        .sort(SortBuilders.fieldSort("_shard_doc"))
+                        .trackTotalHits(false)
+                        .pointInTimeBuilder(new PointInTimeBuilder(pointInTimeId).setKeepAlive(keepAlive));
+                if (slice != null) {
+                    sourceBuilder.slice(slice);
+                }
+                if (searchAfter != null) {
+                    sourceBuilder.searchAfter(searchAfter);
+                }
+
+                SearchHit[] hits;
+                long searchStart = System.nanoTime();
+                boolean searched = false;
+                try {
+                    hits = client.search(new SearchRequest().source(sourceBuilder), RequestOptions.DEFAULT)
+                            .getHits()
+                            .getHits();
+                    searched = true;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } finally {
+                    bitmapMetrics.record(BitmapMetrics.ELASTICSEARCH, "search", searchStart, searched);
+                }
+
+                List<EventDTO> results = new ArrayList<>(hits.length);
+                for (SearchHit hit : hits) {
+                    EventDTO eventDTO = new EventDTO();
+                    eventDTO.putAll(hit.getSourceAsMap());
+                    results.add(eventDTO);
+                }
+
+                // Consume the results on a worker, while the next page is fetched.
+                if (!results.isEmpty()) {
+                    scanned.addAndGet(results.size());
+                    workers.execute(() -> {
+                        try {
+                            consumer.accept(results);
+                        } catch (Throwable e) {
+                            this.fail(e);
+                        }
+                    });
+                }
+
+                if (hits.length < pageSize) {
+                    break;
+                }
+
+                searchAfter = hits[hits.length - 1].getSortValues();
+            }
+        }
+
+        private void fail(Throwable throwable) {
+            if (!error.compareAndSet(null, throwable)) {
+                error.get().addSuppressed(throwable);
+            }
+        }
+
+        private void rethrow() {
+            Throwable throwable = error.get();
+            if (throwable instanceof RuntimeException) {
+                throw (RuntimeException) throwable;
+            } else if (throwable instanceof Error) {
+                throw (Error) throwable;
+            } else if (throwable instanceof IOException) {
+                throw new UncheckedIOException((IOException) throwable);
+            } else if (throwable != null) {
+                throw new IllegalStateException(throwable);
+            }
+        }
+    }
+}
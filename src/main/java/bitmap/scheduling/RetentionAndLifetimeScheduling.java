@@ -1,6 +1,8 @@
 package bitmap.scheduling;
 
+import bitmap.metrics.BitmapMetrics;
 import bitmap.service.AppLaunchService;
+import bitmap.service.impl.AppLaunchServiceImpl;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.scheduling.annotation.Scheduled;
@@ -16,12 +18,15 @@ public class RetentionAndLifetimeScheduling {
 
     @Resource
     private AppLaunchService appLaunchService;
+    @Resource
+    private BitmapMetrics bitmapMetrics;
 
     @Scheduled(cron = "0 0 0,4 * * ?")
     public void statisticsRetentionAndLifetime() {
         log.info("Retention scheduling start.");
         long start = System.currentTimeMillis();
-        appLaunchService.statisticsRetentionAndLifetime(LocalDate.now().minusDays(1));
+        bitmapMetrics.run(AppLaunchServiceImpl.JOB_OF_RETENTION_AND_LIFETIME,
+                () -> appLaunchService.statisticsRetentionAndLifetime(LocalDate.now().minusDays(1)));
         log.info("Retention scheduling end, cost: {}s.", (System.currentTimeMillis() - start) / 1000);
     }
 }
@@ -1,6 +1,8 @@
 package bitmap.scheduling;
 
+import bitmap.metrics.BitmapMetrics;
 import bitmap.service.HeartbeatService;
+import bitmap.service.impl.HeartbeatServiceImpl;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.scheduling.annotation.Scheduled;
@@ -16,12 +18,15 @@ public class SessionDurationScheduling {
 
     @Resource
     private HeartbeatService heartbeatService;
+    @Resource
+    private BitmapMetrics bitmapMetrics;
 
     @Scheduled(cron = "0 0 0,4 * * ?")
     public void statisticsSessionDuration() {
         log.info("Session duration scheduling start.");
         long start = System.currentTimeMillis();
-        heartbeatService.statisticsSessionDuration(LocalDate.now().minusDays(1));
+        bitmapMetrics.run(HeartbeatServiceImpl.JOB_OF_SESSION_DURATION,
+                () -> heartbeatService.statisticsSessionDuration(LocalDate.now().minusDays(1)));
         log.info("Session duration scheduling end, cost: {}s.", (System.currentTimeMillis() - start) / 1000);
     }
 }
@@ -1,18 +1,28 @@
 package bitmap.service;
 
+import bitmap.dto.DeviceEvent;
 import bitmap.dto.EventDTO;
 
 import java.time.LocalDate;
 import java.time.ZonedDateTime;
+import java.util.Collection;
+import java.util.Map;
 
 public interface AppLaunchService {
 
+    /**
+     * Record the app launch: the first launch time, the first launch and the daily launch, in this order.
+     *
+     * @param event event
+     */
+    void receiveAppLaunch(DeviceEvent event);
+
     /**
      * Record the first launch time of the device.
      *
-     * @param eventDTO eventDTO
+     * @param event event
      */
-    void recordFirstLaunchTime(EventDTO eventDTO);
+    void recordFirstLaunchTime(DeviceEvent event);
 
     /**
      * Get the first launch time of the device.
@@ -22,12 +32,20 @@ public interface AppLaunchService {
      */
     ZonedDateTime getFirstLaunchTime(String deviceId);
 
+    /**
+     * Get the first launch time of the devices in one round trip.
+     *
+     * @param deviceIds deviceIds
+     * @return first launch time of the devices, devices without first launch time are absent
+     */
+    Map<String, ZonedDateTime> getFirstLaunchTimes(Collection<String> deviceIds);
+
     /**
      * Record app launch event when first launch.
      *
-     * @param eventDTO eventDTO
+     * @param event event
      */
-    void recordFirstLaunch(EventDTO eventDTO);
+    void recordFirstLaunch(DeviceEvent event);
 
     /**
      * Get the first launch event of the device.
@@ -40,9 +58,9 @@ public interface AppLaunchService {
     /**
      * Record app launch event every day.
      *
-     * @param eventDTO eventDTO
+     * @param event event
      */
-    void recordDailyLaunch(EventDTO eventDTO);
+    void recordDailyLaunch(DeviceEvent event);
 
     /**
      * Get the daily launch event of the device.
@@ -53,6 +71,31 @@ public interface AppLaunchService {
      */
     EventDTO getDailyLaunch(String deviceId, LocalDate launchDate);
 
+    /**
+     * Count the devices launched on the date.
+     *
+     * @param activeDate active date
+     * @return number of active devices
+     */
+    long countActiveDevices(LocalDate activeDate);
+
+    /**
+     * Count the devices launched for the first time on the date.
+     *
+     * @param launchDate first launch date
+     * @return number of new devices
+     */
+    long countNewDevices(LocalDate launchDate);
+
+    /**
+     * Count the devices of the cohort that launched again on the active date.
+     *
+     * @param cohortDate first launch date of the cohort
+     * @param activeDate active date
+     * @return number of retained devices
+     */
+    long countRetainedDevices(LocalDate cohortDate, LocalDate activeDate);
+
     /**
      * Statistics retention.
      */
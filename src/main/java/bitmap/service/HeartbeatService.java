@@ -1,17 +1,28 @@
 package bitmap.service;
 
-import bitmap.dto.EventDTO;
+import bitmap.dto.DeviceEvent;
+import bitmap.dto.SessionDurationDTO;
 
 import java.time.LocalDate;
+import java.util.List;
 
 public interface HeartbeatService {
 
     /**
      * Receive heartbeat event.
      *
-     * @param eventDTO event data
+     * @param event event data
+     * @return true if the minute of the heartbeat is newly recorded, false if it was recorded, the device is unknown,
+     * or the bit is buffered by the aggregator
      */
-    void receiveHeartbeat(EventDTO eventDTO);
+    boolean receiveHeartbeat(DeviceEvent event);
+
+    /**
+     * Receive a batch of heartbeat events.
+     *
+     * @param events event data
+     */
+    void receiveHeartbeats(List<DeviceEvent> events);
 
     /**
      * Statistics average session duration.
@@ -19,4 +30,12 @@ public interface HeartbeatService {
      * @param activeDate active date
      */
     void statisticsSessionDuration(LocalDate activeDate);
+
+    /**
+     * Get the session duration of the devices active on the date, as of the last statistics of the date.
+     *
+     * @param activeDate active date
+     * @return session duration of the day, null if not calculated yet
+     */
+    SessionDurationDTO getSessionDuration(LocalDate activeDate);
 }
@@ -0,0 +1,39 @@
+package bitmap.service;
+
+import bitmap.dto.DailyActiveDTO;
+import bitmap.dto.RetentionDTO;
+import bitmap.dto.SessionDurationDTO;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Metrics read from the bitmaps in Redis, cached for a short while.
+ */
+public interface MetricsService {
+
+    /**
+     * Get the active and new devices of the date.
+     *
+     * @param activeDate active date
+     * @return active and new devices
+     */
+    DailyActiveDTO getDailyActive(LocalDate activeDate);
+
+    /**
+     * Get the retention of the cohort.
+     *
+     * @param cohortDate first launch date of the cohort
+     * @param days       day offsets since the first launch, the configured ones if empty
+     * @return retention of the cohort
+     */
+    RetentionDTO getRetention(LocalDate cohortDate, List<Integer> days);
+
+    /**
+     * Get the session duration of the devices active on the date.
+     *
+     * @param activeDate active date
+     * @return session duration of the day, null if not calculated yet
+     */
+    SessionDurationDTO getSessionDuration(LocalDate activeDate);
+}
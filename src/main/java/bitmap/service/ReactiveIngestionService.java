@@ -0,0 +1,36 @@
+package bitmap.service;
+
+import bitmap.dto.DeviceEvent;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+/**
+ * Non-blocking ingestion of the app launch and heartbeat events.
+ */
+public interface ReactiveIngestionService {
+
+    /**
+     * Record the app launch: the first launch time, the first launch and the daily launch.
+     *
+     * @param event event data
+     * @return completion of the recording
+     */
+    Mono<Void> receiveAppLaunch(DeviceEvent event);
+
+    /**
+     * Receive heartbeat event.
+     *
+     * @param event event data
+     * @return true if the minute of the heartbeat is newly recorded, false if it was recorded or the device is unknown
+     */
+    Mono<Boolean> receiveHeartbeat(DeviceEvent event);
+
+    /**
+     * Receive a batch of heartbeat events.
+     *
+     * @param events event data
+     * @return completion of the recording
+     */
+    Mono<Void> receiveHeartbeats(List<DeviceEvent> events);
+}
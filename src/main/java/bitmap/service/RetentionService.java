@@ -0,0 +1,26 @@
+package bitmap.service;
+
+import bitmap.dto.RetentionDTO;
+
+import java.time.LocalDate;
+import java.util.List;
+
+public interface RetentionService {
+
+    /**
+     * Calculate the retention of the cohort with the configured day offsets.
+     *
+     * @param cohortDate first launch date of the cohort
+     * @return retention of the cohort
+     */
+    RetentionDTO calculateRetention(LocalDate cohortDate);
+
+    /**
+     * Calculate the retention of the cohort.
+     *
+     * @param cohortDate first launch date of the cohort
+     * @param days       day offsets since the first launch
+     * @return retention of the cohort
+     */
+    RetentionDTO calculateRetention(LocalDate cohortDate, List<Integer> days);
+}
@@ -1,29 +1,33 @@
 package bitmap.service.impl;
 
+import bitmap.cache.FirstLaunchTimeCache;
+import bitmap.codec.FirstLaunchTimeCodec;
+import bitmap.config.BitmapProperties;
+import bitmap.dictionary.DeviceDictionary;
+import bitmap.dto.DeviceEvent;
 import bitmap.dto.EventDTO;
+import bitmap.indexer.BulkIndexer;
+import bitmap.metrics.BitmapMetrics;
+import bitmap.scanner.DailyLaunchScanner;
 import bitmap.service.AppLaunchService;
+import bitmap.store.BitmapStore;
 import lombok.extern.slf4j.Slf4j;
-import org.elasticsearch.index.query.QueryBuilders;
-import org.springframework.data.domain.PageRequest;
 import org.springframework.data.elasticsearch.core.ElasticsearchRestTemplate;
-import org.springframework.data.elasticsearch.core.SearchHit;
-import org.springframework.data.elasticsearch.core.SearchHits;
+import org.springframework.data.elasticsearch.core.MultiGetItem;
 import org.springframework.data.elasticsearch.core.document.Document;
 import org.springframework.data.elasticsearch.core.mapping.IndexCoordinates;
 import org.springframework.data.elasticsearch.core.query.*;
 import org.springframework.data.redis.connection.RedisConnection;
-import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.connection.RedisStringCommands;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
 import java.time.*;
 import java.time.format.DateTimeFormatter;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Objects;
-import java.util.Optional;
-import java.util.function.Consumer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 @Slf4j
@@ -38,100 +42,168 @@ public class AppLaunchServiceImpl implements AppLaunchService {
      * Key of launch record of the device.
      */
     public static final String KEY_OF_LAUNCH_PER_DAY = "device:%s:launch_per_day";
-    @Resource
-    private RedisTemplate<String, LocalDateTime> redisTemplate;
+    /**
+     * Key of the devices launched on the date, offset by dense device ID.
+     */
+    public static final String KEY_OF_ACTIVE_PER_DAY = "active:%s";
+    /**
+     * Key of the devices launched for the first time on the date, offset by dense device ID.
+     */
+    public static final String KEY_OF_NEW_PER_DAY = "new:%s";
+    /**
+     * Name of the retention and lifetime job in the metrics.
+     */
+    public static final String JOB_OF_RETENTION_AND_LIFETIME = "retention_lifetime";
+    // Population bitmaps whose TTL has been set by this node.
+    private final Set<String> expiringKeys = ConcurrentHashMap.newKeySet();
     @Resource
     private ElasticsearchRestTemplate elasticsearchRestTemplate;
     @Resource
+    private DailyLaunchScanner dailyLaunchScanner;
+    @Resource
     private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private BitmapStore bitmapStore;
+    @Resource
+    private FirstLaunchTimeCache firstLaunchTimeCache;
+    @Resource
+    private DeviceDictionary deviceDictionary;
+    @Resource
+    private BulkIndexer bulkIndexer;
+    @Resource
+    private BitmapProperties bitmapProperties;
+    @Resource
+    private BitmapMetrics bitmapMetrics;
+
+    @Override
+    public void receiveAppLaunch(DeviceEvent event) {
+        // Record the first launch time of the device.
+        this.recordFirstLaunchTime(event);
+
+        // Record app launch event when first launch.
+        this.recordFirstLaunch(event);
+
+        // Record app launch event every day.
+        this.recordDailyLaunch(event);
+    }
 
     @Override
-    public void recordFirstLaunchTime(EventDTO eventDTO) {
-        String deviceId = eventDTO.getDeviceId();
-        ZonedDateTime eventTime = eventDTO.getEventTime();
+    public void recordFirstLaunchTime(DeviceEvent event) {
+        String deviceId = event.getDeviceId();
+        ZonedDateTime eventTime = event.getEventTime();
 
-        // If the key does not exist, set the value.
+        // Set the value only if the key does not exist, in one atomic SET NX.
         String key = String.format(KEY_OF_FIRST_LAUNCH_TIME, deviceId);
-        if (redisTemplate.opsForValue().get(key) == null) {
-            redisTemplate.opsForValue().set(key, eventTime.toLocalDateTime());
+        Boolean created = bitmapMetrics.redis("first_launch_time_set", () -> stringRedisTemplate.execute(
+                (RedisConnection connection) -> connection.set(key.getBytes(),
+                        FirstLaunchTimeCodec.encode(eventTime),
+                        Expiration.persistent(),
+                        RedisStringCommands.SetOption.SET_IF_ABSENT)));
+        if (Boolean.TRUE.equals(created)) {
+            firstLaunchTimeCache.put(deviceId, eventTime);
+
+            // Record the new device.
+            this.recordPopulation(KEY_OF_NEW_PER_DAY, eventTime.toLocalDate(), deviceId);
         }
     }
 
     @Override
     public ZonedDateTime getFirstLaunchTime(String deviceId) {
-        String key = String.format(KEY_OF_FIRST_LAUNCH_TIME, deviceId);
-        return Optional.ofNullable(redisTemplate.opsForValue().get(key))
-                .map(localDateTime -> localDateTime.atZone(ZoneId.systemDefault()))
-                .orElse(null);
+        return firstLaunchTimeCache.get(deviceId, this::loadFirstLaunchTime);
     }
 
     @Override
-    public void recordFirstLaunch(EventDTO eventDTO) {
-        // If exists, return.
-        String documentId = eventDTO.getDeviceId();
-        if (elasticsearchRestTemplate.exists(documentId, IndexCoordinates.of("first_app_launch"))) {
-            return;
+    public Map<String, ZonedDateTime> getFirstLaunchTimes(Collection<String> deviceIds) {
+        return firstLaunchTimeCache.getAll(new LinkedHashSet<>(deviceIds), this::loadFirstLaunchTimes);
+    }
+
+    // Load the first launch time of the device from Redis.
+    private ZonedDateTime loadFirstLaunchTime(String deviceId) {
+        byte[] key = String.format(KEY_OF_FIRST_LAUNCH_TIME, deviceId).getBytes();
+        return FirstLaunchTimeCodec.decode(bitmapMetrics.redis("first_launch_time_get",
+                () -> stringRedisTemplate.execute((RedisConnection connection) -> connection.get(key))));
+    }
+
+    // Load the first launch time of the devices from Redis with one MGET.
+    private Map<String, ZonedDateTime> loadFirstLaunchTimes(Collection<String> deviceIds) {
+        List<String> distinctDeviceIds = new ArrayList<>(deviceIds);
+        byte[][] keys = distinctDeviceIds.stream()
+                .map(deviceId -> String.format(KEY_OF_FIRST_LAUNCH_TIME, deviceId).getBytes())
+                .toArray(byte[][]::new);
+
+        // Resolve all the keys with one MGET.
+        List<byte[]> values = keys.length == 0 ? null : bitmapMetrics.redis("first_launch_time_mget",
+                () -> stringRedisTemplate.execute((RedisConnection connection) -> connection.mGet(keys)));
+        if (values == null) {
+            return Collections.emptyMap();
         }
 
-        try {
-            eventDTO.put("first_launch_time", eventDTO.getEventTime().format(DateTimeFormatter.ISO_OFFSET_DATE_TIME));
-            eventDTO.put("device_id", eventDTO.getDeviceId());
+        Map<String, ZonedDateTime> firstLaunchTimes = new HashMap<>(distinctDeviceIds.size());
+        for (int i = 0; i < distinctDeviceIds.size(); i++) {
+            ZonedDateTime firstLaunchTime = FirstLaunchTimeCodec.decode(values.get(i));
+            if (firstLaunchTime != null) {
+                firstLaunchTimes.put(distinctDeviceIds.get(i), firstLaunchTime);
+            }
+        }
+        return firstLaunchTimes;
+    }
 
-            // Index to Elasticsearch.
-            IndexQuery indexQuery = new IndexQueryBuilder()
-                    .withId(documentId)
-                    .withObject(eventDTO)
-                    .build();
-            elasticsearchRestTemplate.index(indexQuery, IndexCoordinates.of("first_app_launch"));
-        } finally {
-            eventDTO.remove("first_launch_time");
-            eventDTO.remove("device_id");
+    @Override
+    public void recordFirstLaunch(DeviceEvent event) {
+        // Index to Elasticsearch, ignored if exists.
+        bulkIndexer.create("first_app_launch", event.getDeviceId(), firstLaunchDocument(event, bitmapProperties));
+    }
+
+    // Document of the first launch of the device.
+    static EventDTO firstLaunchDocument(DeviceEvent event, BitmapProperties bitmapProperties) {
+        EventDTO document = new EventDTO();
+        document.putAll(event.getPayload());
+        document.put("first_launch_time", event.getEventTime().format(DateTimeFormatter.ISO_OFFSET_DATE_TIME));
+        document.put("device_id", event.getDeviceId());
+        if (bitmapProperties.getRetention().isIncremental()) {
+            // Start from no retention, the launches of the following days update the fields.
+            for (Integer day : bitmapProperties.getRetention().getDays()) {
+                document.put("retention_day_" + day, 0);
+            }
+            document.put("user_lifetime", 0);
         }
+        return document;
     }
 
     @Override
     public EventDTO getFirstLaunch(String deviceId) {
-        return elasticsearchRestTemplate.get(deviceId,
+        return bitmapMetrics.elasticsearch("get", () -> elasticsearchRestTemplate.get(deviceId,
                 EventDTO.class,
-                IndexCoordinates.of("first_app_launch"));
+                IndexCoordinates.of("first_app_launch")));
     }
 
     @Override
-    public void recordDailyLaunch(EventDTO eventDTO) {
-        String deviceId = eventDTO.getDeviceId();
-        ZonedDateTime eventTime = eventDTO.getEventTime();
+    public void recordDailyLaunch(DeviceEvent event) {
+        String deviceId = event.getDeviceId();
+        ZonedDateTime eventTime = event.getEventTime();
 
-        // If exists, return.
-        String documentId = deviceId + "_" + eventTime.toLocalDate().format(DateTimeFormatter.ISO_DATE);
-        if (elasticsearchRestTemplate.exists(documentId, IndexCoordinates.of("daily_app_launch_unique"))) {
+        // Get first launch time of the device.
+        LocalDateTime firstLaunchTime = Optional.ofNullable(this.getFirstLaunchTime(deviceId))
+                .map(ZonedDateTime::toLocalDateTime)
+                .orElseThrow(() -> new NullPointerException("First launch time must not be null"));
+
+        // Record the active device, if already active today, return.
+        if (!this.recordPopulation(KEY_OF_ACTIVE_PER_DAY, eventTime.toLocalDate(), deviceId)) {
             return;
         }
 
-        // Get first launch time of the device.
-        String keyOfFirstLaunchTime = String.format(KEY_OF_FIRST_LAUNCH_TIME, deviceId);
-        LocalDateTime firstLaunchTime = redisTemplate.opsForValue().get(keyOfFirstLaunchTime);
-        Objects.requireNonNull(firstLaunchTime, "First launch time must not be null");
-
         /*
-         * Index to Elasticsearch.
+         * Index to Elasticsearch, ignored if exists.
          */
+        // Clear the active bit when indexing fails, here or in the bulk indexer, so that the next launch of the day
+        // indexes again.
+        Runnable clearActive = () -> this.clearPopulation(KEY_OF_ACTIVE_PER_DAY, eventTime.toLocalDate(), deviceId);
         try {
-            eventDTO.put("first_launch_time", firstLaunchTime
-                    .atZone(ZoneId.systemDefault())
-                    .format(DateTimeFormatter.ISO_OFFSET_DATE_TIME));
-            eventDTO.put("launch_time", eventTime.format(DateTimeFormatter.ISO_OFFSET_DATE_TIME));
-            eventDTO.put("device_id", deviceId);
-
-            // Index to Elasticsearch.
-            IndexQuery indexQuery = new IndexQueryBuilder()
-                    .withId(documentId)
-                    .withObject(eventDTO)
-                    .build();
-            elasticsearchRestTemplate.index(indexQuery, IndexCoordinates.of("daily_app_launch_unique"));
-        } finally {
-            eventDTO.remove("first_launch_time");
-            eventDTO.remove("launch_time");
-            eventDTO.remove("device_id");
+            bulkIndexer.create("daily_app_launch_unique", dailyLaunchDocumentId(event),
+                    dailyLaunchDocument(event, firstLaunchTime), clearActive);
+        } catch (RuntimeException e) {
+            clearActive.run();
+            throw e;
         }
 
         /*
@@ -140,119 +212,229 @@ public class AppLaunchServiceImpl implements AppLaunchService {
         String keyOfLaunchPerDay = String.format(KEY_OF_LAUNCH_PER_DAY, deviceId);
 
         // Calculate the offset.
+        long offset = calculateDayOffset(deviceId, firstLaunchTime, eventTime.toLocalDateTime());
+
+        // Set the corresponding bit to 1.
+        if (!bitmapProperties.getRetention().isIncremental()) {
+            bitmapMetrics.call(bitmapStore.getName(), "launch_per_day_setbit",
+                    () -> bitmapStore.setBit(keyOfLaunchPerDay, offset, true));
+            return;
+        }
+
+        // Count the days with the same round trip, the lifetime is the number of days launched.
+        List<Object> results = bitmapMetrics.call(bitmapStore.getName(), "launch_per_day_setbit", () -> bitmapStore
+                .batch()
+                .setBit(keyOfLaunchPerDay, offset, true)
+                .bitCount(keyOfLaunchPerDay)
+                .execute());
+        if (Boolean.FALSE.equals(results.get(0))) {
+            this.updateRetentionAndLifetime(deviceId, offset, (Long) results.get(1));
+        }
+    }
+
+    // ID of the document of the daily launch of the device.
+    static String dailyLaunchDocumentId(DeviceEvent event) {
+        return event.getDeviceId() + "_" + event.getEventTime().toLocalDate().format(DateTimeFormatter.ISO_DATE);
+    }
+
+    // Document of the first launch of the day of the device.
+    static EventDTO dailyLaunchDocument(DeviceEvent event, LocalDateTime firstLaunchTime) {
+        EventDTO document = new EventDTO();
+        document.putAll(event.getPayload());
+        document.put("first_launch_time", firstLaunchTime
+                .atZone(ZoneId.systemDefault())
+                .format(DateTimeFormatter.ISO_OFFSET_DATE_TIME));
+        document.put("launch_time", event.getEventTime().format(DateTimeFormatter.ISO_OFFSET_DATE_TIME));
+        document.put("device_id", event.getDeviceId());
+        return document;
+    }
+
+    // Update the retention of the day and the lifetime of the device launched on a new day.
+    private void updateRetentionAndLifetime(String deviceId, long offset, long lifetime) {
+        // The values are absolute, a lost update is corrected by the nightly reconciliation.
+        try {
+            bulkIndexer.update("first_app_launch", deviceId, retentionAndLifetimeFields(offset, lifetime,
+                    bitmapProperties));
+        } catch (RuntimeException e) {
+            log.warn("Update retention and lifetime of device {} error, left to the reconciliation.", deviceId, e);
+        }
+    }
+
+    // Fields of a device launched on a new day, the retention of the day if calculated and the lifetime.
+    static EventDTO retentionAndLifetimeFields(long offset, long lifetime, BitmapProperties bitmapProperties) {
+        EventDTO fields = new EventDTO();
+        if (bitmapProperties.getRetention().getDays().contains((int) offset)) {
+            fields.put("retention_day_" + offset, 1);
+        }
+        fields.put("user_lifetime", lifetime);
+        return fields;
+    }
+
+    // Calculate the offset in days between the first launch time and the event time.
+    static long calculateDayOffset(String deviceId, LocalDateTime firstLaunchTime, LocalDateTime eventTime) {
         long offset = Duration.between(firstLaunchTime, eventTime).toDays();
 
         // Present the offset as day.
-        String offsetStr = String.format("%d", offset);
-        log.debug("Device {} launch at {}", deviceId, offsetStr);
-
-        // Set the corresponding bit to 1.
-        stringRedisTemplate.opsForValue().setBit(keyOfLaunchPerDay, offset, true);
+        if (log.isDebugEnabled()) {
+            log.debug("Device {} launch at {}", deviceId, String.format("%d", offset));
+        }
+        return offset;
     }
 
     @Override
     public EventDTO getDailyLaunch(String deviceId, LocalDate launchDate) {
-        return elasticsearchRestTemplate.get(deviceId + "_" + launchDate,
+        return bitmapMetrics.elasticsearch("get", () -> elasticsearchRestTemplate.get(deviceId + "_" + launchDate,
                 EventDTO.class,
-                IndexCoordinates.of("daily_app_launch_unique"));
+                IndexCoordinates.of("daily_app_launch_unique")));
     }
 
     @Override
-    public void statisticsRetentionAndLifetime(LocalDate activeDate) {
-        // Query daily launch event of the device from ES, and calculate the retention of device.
-        this.queryDailyLaunchEvent(activeDate, eventDTOS -> {
-            // Calculate the retention of device.
-            this.calculateRetentionOfDevice(eventDTOS);
-
-            // Calculate user lifetime of device.
-            this.calculateUserLifetimeOfDevice(eventDTOS);
-        });
+    public long countActiveDevices(LocalDate activeDate) {
+        return this.bitCount(String.format(KEY_OF_ACTIVE_PER_DAY, activeDate.format(DateTimeFormatter.ISO_DATE)));
     }
 
-    // Query daily launch event of the device from ES.
-    private void queryDailyLaunchEvent(LocalDate activeDate, Consumer<List<EventDTO>> consumer) {
-        ZonedDateTime start = activeDate.atStartOfDay(ZoneId.systemDefault());
-        int pageSize = 500;
-        int currentPage = 0;
-
-        while (true) {
-            NativeSearchQueryBuilder queryBuilder = new NativeSearchQueryBuilder();
-            queryBuilder.withQuery(QueryBuilders.boolQuery().filter(
-                    QueryBuilders.rangeQuery("launch_time")
-                            .gte(start)
-                            .lt(start.plusDays(1))
-            ));
-            queryBuilder.withPageable(PageRequest.of(currentPage, pageSize));
-            NativeSearchQuery searchQuery = queryBuilder.build();
-            SearchHits<EventDTO> searchHits = elasticsearchRestTemplate.search(searchQuery,
-                    EventDTO.class,
-                    IndexCoordinates.of("daily_app_launch_unique"));
-            List<EventDTO> results = searchHits.stream()
-                    .map(SearchHit::getContent)
-                    .collect(Collectors.toList());
-
-            // Consume the results.
-            consumer.accept(results);
-
-            if (results.size() < pageSize) {
-                break;
-            }
+    @Override
+    public long countNewDevices(LocalDate launchDate) {
+        return this.bitCount(String.format(KEY_OF_NEW_PER_DAY, launchDate.format(DateTimeFormatter.ISO_DATE)));
+    }
+
+    @Override
+    public long countRetainedDevices(LocalDate cohortDate, LocalDate activeDate) {
+        String keyOfNew = String.format(KEY_OF_NEW_PER_DAY, cohortDate.format(DateTimeFormatter.ISO_DATE));
+        String keyOfActive = String.format(KEY_OF_ACTIVE_PER_DAY, activeDate.format(DateTimeFormatter.ISO_DATE));
 
-            currentPage++;
+        // Intersect the cohort with the active devices and count them.
+        return bitmapMetrics.call(bitmapStore.getName(), "retained_bitop",
+                () -> bitmapStore.bitCountAnd(keyOfNew, keyOfActive));
+    }
+
+    // Set the bit of the device in the population bitmap of the date, return false if it was already set.
+    private boolean recordPopulation(String keyFormat, LocalDate date, String deviceId) {
+        BitmapProperties.Population population = bitmapProperties.getPopulation();
+        if (!population.isEnabled()) {
+            return true;
+        }
+
+        String key = String.format(keyFormat, date.format(DateTimeFormatter.ISO_DATE));
+        long denseId = deviceDictionary.getOrAllocate(deviceId);
+        boolean previous = bitmapMetrics.call(bitmapStore.getName(), "population_setbit",
+                () -> bitmapStore.setBit(key, denseId, true));
+
+        // Set the TTL once per key and node, the key exists after SETBIT.
+        if (!population.getTtl().isZero() && expiringKeys.add(key)) {
+            bitmapMetrics.call(bitmapStore.getName(), "population_expire", () -> {
+                bitmapStore.expire(key, population.getTtl());
+                return null;
+            });
         }
+        return !previous;
     }
 
-    // Calculate the retention of device.
-    private void calculateRetentionOfDevice(List<EventDTO> eventDTOS) {
-        List<UpdateQuery> queries = new ArrayList<>(eventDTOS.size());
-        for (EventDTO eventDTO : eventDTOS) {
-            // Calculate retention of device.
-            String key = String.format(KEY_OF_LAUNCH_PER_DAY, eventDTO.getDeviceId());
+    // Clear the bit of the device in the population bitmap of the date.
+    private void clearPopulation(String keyFormat, LocalDate date, String deviceId) {
+        if (!bitmapProperties.getPopulation().isEnabled()) {
+            return;
+        }
 
-            // Update the session duration to ES.
-            EventDTO entity = new EventDTO();
-            entity.put("retention_day_1",
-                    Boolean.TRUE.equals(stringRedisTemplate.opsForValue().getBit(key, 1)) ? 1 : 0);
-            entity.put("retention_day_2",
-                    Boolean.TRUE.equals(stringRedisTemplate.opsForValue().getBit(key, 2)) ? 1 : 0);
-            entity.put("retention_day_3",
-                    Boolean.TRUE.equals(stringRedisTemplate.opsForValue().getBit(key, 3)) ? 1 : 0);
-            entity.put("retention_day_7",
-                    Boolean.TRUE.equals(stringRedisTemplate.opsForValue().getBit(key, 7)) ? 1 : 0);
-            entity.put("retention_day_15",
-                    Boolean.TRUE.equals(stringRedisTemplate.opsForValue().getBit(key, 15)) ? 1 : 0);
-
-            String documentId = eventDTO.getDeviceId();
-            UpdateQuery updateQuery = UpdateQuery.builder(documentId)
-                    .withDocument(Document.from(entity))
-                    .build();
-            queries.add(updateQuery);
+        String key = String.format(keyFormat, date.format(DateTimeFormatter.ISO_DATE));
+        long denseId = deviceDictionary.getOrAllocate(deviceId);
+        bitmapMetrics.call(bitmapStore.getName(), "population_setbit", () -> bitmapStore.setBit(key, denseId, false));
+
+        // Raise the version after the clear, the converted Roaring bitmaps of the day are stale even if a bit set
+        // meanwhile brings the count back.
+        String keyOfVersion = String.format(RetentionServiceImpl.KEY_OF_VERSION, key);
+        Duration ttl = bitmapProperties.getPopulation().getTtl();
+        bitmapMetrics.redis("population_version_incr", () -> stringRedisTemplate.opsForValue().increment(keyOfVersion));
+        if (!ttl.isZero()) {
+            bitmapMetrics.redis("population_version_expire", () -> stringRedisTemplate.expire(keyOfVersion, ttl));
         }
+    }
 
-        elasticsearchRestTemplate.bulkUpdate(queries, IndexCoordinates.of("first_app_launch"));
+    private long bitCount(String key) {
+        return bitmapMetrics.call(bitmapStore.getName(), "population_bitcount", () -> bitmapStore.bitCount(key));
     }
 
-    // Calculate user lifetime of device.
-    private void calculateUserLifetimeOfDevice(List<EventDTO> eventDTOS) {
-        List<UpdateQuery> queries = new ArrayList<>(eventDTOS.size());
+    @Override
+    public void statisticsRetentionAndLifetime(LocalDate activeDate) {
+        // Query daily launch event of the device from ES, and reconcile the retention and lifetime of device.
+        dailyLaunchScanner.scan(activeDate, eventDTOS -> bitmapMetrics.page(JOB_OF_RETENTION_AND_LIFETIME, eventDTOS,
+                () -> this.reconcileRetentionAndLifetime(eventDTOS)));
+    }
+
+    // Calculate the retention and lifetime of device, and update the documents in ES that differ.
+    private void reconcileRetentionAndLifetime(List<EventDTO> eventDTOS) {
+        List<Integer> days = bitmapProperties.getRetention().getDays();
+        int step = days.size() + 1;
+
+        // Get the retention bits and count the days launched of all the devices in one batch.
+        BitmapStore.Batch batch = bitmapStore.batch();
         for (EventDTO eventDTO : eventDTOS) {
-            // Calculate use lifetime of device.
-            String key = String.format(KEY_OF_LAUNCH_PER_DAY, eventDTO.getDeviceId());
-            Long lifetime = stringRedisTemplate.execute((RedisConnection connection)
-                    -> connection.bitCount(key.getBytes()));
-            log.debug("Device {} lifetime: {}", eventDTO.getDeviceId(), lifetime);
+            String key = String.format(KEY_OF_LAUNCH_PER_DAY, DailyLaunchScanner.deviceIdOf(eventDTO));
+            for (Integer day : days) {
+                batch.getBit(key, day);
+            }
+            batch.bitCount(key);
+        }
+        List<Object> results = bitmapMetrics.call(bitmapStore.getName(), "retention_lifetime", batch::execute);
+
+        // Get the values in ES, mostly up to date with the incremental updates.
+        List<String> documentIds = eventDTOS.stream()
+                .map(DailyLaunchScanner::deviceIdOf)
+                .collect(Collectors.toList());
+        List<MultiGetItem<EventDTO>> indexed = this.getRetentionAndLifetime(documentIds, days);
 
-            // Update the session duration to ES.
+        List<UpdateQuery> queries = new ArrayList<>();
+        for (int i = 0; i < eventDTOS.size(); i++) {
             EventDTO entity = new EventDTO();
-            entity.put("user_lifetime", lifetime);
+            for (int j = 0; j < days.size(); j++) {
+                entity.put("retention_day_" + days.get(j), Boolean.TRUE.equals(results.get(i * step + j)) ? 1 : 0);
+            }
+            entity.put("user_lifetime", results.get(i * step + days.size()));
+            log.debug("Device {} retention and lifetime: {}", documentIds.get(i), entity);
 
-            String documentId = eventDTO.getDeviceId();
-            UpdateQuery updateQuery = UpdateQuery.builder(documentId)
+            // A document not found can not be updated, a document that failed to be read is updated anyway.
+            MultiGetItem<EventDTO> item = indexed.get(i);
+            if (!item.isFailed() && (!item.hasItem() || isUpToDate(item.getItem(), entity))) {
+                continue;
+            }
+            UpdateQuery updateQuery = UpdateQuery.builder(documentIds.get(i))
                     .withDocument(Document.from(entity))
                     .build();
             queries.add(updateQuery);
         }
 
-        elasticsearchRestTemplate.bulkUpdate(queries, IndexCoordinates.of("first_app_launch"));
+        if (!queries.isEmpty()) {
+            bitmapMetrics.elasticsearch("bulk_update",
+                    () -> elasticsearchRestTemplate.bulkUpdate(queries, IndexCoordinates.of("first_app_launch")));
+        }
+        log.debug("Updated retention and lifetime of {} of {} devices.", queries.size(), eventDTOS.size());
+    }
+
+    // Get the retention and lifetime fields of the devices with one multi get.
+    private List<MultiGetItem<EventDTO>> getRetentionAndLifetime(List<String> documentIds, List<Integer> days) {
+        String[] includes = new String[days.size() + 1];
+        for (int j = 0; j < days.size(); j++) {
+            includes[j] = "retention_day_" + days.get(j);
+        }
+        includes[days.size()] = "user_lifetime";
+
+        Query query = new NativeSearchQueryBuilder()
+                .withIds(documentIds)
+                .withSourceFilter(new FetchSourceFilter(includes, null))
+                .build();
+        return bitmapMetrics.elasticsearch("multi_get",
+                () -> elasticsearchRestTemplate.multiGet(query, EventDTO.class, IndexCoordinates.of("first_app_launch")));
+    }
+
+    // Whether the indexed document has the values already.
+    static boolean isUpToDate(Map<String, Object> indexed, Map<String, Object> entity) {
+        for (Map.Entry<String, Object> entry : entity.entrySet()) {
+            Object value = indexed.get(entry.getKey());
+            if (!(value instanceof Number)
+                    || ((Number) value).longValue() != ((Number) entry.getValue()).longValue()) {
+                return false;
+            }
+        }
+        return true;
     }
 }
@@ -1,30 +1,38 @@
 package bitmap.service.impl;
 
+import bitmap.aggregation.HeartbeatAggregator;
+import bitmap.cache.UpdateFingerprintCache;
+import bitmap.codec.SessionSegments;
+import bitmap.config.BitmapProperties;
+import bitmap.dto.DeviceEvent;
 import bitmap.dto.EventDTO;
+import bitmap.dto.SessionDurationDTO;
+import bitmap.metrics.BitmapMetrics;
+import bitmap.scanner.DailyLaunchScanner;
 import bitmap.service.AppLaunchService;
 import bitmap.service.HeartbeatService;
+import bitmap.store.BitmapStore;
 import lombok.extern.slf4j.Slf4j;
-import org.elasticsearch.index.query.QueryBuilders;
-import org.springframework.data.domain.PageRequest;
+import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.elasticsearch.core.ElasticsearchRestTemplate;
-import org.springframework.data.elasticsearch.core.SearchHit;
-import org.springframework.data.elasticsearch.core.SearchHits;
 import org.springframework.data.elasticsearch.core.document.Document;
 import org.springframework.data.elasticsearch.core.mapping.IndexCoordinates;
-import org.springframework.data.elasticsearch.core.query.NativeSearchQuery;
-import org.springframework.data.elasticsearch.core.query.NativeSearchQueryBuilder;
 import org.springframework.data.elasticsearch.core.query.UpdateQuery;
-import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 import java.time.*;
 import java.time.format.DateTimeFormatter;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Optional;
-import java.util.function.Consumer;
+import java.time.temporal.ChronoUnit;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 @Slf4j
@@ -35,117 +43,394 @@ public class HeartbeatServiceImpl implements HeartbeatService {
      * Key of heartbeat record of the device.
      */
     public static final String KEY_OF_HEARTBEAT_PER_MINUTE = "device:%s:heartbeat_per_minute";
+    /**
+     * Key of heartbeat record of the device in a bucket, the date is the first day of the bucket.
+     */
+    public static final String KEY_OF_HEARTBEAT_PER_BUCKET = "device:%s:heartbeat:%s";
+    /**
+     * Key of the heartbeat minutes of the device recorded in buckets only, they are not in the legacy record.
+     */
+    public static final String KEY_OF_SESSION_MINUTES = "device:%s:session_minutes";
+    /**
+     * Key of the number of devices and the session minutes of the active devices of the date.
+     */
+    public static final String KEY_OF_SESSION_DURATION_PER_DAY = "session_duration:%s";
+    /**
+     * Name of the session duration job in the metrics.
+     */
+    public static final String JOB_OF_SESSION_DURATION = "session_duration";
+    private static final RedisScript<Long> RECORD_HEARTBEAT_SCRIPT =
+            RedisScript.of(new ClassPathResource("lua/record_heartbeat.lua"), Long.class);
+    private static final RedisScript<Long> RECORD_HEARTBEAT_BUCKET_SCRIPT =
+            RedisScript.of(new ClassPathResource("lua/record_heartbeat_bucket.lua"), Long.class);
+
     @Resource
     private StringRedisTemplate stringRedisTemplate;
     @Resource
+    private BitmapStore bitmapStore;
+    @Resource
     private AppLaunchService appLaunchService;
     @Resource
     private ElasticsearchRestTemplate elasticsearchRestTemplate;
+    @Resource
+    private DailyLaunchScanner dailyLaunchScanner;
+    @Resource
+    private HeartbeatAggregator heartbeatAggregator;
+    @Resource
+    private BitmapProperties bitmapProperties;
+    @Resource
+    private BitmapMetrics bitmapMetrics;
+    @Resource
+    private UpdateFingerprintCache updateFingerprintCache;
+
+    @PostConstruct
+    public void init() {
+        BitmapProperties.Heartbeat heartbeat = bitmapProperties.getHeartbeat();
+        if (heartbeat.getWriteMode() == BitmapProperties.WriteMode.AGGREGATE
+                && heartbeat.getLayout() != BitmapProperties.Layout.LEGACY) {
+            throw new IllegalStateException("Heartbeat layout " + heartbeat.getLayout()
+                    + " is not supported by the aggregate write mode");
+        }
+        // The aggregator, the script and the buckets write to Redis directly.
+        if (bitmapProperties.getStore().getType() != BitmapProperties.StoreType.REDIS
+                && (heartbeat.getWriteMode() != BitmapProperties.WriteMode.DIRECT
+                || heartbeat.getLayout() != BitmapProperties.Layout.LEGACY)) {
+            throw new IllegalStateException("Bitmap store " + bitmapProperties.getStore().getType()
+                    + " needs the direct write mode and the legacy heartbeat layout");
+        }
+
+        // Load the scripts ahead, so that heartbeats go with EVALSHA from the first one.
+        List<RedisScript<Long>> scripts = new ArrayList<>(2);
+        if (heartbeat.getWriteMode() == BitmapProperties.WriteMode.SCRIPT) {
+            scripts.add(RECORD_HEARTBEAT_SCRIPT);
+        }
+        if (heartbeat.getLayout() != BitmapProperties.Layout.LEGACY) {
+            scripts.add(RECORD_HEARTBEAT_BUCKET_SCRIPT);
+        }
+        for (RedisScript<Long> script : scripts) {
+            try {
+                stringRedisTemplate.execute((RedisCallback<String>) connection
+                        -> connection.scriptLoad(script.getScriptAsString().getBytes()));
+            } catch (RuntimeException e) {
+                log.warn("Failed to load heartbeat script, it will be loaded on the first heartbeat", e);
+            }
+        }
+    }
 
     @Override
-    public void receiveHeartbeat(EventDTO eventDTO) {
-        LocalDateTime eventTime = eventDTO.getEventTime().toLocalDateTime();
-        String deviceId = eventDTO.getDeviceId();
+    public boolean receiveHeartbeat(DeviceEvent event) {
+        LocalDateTime eventTime = event.getEventTime().toLocalDateTime();
+        String deviceId = event.getDeviceId();
+        String keyOfHeartbeat = String.format(KEY_OF_HEARTBEAT_PER_MINUTE, deviceId);
+        BitmapProperties.Layout layout = bitmapProperties.getHeartbeat().getLayout();
+
+        // The dual layout needs the first launch time for the legacy offset, so it always goes the Java way.
+        if (bitmapProperties.getHeartbeat().getWriteMode() == BitmapProperties.WriteMode.SCRIPT
+                && layout != BitmapProperties.Layout.DUAL) {
+            long recorded = layout == BitmapProperties.Layout.LEGACY
+                    ? this.recordHeartbeatByScript(deviceId, keyOfHeartbeat, event.getEventTime())
+                    : this.recordHeartbeatInBucket(deviceId, eventTime, true);
+            if (recorded >= 0) {
+                return recorded == 1;
+            }
+            if (recorded == -1) {
+                return false;
+            }
+            // The first launch time is a legacy value, or the zone changed offset since, fall back to Java.
+        }
 
         // Get first launch time of th device.
         ZonedDateTime firstLaunchTime = appLaunchService.getFirstLaunchTime(deviceId);
+        if (firstLaunchTime == null) {
+            return false;
+        }
+
+        boolean recorded = false;
+        if (layout != BitmapProperties.Layout.BUCKETED) {
+            long offset = calculateOffset(deviceId, firstLaunchTime, eventTime);
+
+            // Set the corresponding bit to 1.
+            if (this.isAggregate()) {
+                heartbeatAggregator.add(keyOfHeartbeat, offset);
+            } else {
+                recorded = !bitmapMetrics.call(bitmapStore.getName(), "heartbeat_setbit",
+                        () -> bitmapStore.setBit(keyOfHeartbeat, offset, true));
+            }
+        }
+        if (layout != BitmapProperties.Layout.LEGACY) {
+            recorded = this.recordHeartbeatInBucket(deviceId, eventTime, false) == 1;
+        }
+        return recorded;
+    }
+
+    // Record the heartbeat with the script, the offset is calculated in Redis the same way as calculateOffset.
+    private long recordHeartbeatByScript(String deviceId, String keyOfHeartbeat, ZonedDateTime eventTime) {
+        // The first launch time carries the offset of its event, values written without it are in the system default
+        // zone, pass the offsets of that zone around the event, so that the script can tell the start of the first
+        // launch day without the zone rules.
+        ZoneRules rules = ZoneId.systemDefault().getRules();
+        Instant instant = eventTime.toInstant();
+        ZoneOffsetTransition last = rules.previousTransition(instant.plusSeconds(1));
+        ZoneOffsetTransition beforeLast = last == null ? null : rules.previousTransition(last.getInstant());
+
+        Long recorded = bitmapMetrics.redis("heartbeat_script", () -> stringRedisTemplate.execute(
+                RECORD_HEARTBEAT_SCRIPT,
+                Arrays.asList(String.format(AppLaunchServiceImpl.KEY_OF_FIRST_LAUNCH_TIME, deviceId), keyOfHeartbeat),
+                String.valueOf(eventTime.toLocalDateTime().toEpochSecond(ZoneOffset.UTC)),
+                String.valueOf(rules.getOffset(instant).getTotalSeconds()),
+                String.valueOf(last == null ? Long.MIN_VALUE : last.getInstant().getEpochSecond()),
+                String.valueOf(last == null ? 0 : last.getOffsetBefore().getTotalSeconds()),
+                String.valueOf(beforeLast == null ? Long.MIN_VALUE : beforeLast.getInstant().getEpochSecond())));
+        return recorded == null ? -1 : recorded;
+    }
+
+    // Record the heartbeat in the bucket of the device, optionally checking the device is known in the script.
+    private long recordHeartbeatInBucket(String deviceId, LocalDateTime eventTime, boolean checkDevice) {
+        List<String> keys = new ArrayList<>(3);
+        keys.add(this.keyOfBucket(deviceId, eventTime.toLocalDate()));
+        keys.add(String.format(KEY_OF_SESSION_MINUTES, deviceId));
+        if (checkDevice) {
+            keys.add(String.format(AppLaunchServiceImpl.KEY_OF_FIRST_LAUNCH_TIME, deviceId));
+        }
+
+        Long recorded = bitmapMetrics.redis("heartbeat_bucket_script",
+                () -> stringRedisTemplate.execute(RECORD_HEARTBEAT_BUCKET_SCRIPT, keys, this.bucketArgs(eventTime)));
+        return recorded == null ? -1 : recorded;
+    }
+
+    // Arguments of the bucket script: offset in the bucket, TTL and whether to count the session minutes.
+    private Object[] bucketArgs(LocalDateTime eventTime) {
+        BitmapProperties.Heartbeat heartbeat = bitmapProperties.getHeartbeat();
+        LocalDate date = eventTime.toLocalDate();
+        long day = ChronoUnit.DAYS.between(heartbeat.getBucket().startOf(date), date);
+        long offset = day * 1440 + eventTime.getHour() * 60 + eventTime.getMinute();
+
+        // Minutes are counted only once the legacy bitmaps are no longer written, they are counted from there.
+        String count = heartbeat.getLayout() == BitmapProperties.Layout.BUCKETED ? "1" : "0";
+        return new Object[]{String.valueOf(offset), String.valueOf(heartbeat.getBucketTtl().getSeconds()), count};
+    }
+
+    // Key of the heartbeat record of the device in the bucket the date falls in.
+    private String keyOfBucket(String deviceId, LocalDate date) {
+        LocalDate start = bitmapProperties.getHeartbeat().getBucket().startOf(date);
+        return String.format(KEY_OF_HEARTBEAT_PER_BUCKET, deviceId, start.format(DateTimeFormatter.BASIC_ISO_DATE));
+    }
+
+    @Override
+    public void receiveHeartbeats(List<DeviceEvent> events) {
+        List<String> deviceIds = events.stream()
+                .map(DeviceEvent::getDeviceId)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+        if (deviceIds.isEmpty()) {
+            return;
+        }
 
-        if (firstLaunchTime != null) {
-            // Calculate the offset.
-            LocalDateTime start = firstLaunchTime.toLocalDateTime()
-                    .withHour(0)
-                    .withMinute(0)
-                    .withSecond(0)
-                    .withNano(0);
-            long offset = Duration.between(start, eventTime).toMinutes();
+        // Get first launch time of all the devices with one MGET.
+        Map<String, ZonedDateTime> firstLaunchTimes = appLaunchService.getFirstLaunchTimes(deviceIds);
 
-            // Present the offset as day:hour:minute.
+        // Calculate the offsets before opening the pipeline.
+        BitmapProperties.Layout layout = bitmapProperties.getHeartbeat().getLayout();
+        List<String> keys = new ArrayList<>(events.size());
+        List<Long> offsets = new ArrayList<>(events.size());
+        List<String> deviceIdsInBucket = new ArrayList<>(events.size());
+        List<LocalDateTime> eventTimesInBucket = new ArrayList<>(events.size());
+        for (DeviceEvent event : events) {
+            String deviceId = event.getDeviceId();
+            ZonedDateTime firstLaunchTime = deviceId == null ? null : firstLaunchTimes.get(deviceId);
+            if (firstLaunchTime == null) {
+                continue;
+            }
+
+            LocalDateTime eventTime = event.getEventTime().toLocalDateTime();
+            if (layout != BitmapProperties.Layout.BUCKETED) {
+                keys.add(String.format(KEY_OF_HEARTBEAT_PER_MINUTE, deviceId));
+                offsets.add(calculateOffset(deviceId, firstLaunchTime, eventTime));
+            }
+            if (layout != BitmapProperties.Layout.LEGACY) {
+                deviceIdsInBucket.add(deviceId);
+                eventTimesInBucket.add(eventTime);
+            }
+        }
+        if (keys.isEmpty() && deviceIdsInBucket.isEmpty()) {
+            return;
+        }
+
+        if (this.isAggregate()) {
+            for (int i = 0; i < keys.size(); i++) {
+                heartbeatAggregator.add(keys.get(i), offsets.get(i));
+            }
+            return;
+        }
+
+        // Set all the bits in a single batch.
+        if (deviceIdsInBucket.isEmpty()) {
+            BitmapStore.Batch batch = bitmapStore.batch();
+            for (int i = 0; i < keys.size(); i++) {
+                batch.setBit(keys.get(i), offsets.get(i), true);
+            }
+            bitmapMetrics.call(bitmapStore.getName(), "heartbeat_pipeline", batch::execute);
+            return;
+        }
+
+        // Buckets are in Redis, the script is sent in full as EVALSHA can not be retried in a pipeline.
+        byte[] script = RECORD_HEARTBEAT_BUCKET_SCRIPT.getScriptAsString().getBytes();
+        bitmapMetrics.redis("heartbeat_pipeline", () -> stringRedisTemplate.executePipelined(
+                (RedisCallback<Object>) connection -> {
+                    for (int i = 0; i < keys.size(); i++) {
+                        connection.setBit(keys.get(i).getBytes(), offsets.get(i), true);
+                    }
+                    for (int i = 0; i < deviceIdsInBucket.size(); i++) {
+                        String deviceId = deviceIdsInBucket.get(i);
+                        LocalDateTime eventTime = eventTimesInBucket.get(i);
+                        Object[] args = this.bucketArgs(eventTime);
+                        connection.eval(script, ReturnType.INTEGER, 2,
+                                this.keyOfBucket(deviceId, eventTime.toLocalDate()).getBytes(),
+                                String.format(KEY_OF_SESSION_MINUTES, deviceId).getBytes(),
+                                args[0].toString().getBytes(),
+                                args[1].toString().getBytes(),
+                                args[2].toString().getBytes());
+                    }
+                    return null;
+                }));
+    }
+
+    // Whether heartbeat bits are coalesced in memory before writing to Redis.
+    private boolean isAggregate() {
+        return bitmapProperties.getHeartbeat().getWriteMode() == BitmapProperties.WriteMode.AGGREGATE;
+    }
+
+    // Calculate the offset in minutes between the start of the first launch day and the event time.
+    static long calculateOffset(String deviceId, ZonedDateTime firstLaunchTime, LocalDateTime eventTime) {
+        LocalDateTime start = firstLaunchTime.toLocalDateTime()
+                .withHour(0)
+                .withMinute(0)
+                .withSecond(0)
+                .withNano(0);
+        long offset = Duration.between(start, eventTime).toMinutes();
+
+        // Present the offset as day:hour:minute.
+        if (log.isDebugEnabled()) {
             String offsetStr = String.format("%d:%d:%d(%d)",
                     offset / 1440,
                     (offset % 1440) / 60,
                     offset % 60,
                     offset);
             log.debug("Device {} heartbeat at {}", deviceId, offsetStr);
-
-            // Set the corresponding bit to 1.
-            String keyOfHeartbeat = String.format(KEY_OF_HEARTBEAT_PER_MINUTE, deviceId);
-            stringRedisTemplate.opsForValue().setBit(keyOfHeartbeat, offset, true);
         }
+        return offset;
     }
 
     @Override
     public void statisticsSessionDuration(LocalDate activeDate) {
+        AtomicLong devices = new AtomicLong();
+        AtomicLong minutes = new AtomicLong();
+
         // Query daily launch event of the device from ES.
-        this.queryDailyLaunchEvent(activeDate, eventDTOS -> {
+        dailyLaunchScanner.scan(activeDate, eventDTOS -> bitmapMetrics.page(JOB_OF_SESSION_DURATION, eventDTOS, () -> {
             // Calculate the session duration of device.
             this.calculateSessionDurationOfDevice(eventDTOS);
 
             // Calculate the session duration of daily active device.
-            this.calculateSessionDurationOfDailyActiveDevice(eventDTOS, activeDate);
-        });
+            minutes.addAndGet(this.calculateSessionDurationOfDailyActiveDevice(eventDTOS, activeDate));
+            devices.addAndGet(eventDTOS.size());
+        }));
+
+        // Keep the totals of the day, a rerun replaces them.
+        byte[] key = String.format(KEY_OF_SESSION_DURATION_PER_DAY, activeDate.format(DateTimeFormatter.ISO_DATE))
+                .getBytes();
+        Map<byte[], byte[]> totals = new LinkedHashMap<>();
+        totals.put("devices".getBytes(), String.valueOf(devices.get()).getBytes());
+        totals.put("minutes".getBytes(), String.valueOf(minutes.get()).getBytes());
+        Duration ttl = bitmapProperties.getPopulation().getTtl();
+        bitmapMetrics.redis("session_duration_set", () -> stringRedisTemplate.executePipelined(
+                (RedisCallback<Object>) connection -> {
+                    connection.hMSet(key, totals);
+                    if (!ttl.isZero()) {
+                        connection.expire(key, ttl.getSeconds());
+                    }
+                    return null;
+                }));
     }
 
-    // Query daily launch event of the device from ES.
-    private void queryDailyLaunchEvent(LocalDate activeDate, Consumer<List<EventDTO>> consumer) {
-        ZonedDateTime start = activeDate.atStartOfDay(ZoneId.systemDefault());
-        int pageSize = 500;
-        int currentPage = 0;
-
-        while (true) {
-            NativeSearchQueryBuilder queryBuilder = new NativeSearchQueryBuilder();
-            queryBuilder.withQuery(QueryBuilders.boolQuery().filter(
-                    QueryBuilders.rangeQuery("launch_time")
-                            .gte(start)
-                            .lt(start.plusDays(1))
-            ));
-            queryBuilder.withPageable(PageRequest.of(currentPage, pageSize));
-            NativeSearchQuery searchQuery = queryBuilder.build();
-            SearchHits<EventDTO> searchHits = elasticsearchRestTemplate.search(searchQuery,
-                    EventDTO.class,
-                    IndexCoordinates.of("daily_app_launch_unique"));
-            List<EventDTO> results = searchHits.stream()
-                    .map(SearchHit::getContent)
-                    .collect(Collectors.toList());
-
-            // Consume the results.
-            consumer.accept(results);
-
-            if (results.size() < pageSize) {
-                break;
-            }
-
-            currentPage++;
+    @Override
+    public SessionDurationDTO getSessionDuration(LocalDate activeDate) {
+        byte[] key = String.format(KEY_OF_SESSION_DURATION_PER_DAY, activeDate.format(DateTimeFormatter.ISO_DATE))
+                .getBytes();
+        List<byte[]> totals = bitmapMetrics.redis("session_duration_get", () -> stringRedisTemplate.execute(
+                (RedisCallback<List<byte[]>>) connection -> connection.hMGet(key, "devices".getBytes(),
+                        "minutes".getBytes())));
+        if (totals == null || totals.get(0) == null || totals.get(1) == null) {
+            return null;
         }
+
+        SessionDurationDTO sessionDurationDTO = new SessionDurationDTO();
+        sessionDurationDTO.setActiveDate(activeDate);
+        sessionDurationDTO.setActiveDevices(Long.parseLong(new String(totals.get(0))));
+        sessionDurationDTO.setSessionMinutes(Long.parseLong(new String(totals.get(1))));
+        sessionDurationDTO.setAverageSessionMinutes(sessionDurationDTO.getActiveDevices() == 0
+                ? 0D
+                : (double) sessionDurationDTO.getSessionMinutes() / sessionDurationDTO.getActiveDevices());
+        return sessionDurationDTO;
     }
 
     // Calculate the session duration of device.
     private void calculateSessionDurationOfDevice(List<EventDTO> eventDTOS) {
-        List<UpdateQuery> queries = new ArrayList<>(eventDTOS.size());
+        // The minutes recorded in buckets only are counted apart from the legacy record.
+        boolean bucketed = bitmapProperties.getHeartbeat().getLayout() == BitmapProperties.Layout.BUCKETED;
+
+        // Calculate the session duration by counting the bits, in one batch.
+        BitmapStore.Batch batch = bitmapStore.batch();
         for (EventDTO eventDTO : eventDTOS) {
-            // Calculate the session duration by counting the bits.
-            String key = String.format(KEY_OF_HEARTBEAT_PER_MINUTE, eventDTO.getDeviceId());
-            Long sessionDuration = stringRedisTemplate.execute((RedisConnection connection)
-                    -> connection.bitCount(key.getBytes()));
-            log.debug("Device {} session duration: {}", eventDTO.getDeviceId(), sessionDuration);
+            String deviceId = DailyLaunchScanner.deviceIdOf(eventDTO);
+            batch.bitCount(String.format(KEY_OF_HEARTBEAT_PER_MINUTE, deviceId));
+            if (bucketed) {
+                batch.getCounter(String.format(KEY_OF_SESSION_MINUTES, deviceId));
+            }
+        }
+        List<Object> results = bitmapMetrics.call(bitmapStore.getName(), "session_duration_bitcount", batch::execute);
 
-            // Update the session duration to ES.
+        int step = bucketed ? 2 : 1;
+        List<UpdateQuery> queries = new ArrayList<>(eventDTOS.size());
+        for (int i = 0; i < eventDTOS.size(); i++) {
+            EventDTO eventDTO = eventDTOS.get(i);
+            long sessionDuration = (Long) results.get(i * step);
+            if (bucketed && results.get(i * step + 1) != null) {
+                sessionDuration += (Long) results.get(i * step + 1);
+            }
+            log.debug("Device {} session duration: {}", DailyLaunchScanner.deviceIdOf(eventDTO), sessionDuration);
+
+            // Update the session duration to ES, unless this node already did.
             EventDTO entity = new EventDTO();
             entity.put("session_duration", sessionDuration);
 
-            String documentId = eventDTO.getDeviceId();
+            String documentId = DailyLaunchScanner.deviceIdOf(eventDTO);
+            if (updateFingerprintCache.isUnchanged("first_app_launch", documentId, entity)) {
+                continue;
+            }
             UpdateQuery updateQuery = UpdateQuery.builder(documentId)
                     .withDocument(Document.from(entity))
                     .build();
             queries.add(updateQuery);
         }
+        if (queries.isEmpty()) {
+            return;
+        }
 
-        elasticsearchRestTemplate.bulkUpdate(queries, IndexCoordinates.of("first_app_launch"));
+        bitmapMetrics.elasticsearch("bulk_update",
+                () -> elasticsearchRestTemplate.bulkUpdate(queries, IndexCoordinates.of("first_app_launch")));
+        for (UpdateQuery query : queries) {
+            updateFingerprintCache.put("first_app_launch", query.getId(), query.getDocument());
+        }
     }
 
-    // Calculate the session duration of daily active device.
-    private void calculateSessionDurationOfDailyActiveDevice(List<EventDTO> eventDTOS, LocalDate activeDate) {
-        List<UpdateQuery> queries = new ArrayList<>(eventDTOS.size());
-        for (EventDTO eventDTO : eventDTOS) {
+    // Calculate the session duration of daily active device, return the session minutes of all the devices.
+    private long calculateSessionDurationOfDailyActiveDevice(List<EventDTO> eventDTOS, LocalDate activeDate) {
+        // Calculate the byte range of the day of each device.
+        long[] starts = new long[eventDTOS.size()];
+        for (int i = 0; i < eventDTOS.size(); i++) {
+            EventDTO eventDTO = eventDTOS.get(i);
+
             // Calculate offset between first launch time and launch time.
             LocalDateTime firstLaunchTimeStr = Optional.ofNullable(eventDTO.get("first_launch_time"))
                     .map(Object::toString)
@@ -157,27 +442,86 @@ public class HeartbeatServiceImpl implements HeartbeatService {
                     .map(s -> LocalDateTime.parse(s, DateTimeFormatter.ISO_OFFSET_DATE_TIME))
                     .orElseThrow(() -> new IllegalArgumentException("Launch time must not be null."));
 
-            long days = Duration.between(firstLaunchTimeStr, launchTimeStr).toDays();
-            long start = days * 180;
-            long end = days * 180 + 179;
+            // Offsets start from the first launch day, so the day index is the number of dates in between.
+            long days = ChronoUnit.DAYS.between(firstLaunchTimeStr.toLocalDate(), launchTimeStr.toLocalDate());
+            starts[i] = days * 180;
+        }
 
-            // Calculate the session duration by counting the bits.
-            String key = String.format(KEY_OF_HEARTBEAT_PER_MINUTE, eventDTO.getDeviceId());
-            Long sessionDuration = stringRedisTemplate.execute((RedisConnection connection)
-                    -> connection.bitCount(key.getBytes(), start, end));
-            log.debug("Device {} session duration: {}", eventDTO.getDeviceId(), sessionDuration);
+        // The active day within its bucket, for the bucketed layouts.
+        BitmapProperties.Layout layout = bitmapProperties.getHeartbeat().getLayout();
+        long startInBucket = ChronoUnit.DAYS.between(
+                bitmapProperties.getHeartbeat().getBucket().startOf(activeDate), activeDate) * 180;
 
-            // Update the session duration to ES.
+        // Read the bytes of the day, in one batch, the sessions are found in memory.
+        BitmapStore.Batch batch = bitmapStore.batch();
+        for (int i = 0; i < eventDTOS.size(); i++) {
+            String deviceId = DailyLaunchScanner.deviceIdOf(eventDTOS.get(i));
+            batch.getRange(String.format(KEY_OF_HEARTBEAT_PER_MINUTE, deviceId), starts[i], starts[i] + 179);
+            if (layout != BitmapProperties.Layout.LEGACY) {
+                batch.getRange(this.keyOfBucket(deviceId, activeDate), startInBucket, startInBucket + 179);
+            }
+        }
+        List<Object> results = bitmapMetrics.call(bitmapStore.getName(), "daily_session_duration_getrange",
+                batch::execute);
+
+        int step = layout == BitmapProperties.Layout.LEGACY ? 1 : 2;
+        long sessionMinutes = 0;
+        List<UpdateQuery> queries = new ArrayList<>(eventDTOS.size());
+        for (int i = 0; i < eventDTOS.size(); i++) {
+            EventDTO eventDTO = eventDTOS.get(i);
+            SessionSegments sessions = SessionSegments.of((byte[]) results.get(i * step));
+            if (step == 2) {
+                // Read the bucket first, days before the migration are only in the legacy record.
+                SessionSegments sessionsInBucket = SessionSegments.of((byte[]) results.get(i * step + 1));
+                if (sessionsInBucket.getActiveMinutes() > 0) {
+                    sessions = sessionsInBucket;
+                }
+            }
+            long sessionDuration = sessions.getActiveMinutes();
+            log.debug("Device {} session duration: {}, sessions: {}", DailyLaunchScanner.deviceIdOf(eventDTO),
+                    sessionDuration, sessions.getSessionCount());
+            sessionMinutes += sessionDuration;
+
+            // The scanned event is the document to update, skip it if it has the values already.
             EventDTO entity = new EventDTO();
             entity.put("session_duration", sessionDuration);
+            entity.put("session_count", sessions.getSessionCount());
+            entity.put("longest_session", sessions.getLongestSession());
+            entity.put("median_session", sessions.getMedianSession());
+            entity.put("first_active_minute", sessions.getFirstActiveMinute() < 0
+                    ? null : sessions.getFirstActiveMinute());
+            entity.put("last_active_minute", sessions.getLastActiveMinute() < 0
+                    ? null : sessions.getLastActiveMinute());
+            if (isIndexed(eventDTO, entity)) {
+                continue;
+            }
 
-            String documentId = eventDTO.getDeviceId() + "_" + activeDate.format(DateTimeFormatter.ISO_DATE);
+            // Update the session duration and the sessions to ES.
+            String documentId = DailyLaunchScanner.deviceIdOf(eventDTO) + "_"
+                    + activeDate.format(DateTimeFormatter.ISO_DATE);
             UpdateQuery updateQuery = UpdateQuery.builder(documentId)
                     .withDocument(Document.from(entity))
                     .build();
             queries.add(updateQuery);
         }
 
-        elasticsearchRestTemplate.bulkUpdate(queries, IndexCoordinates.of("daily_app_launch_unique"));
+        if (!queries.isEmpty()) {
+            bitmapMetrics.elasticsearch("bulk_update", () -> elasticsearchRestTemplate.bulkUpdate(queries,
+                    IndexCoordinates.of("daily_app_launch_unique")));
+        }
+        return sessionMinutes;
+    }
+
+    // Whether the scanned event has the values of the fields, numbers are compared by value.
+    private static boolean isIndexed(EventDTO eventDTO, Map<String, Object> fields) {
+        for (Map.Entry<String, Object> field : fields.entrySet()) {
+            Object indexed = eventDTO.get(field.getKey());
+            Object value = field.getValue();
+            if (value == null ? indexed != null
+                    : !(indexed instanceof Number && ((Number) indexed).longValue() == ((Number) value).longValue())) {
+                return false;
+            }
+        }
+        return true;
     }
 }
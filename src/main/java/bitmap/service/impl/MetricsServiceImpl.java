@@ -0,0 +1,90 @@
+package bitmap.service.impl;
+
+import bitmap.config.BitmapProperties;
+import bitmap.dto.DailyActiveDTO;
+import bitmap.dto.RetentionDTO;
+import bitmap.dto.SessionDurationDTO;
+import bitmap.service.AppLaunchService;
+import bitmap.service.HeartbeatService;
+import bitmap.service.MetricsService;
+import bitmap.service.RetentionService;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * Metrics answered with bitmap operations in Redis: BITCOUNT of the population bitmaps for the active and new
+ * devices, Roaring intersections for the retention, and the totals of the session duration statistics.
+ * <p>
+ * Results are cached for a short TTL, so that dashboards refreshing together hit Redis once.
+ */
+@Service
+public class MetricsServiceImpl implements MetricsService {
+
+    @Resource
+    private AppLaunchService appLaunchService;
+    @Resource
+    private HeartbeatService heartbeatService;
+    @Resource
+    private RetentionService retentionService;
+    @Resource
+    private BitmapProperties bitmapProperties;
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    // Metric and parameters -> result, absent results are cached as empty.
+    private Cache<List<Object>, Optional<Object>> cache;
+
+    @PostConstruct
+    public void init() {
+        BitmapProperties.Query query = bitmapProperties.getQuery();
+        cache = Caffeine.newBuilder()
+                .maximumSize(query.getCacheMaximumSize())
+                .expireAfterWrite(query.getCacheTtl())
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "metrics_query");
+    }
+
+    @Override
+    public DailyActiveDTO getDailyActive(LocalDate activeDate) {
+        return this.cached(Arrays.asList("dau", activeDate), () -> {
+            DailyActiveDTO dailyActiveDTO = new DailyActiveDTO();
+            dailyActiveDTO.setActiveDate(activeDate);
+            dailyActiveDTO.setActiveDevices(appLaunchService.countActiveDevices(activeDate));
+            dailyActiveDTO.setNewDevices(appLaunchService.countNewDevices(activeDate));
+            return dailyActiveDTO;
+        });
+    }
+
+    @Override
+    public RetentionDTO getRetention(LocalDate cohortDate, List<Integer> days) {
+        List<Integer> retentionDays = days == null || days.isEmpty() ? bitmapProperties.getRetention().getDays() : days;
+        return this.cached(Arrays.asList("retention", cohortDate, retentionDays),
+                () -> retentionService.calculateRetention(cohortDate, retentionDays));
+    }
+
+    @Override
+    public SessionDurationDTO getSessionDuration(LocalDate activeDate) {
+        return this.cached(Arrays.asList("session_duration", activeDate),
+                () -> heartbeatService.getSessionDuration(activeDate));
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T cached(List<Object> key, Supplier<T> loader) {
+        if (bitmapProperties.getQuery().getCacheTtl().isZero()) {
+            return loader.get();
+        }
+        return (T) cache.get(key, k -> Optional.ofNullable(loader.get())).orElse(null);
+    }
+}
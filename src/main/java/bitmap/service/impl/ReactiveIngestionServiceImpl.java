@@ -0,0 +1,237 @@
+package bitmap.service.impl;
+
+import bitmap.cache.FirstLaunchTimeCache;
+import bitmap.codec.FirstLaunchTimeCodec;
+import bitmap.config.BitmapProperties;
+import bitmap.dictionary.DeviceDictionary;
+import bitmap.dto.DeviceEvent;
+import bitmap.indexer.BulkIndexer;
+import bitmap.metrics.BitmapMetrics;
+import bitmap.service.ReactiveIngestionService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.ReactiveRedisCallback;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Ingestion on the reactive Redis template and the async ES client, no thread waits for a response.
+ * <p>
+ * Writes the same keys and documents as {@link AppLaunchServiceImpl} and {@link HeartbeatServiceImpl}. Commands
+ * issued together go out on the shared connection without waiting for each other, like a pipeline. Only the
+ * default heartbeat settings are supported: the Redis store, the direct write mode and the legacy layout.
+ */
+@Slf4j
+@Service
+@ConditionalOnProperty(prefix = "bitmap.reactive", name = "enabled", havingValue = "true")
+public class ReactiveIngestionServiceImpl implements ReactiveIngestionService {
+
+    // Population bitmaps whose TTL has been set by this node.
+    private final Set<String> expiringKeys = ConcurrentHashMap.newKeySet();
+    @Resource
+    private ReactiveStringRedisTemplate reactiveStringRedisTemplate;
+    @Resource
+    private FirstLaunchTimeCache firstLaunchTimeCache;
+    @Resource
+    private DeviceDictionary deviceDictionary;
+    @Resource
+    private BulkIndexer bulkIndexer;
+    @Resource
+    private BitmapProperties bitmapProperties;
+    @Resource
+    private BitmapMetrics bitmapMetrics;
+
+    @PostConstruct
+    public void init() {
+        BitmapProperties.Heartbeat heartbeat = bitmapProperties.getHeartbeat();
+        if (bitmapProperties.getStore().getType() != BitmapProperties.StoreType.REDIS
+                || heartbeat.getWriteMode() != BitmapProperties.WriteMode.DIRECT
+                || heartbeat.getLayout() != BitmapProperties.Layout.LEGACY) {
+            throw new IllegalStateException("Reactive ingestion needs the Redis bitmap store, the direct write mode"
+                    + " and the legacy heartbeat layout");
+        }
+    }
+
+    @Override
+    public Mono<Void> receiveAppLaunch(DeviceEvent event) {
+        // Record the first launch time, the first launch and the daily launch, in this order.
+        return this.recordFirstLaunchTime(event)
+                .then(Mono.defer(() -> bulkIndexer.createAsync("first_app_launch", event.getDeviceId(),
+                        AppLaunchServiceImpl.firstLaunchDocument(event, bitmapProperties))))
+                .then(Mono.defer(() -> this.recordDailyLaunch(event)));
+    }
+
+    // Set the first launch time only if the key does not exist, and record the new device.
+    private Mono<Void> recordFirstLaunchTime(DeviceEvent event) {
+        String deviceId = event.getDeviceId();
+        ZonedDateTime eventTime = event.getEventTime();
+        ByteBuffer key = this.bytes(String.format(AppLaunchServiceImpl.KEY_OF_FIRST_LAUNCH_TIME, deviceId));
+        ByteBuffer value = ByteBuffer.wrap(FirstLaunchTimeCodec.encode(eventTime));
+
+        return bitmapMetrics.mono(BitmapMetrics.REDIS, "first_launch_time_set", reactiveStringRedisTemplate
+                        .execute((ReactiveRedisCallback<Boolean>) connection -> connection.stringCommands()
+                                .set(key, value, Expiration.persistent(), RedisStringCommands.SetOption.SET_IF_ABSENT))
+                        .next())
+                .flatMap(created -> {
+                    if (!created) {
+                        return Mono.empty();
+                    }
+                    firstLaunchTimeCache.put(deviceId, eventTime);
+                    return this.recordPopulation(AppLaunchServiceImpl.KEY_OF_NEW_PER_DAY, eventTime.toLocalDate(),
+                            deviceId);
+                })
+                .then();
+    }
+
+    private Mono<Void> recordDailyLaunch(DeviceEvent event) {
+        String deviceId = event.getDeviceId();
+        ZonedDateTime eventTime = event.getEventTime();
+        // Clear the active bit when indexing fails, here or in the bulk indexer, so that the next launch of the day
+        // indexes again.
+        Mono<Void> clearActive = Mono.defer(() -> this.clearPopulation(AppLaunchServiceImpl.KEY_OF_ACTIVE_PER_DAY,
+                eventTime.toLocalDate(), deviceId));
+
+        return firstLaunchTimeCache.getAsync(deviceId, this::loadFirstLaunchTime)
+                .switchIfEmpty(Mono.error(() -> new NullPointerException("First launch time must not be null")))
+                .map(ZonedDateTime::toLocalDateTime)
+                .flatMap(firstLaunchTime -> this.recordPopulation(AppLaunchServiceImpl.KEY_OF_ACTIVE_PER_DAY,
+                                eventTime.toLocalDate(), deviceId)
+                        // If already active today, done.
+                        .filter(Boolean::booleanValue)
+                        .flatMap(active -> bulkIndexer.createAsync("daily_app_launch_unique",
+                                        AppLaunchServiceImpl.dailyLaunchDocumentId(event),
+                                        AppLaunchServiceImpl.dailyLaunchDocument(event, firstLaunchTime),
+                                        () -> clearActive.subscribe(null, e -> log.error(
+                                                "Clear active bit of device {} error.", deviceId, e)))
+                                .onErrorResume(e -> clearActive.then(Mono.error(e)))
+                                .then(Mono.defer(() -> this.recordLaunchPerDay(deviceId, firstLaunchTime,
+                                        eventTime.toLocalDateTime())))))
+                .then();
+    }
+
+    // Set the bit of the day, and update the retention and lifetime when the day is new.
+    private Mono<Void> recordLaunchPerDay(String deviceId, LocalDateTime firstLaunchTime, LocalDateTime eventTime) {
+        String key = String.format(AppLaunchServiceImpl.KEY_OF_LAUNCH_PER_DAY, deviceId);
+        long offset = AppLaunchServiceImpl.calculateDayOffset(deviceId, firstLaunchTime, eventTime);
+        Mono<Boolean> setBit = bitmapMetrics.mono(BitmapMetrics.REDIS, "launch_per_day_setbit",
+                reactiveStringRedisTemplate.opsForValue().setBit(key, offset, true));
+        if (!bitmapProperties.getRetention().isIncremental()) {
+            return setBit.then();
+        }
+
+        // Count the days only when the day is new, the lifetime is the number of days launched.
+        Mono<Long> bitCount = bitmapMetrics.mono(BitmapMetrics.REDIS, "launch_per_day_bitcount",
+                reactiveStringRedisTemplate.execute((ReactiveRedisCallback<Long>) connection
+                        -> connection.stringCommands().bitCount(this.bytes(key))).next());
+        return setBit.filter(previous -> !previous)
+                .flatMap(previous -> bitCount)
+                .flatMap(lifetime -> bulkIndexer.updateAsync("first_app_launch", deviceId,
+                                AppLaunchServiceImpl.retentionAndLifetimeFields(offset, lifetime, bitmapProperties))
+                        // The values are absolute, a lost update is corrected by the nightly reconciliation.
+                        .onErrorResume(e -> {
+                            log.warn("Update retention and lifetime of device {} error, left to the reconciliation.",
+                                    deviceId, e);
+                            return Mono.empty();
+                        }));
+    }
+
+    @Override
+    public Mono<Boolean> receiveHeartbeat(DeviceEvent event) {
+        String deviceId = event.getDeviceId();
+        LocalDateTime eventTime = event.getEventTime().toLocalDateTime();
+        String keyOfHeartbeat = String.format(HeartbeatServiceImpl.KEY_OF_HEARTBEAT_PER_MINUTE, deviceId);
+
+        return firstLaunchTimeCache.getAsync(deviceId, this::loadFirstLaunchTime)
+                .flatMap(firstLaunchTime -> {
+                    long offset = HeartbeatServiceImpl.calculateOffset(deviceId, firstLaunchTime, eventTime);
+                    return bitmapMetrics.mono(BitmapMetrics.REDIS, "heartbeat_setbit",
+                            reactiveStringRedisTemplate.opsForValue().setBit(keyOfHeartbeat, offset, true));
+                })
+                .map(previous -> !previous)
+                .defaultIfEmpty(false);
+    }
+
+    @Override
+    public Mono<Void> receiveHeartbeats(List<DeviceEvent> events) {
+        // All the heartbeats are in flight together, so the commands are pipelined on the connection.
+        return Flux.fromIterable(events)
+                .filter(event -> Objects.nonNull(event.getDeviceId()))
+                .flatMap(this::receiveHeartbeat)
+                .then();
+    }
+
+    // Load the first launch time of the device from Redis, empty if the device is unknown.
+    private Mono<ZonedDateTime> loadFirstLaunchTime(String deviceId) {
+        ByteBuffer key = this.bytes(String.format(AppLaunchServiceImpl.KEY_OF_FIRST_LAUNCH_TIME, deviceId));
+        return bitmapMetrics.mono(BitmapMetrics.REDIS, "first_launch_time_get", reactiveStringRedisTemplate
+                        .execute((ReactiveRedisCallback<ByteBuffer>) connection -> connection.stringCommands().get(key))
+                        .next())
+                .flatMap(value -> {
+                    byte[] bytes = new byte[value.remaining()];
+                    value.get(bytes);
+                    return Mono.justOrEmpty(FirstLaunchTimeCodec.decode(bytes));
+                });
+    }
+
+    // Set the bit of the device in the population bitmap of the date, true if it was not set.
+    private Mono<Boolean> recordPopulation(String keyFormat, LocalDate date, String deviceId) {
+        BitmapProperties.Population population = bitmapProperties.getPopulation();
+        if (!population.isEnabled()) {
+            return Mono.just(true);
+        }
+
+        String key = String.format(keyFormat, date.format(DateTimeFormatter.ISO_DATE));
+        return deviceDictionary.getOrAllocateAsync(deviceId)
+                .flatMap(denseId -> bitmapMetrics.mono(BitmapMetrics.REDIS, "population_setbit",
+                        reactiveStringRedisTemplate.opsForValue().setBit(key, denseId, true)))
+                .flatMap(previous -> {
+                    // Set the TTL once per key and node, the key exists after SETBIT.
+                    if (population.getTtl().isZero() || !expiringKeys.add(key)) {
+                        return Mono.just(!previous);
+                    }
+                    return bitmapMetrics.mono(BitmapMetrics.REDIS, "population_expire",
+                                    reactiveStringRedisTemplate.expire(key, population.getTtl()))
+                            .thenReturn(!previous);
+                });
+    }
+
+    // Clear the bit of the device in the population bitmap of the date.
+    private Mono<Void> clearPopulation(String keyFormat, LocalDate date, String deviceId) {
+        if (!bitmapProperties.getPopulation().isEnabled()) {
+            return Mono.empty();
+        }
+
+        String key = String.format(keyFormat, date.format(DateTimeFormatter.ISO_DATE));
+        String keyOfVersion = String.format(RetentionServiceImpl.KEY_OF_VERSION, key);
+        Duration ttl = bitmapProperties.getPopulation().getTtl();
+        return deviceDictionary.getOrAllocateAsync(deviceId)
+                .flatMap(denseId -> bitmapMetrics.mono(BitmapMetrics.REDIS, "population_setbit",
+                        reactiveStringRedisTemplate.opsForValue().setBit(key, denseId, false)))
+                // Raise the version after the clear, the converted Roaring bitmaps of the day are stale.
+                .then(bitmapMetrics.mono(BitmapMetrics.REDIS, "population_version_incr",
+                        reactiveStringRedisTemplate.opsForValue().increment(keyOfVersion)))
+                .then(ttl.isZero() ? Mono.empty() : bitmapMetrics.mono(BitmapMetrics.REDIS, "population_version_expire",
+                        reactiveStringRedisTemplate.expire(keyOfVersion, ttl)).then());
+    }
+
+    private ByteBuffer bytes(String value) {
+        return ByteBuffer.wrap(value.getBytes());
+    }
+}
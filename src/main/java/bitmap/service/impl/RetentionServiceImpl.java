@@ -0,0 +1,183 @@
+package bitmap.service.impl;
+
+import bitmap.codec.RedisBitmaps;
+import bitmap.config.BitmapProperties;
+import bitmap.dto.RetentionDTO;
+import bitmap.metrics.BitmapMetrics;
+import bitmap.service.RetentionService;
+import bitmap.store.BitmapStore;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+/**
+ * Cohort retention calculated by intersecting the per-day population bitmaps as Roaring bitmaps.
+ * <p>
+ * Bitmaps of settled days, before the recent days, seldom change. They are converted once, kept in memory and
+ * optionally persisted to Redis in the Roaring format, so that other nodes skip the conversion. Late writes convert
+ * them again: a bit set late raises the BITCOUNT above the cardinality of the converted bitmap, a bit cleared, e.g.
+ * when the daily launch fails to be indexed, raises the version of the population bitmap, which the converted bitmap
+ * is of. A set and a clear that leave the count unchanged are told apart by the version.
+ */
+@Slf4j
+@Service
+public class RetentionServiceImpl implements RetentionService {
+
+    /**
+     * Key of the Roaring bitmap converted from the population bitmap, by key and version of the population bitmap.
+     */
+    public static final String KEY_OF_ROARING = "roaring:%s:%d";
+    /**
+     * Key of the version of the population bitmap, the number of times a bit of it was cleared.
+     */
+    public static final String KEY_OF_VERSION = "roaring_version:%s";
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private BitmapStore bitmapStore;
+    @Resource
+    private BitmapProperties bitmapProperties;
+    @Resource
+    private MeterRegistry meterRegistry;
+    @Resource
+    private BitmapMetrics bitmapMetrics;
+
+    // Key of the population bitmap -> Roaring bitmap of the settled day.
+    private Cache<String, Converted> cache;
+
+    @PostConstruct
+    public void init() {
+        cache = Caffeine.newBuilder()
+                .maximumWeight(bitmapProperties.getRetention().getCacheMaximumBytes())
+                .weigher((String key, Converted converted) -> converted.bitmap.getSizeInBytes())
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "roaring_bitmap");
+    }
+
+    @Override
+    public RetentionDTO calculateRetention(LocalDate cohortDate) {
+        return this.calculateRetention(cohortDate, bitmapProperties.getRetention().getDays());
+    }
+
+    @Override
+    public RetentionDTO calculateRetention(LocalDate cohortDate, List<Integer> days) {
+        long start = System.currentTimeMillis();
+        RoaringBitmap cohort = this.load(AppLaunchServiceImpl.KEY_OF_NEW_PER_DAY, cohortDate);
+
+        RetentionDTO retentionDTO = new RetentionDTO();
+        retentionDTO.setCohortDate(cohortDate);
+        retentionDTO.setCohortSize(cohort.getLongCardinality());
+
+        LocalDate today = LocalDate.now();
+        for (Integer day : days) {
+            LocalDate activeDate = cohortDate.plusDays(day);
+            if (activeDate.isAfter(today)) {
+                continue;
+            }
+
+            // Intersect the cohort with the devices active on the day.
+            RoaringBitmap active = this.load(AppLaunchServiceImpl.KEY_OF_ACTIVE_PER_DAY, activeDate);
+            long retained = RoaringBitmap.andCardinality(cohort, active);
+            retentionDTO.getRetainedDevices().put(day, retained);
+            retentionDTO.getRetentionRates().put(day, retentionDTO.getCohortSize() == 0
+                    ? 0D
+                    : (double) retained / retentionDTO.getCohortSize());
+        }
+
+        log.debug("Retention of cohort {} calculated, cost: {}ms.", cohortDate, System.currentTimeMillis() - start);
+        return retentionDTO;
+    }
+
+    // Load the population bitmap of the date as a Roaring bitmap.
+    private RoaringBitmap load(String keyFormat, LocalDate date) {
+        String key = String.format(keyFormat, date.format(DateTimeFormatter.ISO_DATE));
+        if (!date.isBefore(LocalDate.now().minusDays(bitmapProperties.getRetention().getRecentDays() - 1))) {
+            // Still changing, always read the latest.
+            return RedisBitmaps.toRoaring(this.get(key));
+        }
+
+        // Trust the converted bitmap only if no bit was cleared since, by version, and none was set, by count. The
+        // version is read first, a bit cleared meanwhile is seen by the next load.
+        long version = this.getVersion(key);
+        long cardinality = this.bitCount(key);
+        Converted cached = cache.getIfPresent(key);
+        if (cached != null && cached.version == version && cached.bitmap.getLongCardinality() == cardinality) {
+            return cached.bitmap;
+        }
+        RoaringBitmap bitmap = this.loadSettled(key, version, cardinality);
+        cache.put(key, new Converted(version, bitmap));
+        return bitmap;
+    }
+
+    // Load the population bitmap of a settled day, through the persisted Roaring bitmap if it is up to date.
+    private RoaringBitmap loadSettled(String key, long version, long cardinality) {
+        // Bitmaps of a local store are of this node only, there is nothing to share.
+        boolean persist = bitmapProperties.getRetention().isPersist()
+                && bitmapProperties.getStore().getType() != BitmapProperties.StoreType.LOCAL;
+        String keyOfRoaring = String.format(KEY_OF_ROARING, key, version);
+        if (persist) {
+            byte[] serialized = bitmapMetrics.redis("population_roaring_get", () -> stringRedisTemplate.execute(
+                    (RedisConnection connection) -> connection.get(keyOfRoaring.getBytes())));
+            if (serialized != null) {
+                RoaringBitmap bitmap = RedisBitmaps.deserialize(serialized);
+                if (bitmap.getLongCardinality() == cardinality) {
+                    return bitmap;
+                }
+                log.info("Population bitmap {} changed since converted, converting again.", key);
+            }
+        }
+
+        RoaringBitmap bitmap = RedisBitmaps.toRoaring(this.get(key));
+        if (persist) {
+            Duration ttl = bitmapProperties.getPopulation().getTtl();
+            byte[] serialized = RedisBitmaps.serialize(bitmap);
+            bitmapMetrics.redis("population_roaring_set", () -> stringRedisTemplate.execute(
+                    (RedisConnection connection) -> connection.set(keyOfRoaring.getBytes(),
+                            serialized,
+                            ttl.isZero() ? Expiration.persistent() : Expiration.from(ttl),
+                            RedisStringCommands.SetOption.UPSERT)));
+        }
+        return bitmap;
+    }
+
+    private byte[] get(String key) {
+        return bitmapMetrics.call(bitmapStore.getName(), "population_get", () -> bitmapStore.get(key));
+    }
+
+    private long bitCount(String key) {
+        return bitmapMetrics.call(bitmapStore.getName(), "population_bitcount", () -> bitmapStore.bitCount(key));
+    }
+
+    private long getVersion(String key) {
+        String version = bitmapMetrics.redis("population_version_get",
+                () -> stringRedisTemplate.opsForValue().get(String.format(KEY_OF_VERSION, key)));
+        return version == null ? 0 : Long.parseLong(version);
+    }
+
+    private static class Converted {
+
+        private final long version;
+        private final RoaringBitmap bitmap;
+
+        private Converted(long version, RoaringBitmap bitmap) {
+            this.version = version;
+            this.bitmap = bitmap;
+        }
+    }
+}
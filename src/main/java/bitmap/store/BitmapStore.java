@@ -0,0 +1,114 @@
+package bitmap.store;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Store of the bitmaps of the devices and of the populations.
+ * <p>
+ * Bitmaps are in the Redis format: a string of bytes, the most significant bit of a byte first, grown with zeros
+ * when a bit beyond the end is set. Byte ranges are inclusive on both ends, like BITCOUNT.
+ */
+public interface BitmapStore {
+
+    /**
+     * Name of the store, in the metrics.
+     *
+     * @return name
+     */
+    String getName();
+
+    /**
+     * Set the bit.
+     *
+     * @param key    key of the bitmap
+     * @param offset offset of the bit
+     * @param value  value of the bit
+     * @return previous value of the bit
+     */
+    boolean setBit(String key, long offset, boolean value);
+
+    /**
+     * Count the bits set.
+     *
+     * @param key key of the bitmap
+     * @return number of bits set, 0 if the bitmap does not exist
+     */
+    long bitCount(String key);
+
+    /**
+     * Count the bits set in both bitmaps.
+     *
+     * @param key1 key of the first bitmap
+     * @param key2 key of the second bitmap
+     * @return number of bits set in both
+     */
+    long bitCountAnd(String key1, String key2);
+
+    /**
+     * Get the bitmap.
+     *
+     * @param key key of the bitmap
+     * @return bytes of the bitmap, null if it does not exist
+     */
+    byte[] get(String key);
+
+    /**
+     * Expire the bitmap after the TTL.
+     *
+     * @param key key of the bitmap
+     * @param ttl time to live
+     */
+    void expire(String key, Duration ttl);
+
+    /**
+     * Start a batch, the commands are sent in one round trip when the store is remote.
+     *
+     * @return batch
+     */
+    Batch batch();
+
+    /**
+     * Commands run together, results are returned in the order of the commands.
+     */
+    interface Batch {
+
+        /**
+         * Set the bit, the result is the previous value as a {@link Boolean}.
+         */
+        Batch setBit(String key, long offset, boolean value);
+
+        /**
+         * Get the bit, the result is a {@link Boolean}.
+         */
+        Batch getBit(String key, long offset);
+
+        /**
+         * Count the bits set, the result is a {@link Long}.
+         */
+        Batch bitCount(String key);
+
+        /**
+         * Count the bits set in the byte range, the result is a {@link Long}.
+         */
+        Batch bitCount(String key, long start, long end);
+
+        /**
+         * Get the bytes of the range, the result is a {@code byte[]}, shorter than the range when the bitmap ends
+         * before and empty when it does not exist. Bounds must not be negative.
+         */
+        Batch getRange(String key, long start, long end);
+
+        /**
+         * Get the counter, the result is a {@link Long} or null if the counter does not exist.
+         */
+        Batch getCounter(String key);
+
+        /**
+         * Run the commands.
+         *
+         * @return results of the commands
+         */
+        List<Object> execute();
+    }
+}
@@ -0,0 +1,63 @@
+package bitmap.store;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Consistent hash ring of nodes.
+ * <p>
+ * Every node is placed on the ring at a number of virtual points hashed from its name, a key goes to the node of the
+ * first point at or after the hash of the key. Adding a node moves only the keys falling before its points, about
+ * 1 / N of them, and the keys keep their node when the node list is reordered.
+ */
+public class ConsistentHash {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    // Point on the ring -> index of the node.
+    private final TreeMap<Long, Integer> ring = new TreeMap<>();
+
+    /**
+     * @param nodes         names of the nodes, unique
+     * @param virtualNodes  number of points of a node on the ring
+     */
+    public ConsistentHash(List<String> nodes, int virtualNodes) {
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("Consistent hash needs at least one node");
+        }
+        for (int i = 0; i < nodes.size(); i++) {
+            for (int v = 0; v < virtualNodes; v++) {
+                ring.put(hash(nodes.get(i) + "#" + v), i);
+            }
+        }
+    }
+
+    /**
+     * Node of the key.
+     *
+     * @param key key
+     * @return index of the node in the list
+     */
+    public int get(String key) {
+        Map.Entry<Long, Integer> entry = ring.ceilingEntry(hash(key));
+        return entry == null ? ring.firstEntry().getValue() : entry.getValue();
+    }
+
+    // 64-bit FNV-1a of the UTF-8 bytes, finalized to spread short keys over the ring.
+    static long hash(String value) {
+        long hash = FNV_OFFSET_BASIS;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= FNV_PRIME;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
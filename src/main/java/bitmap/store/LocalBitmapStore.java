@@ -0,0 +1,548 @@
+package bitmap.store;
+
+import bitmap.config.BitmapProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Bitmaps in memory on this node, persisted to a write-ahead log and snapshots.
+ * <p>
+ * Every change is appended to the log, a memory-mapped segment file, before the call returns, so that a crash of the
+ * process loses nothing; the log is forced to disk every fsync interval. Every snapshot interval the log is rotated
+ * and all bitmaps are written to a snapshot, the segments before it are then deleted. On startup the latest snapshot
+ * is loaded and the segments since it are replayed. Changes set absolute values, so replaying a change already in
+ * the snapshot is harmless.
+ * <p>
+ * Log record: type (1 byte, written last, 0 ends the segment), key length (2 bytes), key, then offset (8 bytes) and
+ * value (1 byte) for a bit, expiration time in epoch millis (8 bytes) for an expiration, or 0 (8 bytes) for a
+ * deletion. A deletion is logged before a bitmap is created, bitmaps that expired are kept through the replay with
+ * their expiration, so that the changes logged before they expired do not create them again without it.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "bitmap.store", name = "type", havingValue = "local")
+public class LocalBitmapStore implements BitmapStore, DisposableBean {
+
+    private static final byte SET_BIT = 1;
+    private static final byte EXPIRE = 2;
+    private static final byte DELETE = 3;
+    private static final int SNAPSHOT_MAGIC = 0x424d5331;
+    private static final long MAX_OFFSET = (1L << 32) - 1;
+    private static final Pattern SEGMENT = Pattern.compile("wal-(\\d+)\\.log");
+    private static final Pattern SNAPSHOT = Pattern.compile("snapshot-(\\d+)\\.bin");
+
+    @Resource
+    private BitmapProperties bitmapProperties;
+
+    private final Map<String, Bitmap> bitmaps = new ConcurrentHashMap<>();
+    // Changes of a key are applied and logged under the lock of its stripe, so that the log has the order of memory.
+    private final Object[] stripes = new Object[256];
+    private final Object walLock = new Object();
+    private final Object snapshotLock = new Object();
+
+    private Path directory;
+    private long segmentSize;
+    private long segmentSeq;
+    private FileChannel segmentChannel;
+    private MappedByteBuffer segment;
+    private ScheduledExecutorService scheduler;
+
+    {
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Object();
+        }
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        BitmapProperties.Local properties = bitmapProperties.getStore().getLocal();
+        directory = Paths.get(properties.getDirectory());
+        segmentSize = properties.getSegmentSize().toBytes();
+        Files.createDirectories(directory);
+
+        this.recover();
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("local-bitmap-store-"));
+        long fsync = properties.getFsyncInterval().toMillis();
+        scheduler.scheduleWithFixedDelay(this::force, fsync, fsync, TimeUnit.MILLISECONDS);
+        long snapshot = properties.getSnapshotInterval().toMillis();
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                this.snapshot();
+            } catch (Exception e) {
+                log.error("Failed to snapshot the bitmaps, the log is kept.", e);
+            }
+        }, snapshot, snapshot, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() throws InterruptedException, IOException {
+        if (scheduler != null) {
+            scheduler.shutdown();
+            if (!scheduler.awaitTermination(30, TimeUnit.SECONDS)) {
+                log.warn("Local bitmap store did not stop in time.");
+            }
+        }
+
+        // A final snapshot, so that the next startup does not replay the log.
+        this.snapshot();
+        synchronized (walLock) {
+            segment.force();
+            segmentChannel.close();
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "local";
+    }
+
+    @Override
+    public boolean setBit(String key, long offset, boolean value) {
+        if (offset < 0 || offset > MAX_OFFSET) {
+            throw new IllegalArgumentException("Bit offset is out of range: " + offset);
+        }
+        synchronized (this.stripe(key)) {
+            Bitmap bitmap = this.live(key);
+            int index = (int) (offset >>> 3);
+            int mask = 0x80 >>> (int) (offset & 7);
+            boolean previous = bitmap != null && index < bitmap.length && (bitmap.bytes[index] & mask) != 0;
+            if (bitmap != null && previous == value && index < bitmap.length) {
+                return previous;
+            }
+
+            if (bitmap == null) {
+                this.append(DELETE, key, 0, false);
+            }
+            this.apply(key, offset, value);
+            this.append(SET_BIT, key, offset, value);
+            return previous;
+        }
+    }
+
+    @Override
+    public long bitCount(String key) {
+        return this.bitCount(key, 0, -1);
+    }
+
+    @Override
+    public long bitCountAnd(String key1, String key2) {
+        byte[] bytes1 = this.get(key1);
+        byte[] bytes2 = this.get(key2);
+        if (bytes1 == null || bytes2 == null) {
+            return 0;
+        }
+
+        long count = 0;
+        for (int i = 0, length = Math.min(bytes1.length, bytes2.length); i < length; i++) {
+            count += Integer.bitCount(bytes1[i] & bytes2[i] & 0xff);
+        }
+        return count;
+    }
+
+    @Override
+    public byte[] get(String key) {
+        synchronized (this.stripe(key)) {
+            Bitmap bitmap = this.live(key);
+            return bitmap == null ? null : Arrays.copyOf(bitmap.bytes, bitmap.length);
+        }
+    }
+
+    @Override
+    public void expire(String key, Duration ttl) {
+        long expireAt = System.currentTimeMillis() + ttl.toMillis();
+        synchronized (this.stripe(key)) {
+            Bitmap bitmap = this.live(key);
+            if (bitmap == null) {
+                return;
+            }
+            bitmap.expireAt = expireAt;
+            this.append(EXPIRE, key, expireAt, false);
+        }
+    }
+
+    @Override
+    public Batch batch() {
+        return new LocalBatch();
+    }
+
+    /**
+     * Number of bitmaps in memory, expired ones included until they are accessed or snapshotted.
+     *
+     * @return number of bitmaps
+     */
+    public int size() {
+        return bitmaps.size();
+    }
+
+    /**
+     * Write all bitmaps to a snapshot and delete the log before it.
+     *
+     * @throws IOException if the snapshot cannot be written
+     */
+    public void snapshot() throws IOException {
+        synchronized (snapshotLock) {
+            // Changes from now on are in the new segment, the snapshot taken afterwards has all changes before it.
+            long seq;
+            synchronized (walLock) {
+                this.rotate();
+                seq = segmentSeq;
+            }
+
+            Path snapshot = directory.resolve(String.format("snapshot-%020d.bin", seq));
+            Path tmp = directory.resolve(snapshot.getFileName() + ".tmp");
+            long now = System.currentTimeMillis();
+            int count = 0;
+            try (FileOutputStream file = new FileOutputStream(tmp.toFile());
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16))) {
+                out.writeInt(SNAPSHOT_MAGIC);
+                for (String key : bitmaps.keySet()) {
+                    byte[] bytes;
+                    long expireAt;
+                    synchronized (this.stripe(key)) {
+                        Bitmap bitmap = bitmaps.get(key);
+                        if (bitmap == null) {
+                            continue;
+                        }
+                        if (bitmap.isExpired(now)) {
+                            bitmaps.remove(key);
+                            continue;
+                        }
+                        bytes = Arrays.copyOf(bitmap.bytes, bitmap.length);
+                        expireAt = bitmap.expireAt;
+                    }
+                    byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+                    out.writeShort(keyBytes.length);
+                    out.write(keyBytes);
+                    out.writeLong(expireAt);
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                    count++;
+                }
+                // End of the snapshot.
+                out.writeShort(-1);
+                out.flush();
+                file.getFD().sync();
+            }
+            Files.move(tmp, snapshot, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+            // The snapshot is durable, older files are no longer needed.
+            for (Map.Entry<Long, Path> entry : this.files(SEGMENT).entrySet()) {
+                if (entry.getKey() < seq) {
+                    Files.deleteIfExists(entry.getValue());
+                }
+            }
+            for (Map.Entry<Long, Path> entry : this.files(SNAPSHOT).entrySet()) {
+                if (entry.getKey() < seq) {
+                    Files.deleteIfExists(entry.getValue());
+                }
+            }
+            log.info("Snapshot {} of {} bitmaps written.", seq, count);
+        }
+    }
+
+    // Load the latest snapshot and replay the segments since it, then start a new segment.
+    private void recover() throws IOException {
+        TreeMap<Long, Path> snapshots = this.files(SNAPSHOT);
+        TreeMap<Long, Path> segments = this.files(SEGMENT);
+        long snapshotSeq = 0;
+        if (!snapshots.isEmpty()) {
+            snapshotSeq = snapshots.lastKey();
+            this.load(snapshots.lastEntry().getValue());
+        }
+
+        long records = 0;
+        for (Map.Entry<Long, Path> entry : segments.tailMap(snapshotSeq, true).entrySet()) {
+            records += this.replay(entry.getValue());
+        }
+        long now = System.currentTimeMillis();
+        bitmaps.values().removeIf(bitmap -> bitmap.isExpired(now));
+        log.info("Recovered {} bitmaps from snapshot {} and {} log records.", bitmaps.size(), snapshotSeq, records);
+
+        long last = Math.max(snapshotSeq, segments.isEmpty() ? 0 : segments.lastKey());
+        synchronized (walLock) {
+            this.open(last + 1);
+        }
+    }
+
+    private void load(Path snapshot) throws IOException {
+        try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Not a snapshot: " + snapshot);
+            }
+            short keyLength;
+            while ((keyLength = buffer.getShort()) >= 0) {
+                String key = this.readKey(buffer, keyLength);
+                long expireAt = buffer.getLong();
+                byte[] bytes = new byte[buffer.getInt()];
+                buffer.get(bytes);
+                // Expired ones included, they are dropped after the replay.
+                bitmaps.put(key, new Bitmap(bytes, bytes.length, expireAt));
+            }
+        }
+    }
+
+    private long replay(Path file) throws IOException {
+        long records = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            while (buffer.hasRemaining()) {
+                byte type = buffer.get();
+                if (type != SET_BIT && type != EXPIRE && type != DELETE) {
+                    // Zero: end of the log, a record torn by a crash has no type yet.
+                    break;
+                }
+                String key = this.readKey(buffer, buffer.getShort());
+                long value = buffer.getLong();
+                if (type == SET_BIT) {
+                    boolean bit = buffer.get() != 0;
+                    this.apply(key, value, bit);
+                } else if (type == DELETE) {
+                    bitmaps.remove(key);
+                } else {
+                    Bitmap bitmap = bitmaps.get(key);
+                    if (bitmap != null) {
+                        bitmap.expireAt = value;
+                    }
+                }
+                records++;
+            }
+        }
+        return records;
+    }
+
+    private String readKey(MappedByteBuffer buffer, short keyLength) {
+        byte[] keyBytes = new byte[keyLength];
+        buffer.get(keyBytes);
+        return new String(keyBytes, StandardCharsets.UTF_8);
+    }
+
+    // Set the bit in memory, growing the bitmap to the byte of the bit like SETBIT.
+    private void apply(String key, long offset, boolean value) {
+        int index = (int) (offset >>> 3);
+        int mask = 0x80 >>> (int) (offset & 7);
+        Bitmap bitmap = bitmaps.get(key);
+        if (bitmap == null) {
+            bitmap = new Bitmap(new byte[index + 1], index + 1, 0);
+            bitmaps.put(key, bitmap);
+        } else if (index >= bitmap.length) {
+            // The capacity grows by half, so that bitmaps growing a byte at a time are not copied at every byte.
+            if (index >= bitmap.bytes.length) {
+                bitmap.bytes = Arrays.copyOf(bitmap.bytes, Math.max(index + 1, bitmap.bytes.length + (bitmap.bytes.length >> 1)));
+            }
+            bitmap.length = index + 1;
+        }
+        if (value) {
+            bitmap.bytes[index] |= mask;
+        } else {
+            bitmap.bytes[index] &= ~mask;
+        }
+    }
+
+    // Bits set in the byte range, negative bounds count from the end like BITCOUNT.
+    private long bitCount(String key, long start, long end) {
+        synchronized (this.stripe(key)) {
+            Bitmap bitmap = this.live(key);
+            if (bitmap == null) {
+                return 0;
+            }
+            byte[] bytes = bitmap.bytes;
+            int length = bitmap.length;
+            long from = start < 0 ? Math.max(0, length + start) : start;
+            long to = end < 0 ? length + end : Math.min(end, length - 1);
+            long count = 0;
+            for (long i = from; i <= to; i++) {
+                count += Integer.bitCount(bytes[(int) i] & 0xff);
+            }
+            return count;
+        }
+    }
+
+    private void append(byte type, String key, long value, boolean bit) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int length = 1 + 2 + keyBytes.length + 8 + (type == SET_BIT ? 1 : 0);
+        synchronized (walLock) {
+            if (segment.remaining() < length + 1) {
+                this.rotate();
+            }
+            // The type is written last, so that a torn record ends the log on replay.
+            int position = segment.position();
+            segment.position(position + 1);
+            segment.putShort((short) keyBytes.length);
+            segment.put(keyBytes);
+            segment.putLong(value);
+            if (type == SET_BIT) {
+                segment.put((byte) (bit ? 1 : 0));
+            }
+            segment.put(position, type);
+        }
+    }
+
+    private void rotate() {
+        segment.force();
+        try {
+            segmentChannel.close();
+            this.open(segmentSeq + 1);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void open(long seq) throws IOException {
+        Path file = directory.resolve(String.format("wal-%020d.log", seq));
+        segmentChannel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        segment = segmentChannel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        segmentSeq = seq;
+    }
+
+    private void force() {
+        synchronized (walLock) {
+            segment.force();
+        }
+    }
+
+    private TreeMap<Long, Path> files(Pattern pattern) throws IOException {
+        TreeMap<Long, Path> files = new TreeMap<>();
+        try (Stream<Path> list = Files.list(directory)) {
+            list.forEach(path -> {
+                Matcher matcher = pattern.matcher(path.getFileName().toString());
+                if (matcher.matches()) {
+                    files.put(Long.parseLong(matcher.group(1)), path);
+                }
+            });
+        }
+        return files;
+    }
+
+    private Object stripe(String key) {
+        return stripes[key.hashCode() & (stripes.length - 1)];
+    }
+
+    // Bitmap of the key, null if absent or expired. Called under the lock of the stripe.
+    private Bitmap live(String key) {
+        Bitmap bitmap = bitmaps.get(key);
+        if (bitmap != null && bitmap.isExpired(System.currentTimeMillis())) {
+            bitmaps.remove(key);
+            return null;
+        }
+        return bitmap;
+    }
+
+    private static class Bitmap {
+
+        private byte[] bytes;
+        // Length of the bitmap, the bytes beyond are spare capacity.
+        private int length;
+        // Epoch millis, 0 if the bitmap does not expire.
+        private long expireAt;
+
+        private Bitmap(byte[] bytes, int length, long expireAt) {
+            this.bytes = bytes;
+            this.length = length;
+            this.expireAt = expireAt;
+        }
+
+        private boolean isExpired(long now) {
+            return expireAt != 0 && expireAt <= now;
+        }
+    }
+
+    private class LocalBatch implements Batch {
+
+        private final List<Supplier<Object>> commands = new ArrayList<>();
+
+        @Override
+        public Batch setBit(String key, long offset, boolean value) {
+            commands.add(() -> LocalBitmapStore.this.setBit(key, offset, value));
+            return this;
+        }
+
+        @Override
+        public Batch getBit(String key, long offset) {
+            commands.add(() -> {
+                synchronized (stripe(key)) {
+                    Bitmap bitmap = live(key);
+                    int index = (int) (offset >>> 3);
+                    return bitmap != null && index < bitmap.length
+                            && (bitmap.bytes[index] & (0x80 >>> (int) (offset & 7))) != 0;
+                }
+            });
+            return this;
+        }
+
+        @Override
+        public Batch bitCount(String key) {
+            commands.add(() -> LocalBitmapStore.this.bitCount(key));
+            return this;
+        }
+
+        @Override
+        public Batch bitCount(String key, long start, long end) {
+            commands.add(() -> LocalBitmapStore.this.bitCount(key, start, end));
+            return this;
+        }
+
+        @Override
+        public Batch getRange(String key, long start, long end) {
+            commands.add(() -> {
+                synchronized (stripe(key)) {
+                    Bitmap bitmap = live(key);
+                    if (bitmap == null || start >= bitmap.length) {
+                        return new byte[0];
+                    }
+                    return Arrays.copyOfRange(bitmap.bytes, (int) start, (int) Math.min(end + 1, bitmap.length));
+                }
+            });
+            return this;
+        }
+
+        @Override
+        public Batch getCounter(String key) {
+            // Counters are only kept by the bucketed layout, which needs Redis.
+            commands.add(() -> null);
+            return this;
+        }
+
+        @Override
+        public List<Object> execute() {
+            List<Object> results = new ArrayList<>(commands.size());
+            commands.forEach(command -> results.add(command.get()));
+            return results;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package bitmap.store;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Bitmaps in Redis, a batch is a pipeline.
+ */
+@Component
+@ConditionalOnProperty(prefix = "bitmap.store", name = "type", havingValue = "redis", matchIfMissing = true)
+public class RedisBitmapStore implements BitmapStore {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Override
+    public String getName() {
+        return "redis";
+    }
+
+    @Override
+    public boolean setBit(String key, long offset, boolean value) {
+        return Boolean.TRUE.equals(stringRedisTemplate.opsForValue().setBit(key, offset, value));
+    }
+
+    @Override
+    public long bitCount(String key) {
+        Long count = stringRedisTemplate.execute((RedisConnection connection) -> connection.bitCount(key.getBytes()));
+        return count == null ? 0 : count;
+    }
+
+    @Override
+    public long bitCountAnd(String key1, String key2) {
+        byte[] keyOfAnd = ("bitop:" + UUID.randomUUID()).getBytes();
+
+        // Intersect and count in one pipeline.
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.bitOp(RedisStringCommands.BitOperation.AND, keyOfAnd, key1.getBytes(), key2.getBytes());
+            connection.bitCount(keyOfAnd);
+            connection.del(keyOfAnd);
+            return null;
+        });
+        return (Long) results.get(1);
+    }
+
+    @Override
+    public byte[] get(String key) {
+        return stringRedisTemplate.execute((RedisConnection connection) -> connection.get(key.getBytes()));
+    }
+
+    @Override
+    public void expire(String key, Duration ttl) {
+        stringRedisTemplate.expire(key, ttl);
+    }
+
+    @Override
+    public Batch batch() {
+        return new RedisBatch();
+    }
+
+    private class RedisBatch implements Batch {
+
+        private final List<Consumer<RedisConnection>> commands = new ArrayList<>();
+        // Index of the counters, their results are strings.
+        private final List<Integer> counters = new ArrayList<>();
+        // Index of the ranges, an empty range may be returned as null.
+        private final List<Integer> ranges = new ArrayList<>();
+
+        @Override
+        public Batch setBit(String key, long offset, boolean value) {
+            commands.add(connection -> connection.setBit(key.getBytes(), offset, value));
+            return this;
+        }
+
+        @Override
+        public Batch getBit(String key, long offset) {
+            commands.add(connection -> connection.getBit(key.getBytes(), offset));
+            return this;
+        }
+
+        @Override
+        public Batch bitCount(String key) {
+            commands.add(connection -> connection.bitCount(key.getBytes()));
+            return this;
+        }
+
+        @Override
+        public Batch bitCount(String key, long start, long end) {
+            commands.add(connection -> connection.bitCount(key.getBytes(), start, end));
+            return this;
+        }
+
+        @Override
+        public Batch getRange(String key, long start, long end) {
+            ranges.add(commands.size());
+            commands.add(connection -> connection.getRange(key.getBytes(), start, end));
+            return this;
+        }
+
+        @Override
+        public Batch getCounter(String key) {
+            counters.add(commands.size());
+            commands.add(connection -> connection.get(key.getBytes()));
+            return this;
+        }
+
+        @Override
+        public List<Object> execute() {
+            if (commands.isEmpty()) {
+                return new ArrayList<>();
+            }
+            // Results are kept as bytes, ranges are binary.
+            List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                commands.forEach(command -> command.accept(connection));
+                return null;
+            }, RedisSerializer.byteArray());
+            for (Integer index : counters) {
+                Object value = results.get(index);
+                results.set(index, value == null ? null : Long.parseLong(new String((byte[]) value)));
+            }
+            for (Integer index : ranges) {
+                if (results.get(index) == null) {
+                    results.set(index, new byte[0]);
+                }
+            }
+            return results;
+        }
+    }
+}
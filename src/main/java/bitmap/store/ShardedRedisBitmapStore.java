@@ -0,0 +1,359 @@
+package bitmap.store;
+
+import bitmap.config.BitmapProperties;
+import io.lettuce.core.RedisURI;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisPassword;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.connection.lettuce.LettucePoolingClientConfiguration;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Bitmaps sharded across Redis nodes by consistent hashing.
+ * <p>
+ * Bitmaps of a device, {@code device:{deviceId}:*}, go to the node of the device ID, so that all of them are on one
+ * node like with a Redis Cluster hash tag. Population bitmaps are offset by the dense device ID, their bits are
+ * split in chunks of 64K bits and each chunk goes to the node of its number: every node has a part of every
+ * population bitmap at the same offsets, the rest being zeros. Counts and intersections run on every node in
+ * parallel and are summed, the bitmap is the OR of the parts.
+ * <p>
+ * A batch is split into one pipeline per node it has commands for. The pipelines are all sent from the calling thread
+ * before any is waited for, so the nodes work in parallel without a thread per node.
+ * <p>
+ * Bitmaps are not migrated between nodes. The nodes are written to every node at the first start, and the store
+ * fails to start when they differ, instead of reading the devices that moved from a node without their history.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "bitmap.store", name = "type", havingValue = "sharded")
+public class ShardedRedisBitmapStore implements BitmapStore, DisposableBean {
+
+    private static final String DEVICE_PREFIX = "device:";
+    private static final int CHUNK_SHIFT = 16;
+    /**
+     * Key of the nodes of the store, on every node.
+     */
+    static final String KEY_OF_NODES = "bitmap:sharded:nodes";
+
+    @Resource
+    private BitmapProperties bitmapProperties;
+
+    private final List<LettuceConnectionFactory> connectionFactories = new ArrayList<>();
+    private final List<StringRedisTemplate> shards = new ArrayList<>();
+    private ConsistentHash consistentHash;
+
+    @PostConstruct
+    public void init() {
+        BitmapProperties.Sharded sharded = bitmapProperties.getStore().getSharded();
+        if (sharded.getNodes().isEmpty()) {
+            throw new IllegalStateException("Sharded bitmap store needs at least one node");
+        }
+
+        for (String node : sharded.getNodes()) {
+            RedisURI uri = RedisURI.create(node);
+            RedisStandaloneConfiguration configuration = new RedisStandaloneConfiguration(uri.getHost(), uri.getPort());
+            configuration.setDatabase(uri.getDatabase());
+            if (uri.getPassword() != null) {
+                configuration.setPassword(RedisPassword.of(uri.getPassword()));
+            }
+            GenericObjectPoolConfig<?> poolConfig = new GenericObjectPoolConfig<>();
+            poolConfig.setMaxTotal(sharded.getMaxConnections());
+            poolConfig.setMaxIdle(sharded.getMaxConnections());
+            LettuceConnectionFactory connectionFactory = new LettuceConnectionFactory(configuration,
+                    LettucePoolingClientConfiguration.builder().poolConfig(poolConfig).build());
+            connectionFactory.afterPropertiesSet();
+            connectionFactories.add(connectionFactory);
+            shards.add(new StringRedisTemplate(connectionFactory));
+        }
+        consistentHash = new ConsistentHash(sharded.getNodes(), sharded.getVirtualNodes());
+        try {
+            this.checkNodes(sharded);
+        } catch (RuntimeException e) {
+            this.destroy();
+            throw e;
+        }
+        log.info("Sharded bitmap store on {} nodes.", shards.size());
+    }
+
+    // Record the nodes on every node at the first start, fail if they changed since.
+    private void checkNodes(BitmapProperties.Sharded sharded) {
+        List<String> sorted = new ArrayList<>(sharded.getNodes());
+        Collections.sort(sorted);
+        String nodes = sharded.getVirtualNodes() + " " + String.join(",", sorted);
+
+        List<byte[]> recorded = this.scatter(shard -> connection -> connection.get(KEY_OF_NODES.getBytes()));
+        boolean first = recorded.stream().allMatch(Objects::isNull);
+        for (int shard = 0; shard < shards.size(); shard++) {
+            byte[] value = recorded.get(shard);
+            if (first ? value != null : value == null || !nodes.equals(new String(value))) {
+                throw new IllegalStateException("Nodes of the sharded bitmap store changed from ["
+                        + (value == null ? "" : new String(value)) + "] on " + sharded.getNodes().get(shard)
+                        + " to [" + nodes + "], the bitmaps are not migrated. Restore the nodes, or migrate the"
+                        + " bitmaps and delete " + KEY_OF_NODES + " on every node.");
+            }
+        }
+        if (first) {
+            this.scatter(shard -> connection -> connection.setNX(KEY_OF_NODES.getBytes(), nodes.getBytes()));
+        }
+    }
+
+    @Override
+    public void destroy() {
+        connectionFactories.forEach(LettuceConnectionFactory::destroy);
+    }
+
+    @Override
+    public String getName() {
+        return "sharded";
+    }
+
+    @Override
+    public boolean setBit(String key, long offset, boolean value) {
+        return Boolean.TRUE.equals(shards.get(this.shardOf(key, offset)).opsForValue().setBit(key, offset, value));
+    }
+
+    @Override
+    public long bitCount(String key) {
+        return (Long) this.batch().bitCount(key).execute().get(0);
+    }
+
+    @Override
+    public long bitCountAnd(String key1, String key2) {
+        if (isDeviceKey(key1) || isDeviceKey(key2)) {
+            // Not of the same layout, intersect here.
+            byte[] bytes1 = this.get(key1);
+            byte[] bytes2 = this.get(key2);
+            long count = 0;
+            for (int i = 0, length = bytes1 == null || bytes2 == null ? 0 : Math.min(bytes1.length, bytes2.length);
+                 i < length; i++) {
+                count += Integer.bitCount(bytes1[i] & bytes2[i] & 0xff);
+            }
+            return count;
+        }
+
+        // The same offsets are on the same node, intersect and count on every node.
+        byte[] keyOfAnd = ("bitop:" + UUID.randomUUID()).getBytes();
+        List<List<Consumer<RedisConnection>>> commands = new ArrayList<>();
+        for (int shard = 0; shard < shards.size(); shard++) {
+            commands.add(Arrays.asList(
+                    connection -> connection.bitOp(RedisStringCommands.BitOperation.AND, keyOfAnd, key1.getBytes(),
+                            key2.getBytes()),
+                    connection -> connection.bitCount(keyOfAnd),
+                    connection -> connection.del(keyOfAnd)));
+        }
+        return this.pipeline(commands).stream().mapToLong(result -> (Long) result.get(1)).sum();
+    }
+
+    @Override
+    public byte[] get(String key) {
+        if (isDeviceKey(key)) {
+            return shards.get(this.shardOf(key, 0)).execute((RedisConnection connection) -> connection.get(key.getBytes()));
+        }
+
+        // OR the parts, they have no bit in common.
+        List<byte[]> parts = this.scatter(shard -> connection -> connection.get(key.getBytes()));
+        byte[] bytes = null;
+        for (byte[] part : parts) {
+            if (part == null) {
+                continue;
+            }
+            if (bytes == null || bytes.length < part.length) {
+                byte[] grown = new byte[part.length];
+                if (bytes != null) {
+                    System.arraycopy(bytes, 0, grown, 0, bytes.length);
+                }
+                bytes = grown;
+            }
+            for (int i = 0; i < part.length; i++) {
+                bytes[i] |= part[i];
+            }
+        }
+        return bytes;
+    }
+
+    @Override
+    public void expire(String key, Duration ttl) {
+        if (isDeviceKey(key)) {
+            shards.get(this.shardOf(key, 0)).expire(key, ttl);
+            return;
+        }
+        this.scatter(shard -> connection -> connection.expire(key.getBytes(), ttl.getSeconds()));
+    }
+
+    @Override
+    public Batch batch() {
+        return new ShardedBatch();
+    }
+
+    // Node of the device of a device key, else of the chunk of the offset.
+    int shardOf(String key, long offset) {
+        if (isDeviceKey(key)) {
+            int end = key.indexOf(':', DEVICE_PREFIX.length());
+            return consistentHash.get(key.substring(DEVICE_PREFIX.length(), end < 0 ? key.length() : end));
+        }
+        return consistentHash.get("chunk:" + (offset >>> CHUNK_SHIFT));
+    }
+
+    private static boolean isDeviceKey(String key) {
+        return key.startsWith(DEVICE_PREFIX);
+    }
+
+    // Run one command on every node in parallel, results in the order of the nodes.
+    @SuppressWarnings("unchecked")
+    private <T> List<T> scatter(Function<Integer, Consumer<RedisConnection>> command) {
+        List<List<Consumer<RedisConnection>>> commands = new ArrayList<>(shards.size());
+        for (int shard = 0; shard < shards.size(); shard++) {
+            commands.add(Collections.singletonList(command.apply(shard)));
+        }
+        List<T> results = new ArrayList<>(shards.size());
+        this.pipeline(commands).forEach(result -> results.add((T) result.get(0)));
+        return results;
+    }
+
+    // Run the commands of every node in one pipeline per node, nodes without commands are not contacted. Commands
+    // are sent as they are issued, so all the pipelines are on the wire before the first one is waited for.
+    private List<List<Object>> pipeline(List<List<Consumer<RedisConnection>>> commands) {
+        RedisConnection[] connections = new RedisConnection[commands.size()];
+        try {
+            for (int shard = 0; shard < commands.size(); shard++) {
+                if (commands.get(shard).isEmpty()) {
+                    continue;
+                }
+                connections[shard] = connectionFactories.get(shard).getConnection();
+                connections[shard].openPipeline();
+                for (Consumer<RedisConnection> command : commands.get(shard)) {
+                    command.accept(connections[shard]);
+                }
+            }
+
+            List<List<Object>> results = new ArrayList<>(commands.size());
+            for (RedisConnection connection : connections) {
+                results.add(connection == null ? Collections.emptyList() : connection.closePipeline());
+            }
+            return results;
+        } finally {
+            for (RedisConnection connection : connections) {
+                if (connection != null) {
+                    connection.close();
+                }
+            }
+        }
+    }
+
+    private class ShardedBatch implements Batch {
+
+        // Commands of the pipeline of every node.
+        private final List<List<Consumer<RedisConnection>>> commands = new ArrayList<>();
+        // Result of every command from the results of the pipelines.
+        private final List<Function<List<List<Object>>, Object>> results = new ArrayList<>();
+
+        private ShardedBatch() {
+            for (int i = 0; i < shards.size(); i++) {
+                commands.add(new ArrayList<>());
+            }
+        }
+
+        @Override
+        public Batch setBit(String key, long offset, boolean value) {
+            return this.on(shardOf(key, offset), connection -> connection.setBit(key.getBytes(), offset, value),
+                    Function.identity());
+        }
+
+        @Override
+        public Batch getBit(String key, long offset) {
+            return this.on(shardOf(key, offset), connection -> connection.getBit(key.getBytes(), offset),
+                    Function.identity());
+        }
+
+        @Override
+        public Batch bitCount(String key) {
+            if (isDeviceKey(key)) {
+                return this.on(shardOf(key, 0), connection -> connection.bitCount(key.getBytes()), Function.identity());
+            }
+            return this.onAll(connection -> connection.bitCount(key.getBytes()));
+        }
+
+        @Override
+        public Batch bitCount(String key, long start, long end) {
+            if (isDeviceKey(key)) {
+                return this.on(shardOf(key, 0), connection -> connection.bitCount(key.getBytes(), start, end),
+                        Function.identity());
+            }
+            // The parts have different lengths, a range from the end would differ from one node to another.
+            if (start < 0 || end < 0) {
+                throw new IllegalArgumentException("Range from the end is not supported on population bitmaps");
+            }
+            return this.onAll(connection -> connection.bitCount(key.getBytes(), start, end));
+        }
+
+        @Override
+        public Batch getRange(String key, long start, long end) {
+            // The bytes of a population bitmap are spread over the nodes, only device bitmaps are on one node.
+            if (!isDeviceKey(key)) {
+                throw new IllegalArgumentException("Range of a population bitmap is not supported");
+            }
+            return this.on(shardOf(key, 0), connection -> connection.getRange(key.getBytes(), start, end),
+                    value -> value == null ? new byte[0] : value);
+        }
+
+        @Override
+        public Batch getCounter(String key) {
+            return this.on(shardOf(key, 0), connection -> connection.get(key.getBytes()),
+                    value -> value == null ? null : Long.parseLong(new String((byte[]) value)));
+        }
+
+        @Override
+        public List<Object> execute() {
+            List<List<Object>> shardResults = pipeline(commands);
+
+            List<Object> values = new ArrayList<>(results.size());
+            results.forEach(result -> values.add(result.apply(shardResults)));
+            return values;
+        }
+
+        // A command on a node.
+        private Batch on(int shard, Consumer<RedisConnection> command, Function<Object, Object> converter) {
+            List<Consumer<RedisConnection>> shardCommands = commands.get(shard);
+            int index = shardCommands.size();
+            shardCommands.add(command);
+            results.add(shardResults -> converter.apply(shardResults.get(shard).get(index)));
+            return this;
+        }
+
+        // A count on every node, summed.
+        private Batch onAll(Consumer<RedisConnection> command) {
+            int[] indexes = new int[commands.size()];
+            for (int shard = 0; shard < commands.size(); shard++) {
+                indexes[shard] = commands.get(shard).size();
+                commands.get(shard).add(command);
+            }
+            results.add(shardResults -> {
+                long sum = 0;
+                for (int shard = 0; shard < indexes.length; shard++) {
+                    sum += (Long) shardResults.get(shard).get(indexes[shard]);
+                }
+                return sum;
+            });
+            return this;
+        }
+    }
+}
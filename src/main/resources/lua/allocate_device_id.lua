@@ -0,0 +1,10 @@
+-- Get the dense ID of the device, allocate the next one if the device has none.
+-- KEYS[1]: dense ID of the device
+-- KEYS[2]: sequence of the dense ID
+local id = redis.call('GET', KEYS[1])
+if id then
+    return tonumber(id)
+end
+id = redis.call('INCR', KEYS[2])
+redis.call('SET', KEYS[1], id)
+return id
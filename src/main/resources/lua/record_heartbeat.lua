@@ -0,0 +1,45 @@
+-- Set the heartbeat bit of the minute since the start of the first launch day.
+-- KEYS[1]: first launch time of the device, in epoch seconds with the zone offset of the event, e.g. 1655000000+28800,
+--          or in epoch seconds only for the values written before, in the system default zone
+-- KEYS[2]: heartbeat record of the device
+-- ARGV[1]: event time in local seconds, the wall clock of the event as if it was UTC
+-- ARGV[2]: zone offset in seconds since the last transition of the system default zone
+-- ARGV[3]: epoch seconds of the last transition of the system default zone
+-- ARGV[4]: zone offset in seconds before the last transition
+-- ARGV[5]: epoch seconds of the transition before the last one
+-- Returns 1 if the bit is newly set, 0 if it was set, -1 if the device is unknown,
+-- -2 if the first launch time is not in epoch seconds or, without offset, older than both transitions.
+local value = redis.call('GET', KEYS[1])
+if not value then
+    return -1
+end
+
+local first, zoneOffset
+local epoch, offset = string.match(value, '^(%d+)([+-]%d+)$')
+if epoch then
+    first = tonumber(epoch)
+    zoneOffset = tonumber(offset)
+else
+    first = tonumber(value)
+    if not first then
+        return -2
+    end
+    if first >= tonumber(ARGV[3]) then
+        zoneOffset = tonumber(ARGV[2])
+    elseif first >= tonumber(ARGV[5]) then
+        zoneOffset = tonumber(ARGV[4])
+    else
+        return -2
+    end
+end
+
+local localFirst = first + zoneOffset
+local start = localFirst - localFirst % 86400
+local seconds = tonumber(ARGV[1]) - start
+local offset
+if seconds >= 0 then
+    offset = math.floor(seconds / 60)
+else
+    offset = -math.floor(-seconds / 60)
+end
+return 1 - redis.call('SETBIT', KEYS[2], offset, 1)
@@ -0,0 +1,19 @@
+-- Set the heartbeat bit of the minute in the bucket, and count the minute if it is newly recorded.
+-- KEYS[1]: heartbeat record of the device in the bucket
+-- KEYS[2]: session minutes of the device
+-- KEYS[3]: first launch time of the device, optional, nothing is recorded if the device is unknown
+-- ARGV[1]: offset of the minute in the bucket
+-- ARGV[2]: TTL of the heartbeat record in seconds
+-- ARGV[3]: 1 to count the newly recorded minute in the session minutes
+-- Returns 1 if the bit is newly set, 0 if it was set, -1 if the device is unknown.
+if KEYS[3] and redis.call('EXISTS', KEYS[3]) == 0 then
+    return -1
+end
+local previous = redis.call('SETBIT', KEYS[1], ARGV[1], 1)
+if previous == 0 then
+    redis.call('EXPIRE', KEYS[1], ARGV[2])
+    if ARGV[3] == '1' then
+        redis.call('INCR', KEYS[2])
+    end
+end
+return 1 - previous
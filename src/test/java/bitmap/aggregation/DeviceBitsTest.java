@@ -0,0 +1,50 @@
+package bitmap.aggregation;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+class DeviceBitsTest {
+
+    @Test
+    void test() {
+        DeviceBits bits = new DeviceBits();
+        Assertions.assertTrue(bits.set(1000));
+        Assertions.assertTrue(bits.set(1000));
+        Assertions.assertTrue(bits.set(999));
+        Assertions.assertTrue(bits.set(1063));
+        Assertions.assertTrue(bits.set(64));
+        Assertions.assertEquals(4, bits.cardinality());
+
+        List<Long> offsets = new ArrayList<>();
+        bits.forEach(offsets::add);
+        Assertions.assertEquals(Arrays.asList(64L, 999L, 1000L, 1063L), offsets);
+
+        // Too far away from the collected bits.
+        Assertions.assertFalse(bits.set(64 + DeviceBits.MAX_SPAN_WORDS * 64L));
+        Assertions.assertEquals(4, bits.cardinality());
+    }
+
+    @Test
+    void testOr() {
+        DeviceBits bits = new DeviceBits();
+        bits.set(10);
+        DeviceBits other = new DeviceBits();
+        other.set(1000);
+        other.set(1001);
+        Assertions.assertTrue(bits.or(other));
+
+        List<Long> offsets = new ArrayList<>();
+        bits.forEach(offsets::add);
+        Assertions.assertEquals(Arrays.asList(10L, 1000L, 1001L), offsets);
+
+        // Too far away, the window does not grow beyond the maximum span.
+        DeviceBits far = new DeviceBits();
+        far.set(100_000);
+        Assertions.assertFalse(bits.or(far));
+        Assertions.assertEquals(3, bits.cardinality());
+    }
+}
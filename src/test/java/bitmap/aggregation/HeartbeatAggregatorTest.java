@@ -0,0 +1,105 @@
+package bitmap.aggregation;
+
+import bitmap.config.BitmapProperties;
+import bitmap.metrics.BitmapMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+
+/**
+ * Runs against the local Redis, and against a Redis that is down, nothing listens on port 1.
+ */
+class HeartbeatAggregatorTest {
+
+    private static final String KEY_OF_WRONG_TYPE = "device:test_aggregator_wrong_type:heartbeat_per_minute";
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private LettuceConnectionFactory connectionFactory;
+    private StringRedisTemplate stringRedisTemplate;
+    private HeartbeatAggregator aggregator;
+
+    @AfterEach
+    void tearDown() {
+        connectionFactory.destroy();
+    }
+
+    private void newAggregator(int port) {
+        connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration("localhost", port));
+        connectionFactory.afterPropertiesSet();
+        stringRedisTemplate = new StringRedisTemplate(connectionFactory);
+        BitmapMetrics bitmapMetrics = new BitmapMetrics();
+        ReflectionTestUtils.setField(bitmapMetrics, "meterRegistry", meterRegistry);
+        BitmapProperties bitmapProperties = new BitmapProperties();
+        bitmapProperties.getHeartbeat().getAggregator().setShards(1);
+        bitmapProperties.getHeartbeat().getAggregator().setMaxDevices(2);
+        bitmapProperties.getHeartbeat().getAggregator().setMaxDevicesOnFailure(5);
+
+        aggregator = new HeartbeatAggregator();
+        ReflectionTestUtils.setField(aggregator, "stringRedisTemplate", stringRedisTemplate);
+        ReflectionTestUtils.setField(aggregator, "bitmapProperties", bitmapProperties);
+        ReflectionTestUtils.setField(aggregator, "bitmapMetrics", bitmapMetrics);
+        ReflectionTestUtils.setField(aggregator, "meterRegistry", meterRegistry);
+        aggregator.init();
+    }
+
+    @Test
+    void testRedisDown() {
+        this.newAggregator(1);
+
+        // The first overflow fails to flush on the caller thread, the next devices are buffered up to the hard limit.
+        for (int i = 0; i < 10; i++) {
+            aggregator.add("device:test_aggregator_" + i + ":heartbeat_per_minute", 1440);
+        }
+        Assertions.assertEquals(5, aggregator.getBufferedDevices());
+
+        // Far away from the buffered bits, not written through during the backoff.
+        aggregator.add("device:test_aggregator_0:heartbeat_per_minute", 1440 + DeviceBits.MAX_SPAN_WORDS * 64L);
+        Assertions.assertEquals(6, this.dropped("flush_failed"));
+
+        // The failed flush does not lose the buffered devices.
+        aggregator.flush();
+        Assertions.assertEquals(5, aggregator.getBufferedDevices());
+    }
+
+    @Test
+    void testRejected() {
+        this.newAggregator(6379);
+        String keyOfHeartbeat = "device:test_aggregator_0:heartbeat_per_minute";
+        try {
+            // Before the first launch day, or beyond a Redis bitmap.
+            Assertions.assertFalse(aggregator.add(keyOfHeartbeat, -5));
+            Assertions.assertFalse(aggregator.add(keyOfHeartbeat, HeartbeatAggregator.MAX_OFFSET + 1));
+            Assertions.assertEquals(2, this.dropped("out_of_range"));
+            Assertions.assertEquals(0, aggregator.getBufferedDevices());
+
+            // The key Redis rejects is dropped, the other keys of the pipeline are written and nothing is put back.
+            stringRedisTemplate.opsForList().leftPush(KEY_OF_WRONG_TYPE, "list");
+            Assertions.assertTrue(aggregator.add(KEY_OF_WRONG_TYPE, 1440));
+            Assertions.assertTrue(aggregator.add(KEY_OF_WRONG_TYPE, 1441));
+            Assertions.assertTrue(aggregator.add(keyOfHeartbeat, 1440));
+            aggregator.flush();
+            Assertions.assertEquals(2, this.dropped("rejected"));
+            Assertions.assertEquals(0, aggregator.getBufferedDevices());
+            Assertions.assertEquals(Boolean.TRUE, stringRedisTemplate.opsForValue().getBit(keyOfHeartbeat, 1440));
+
+            // Flushes go on.
+            Assertions.assertTrue(aggregator.add(keyOfHeartbeat, 1441));
+            aggregator.flush();
+            Assertions.assertEquals(Boolean.TRUE, stringRedisTemplate.opsForValue().getBit(keyOfHeartbeat, 1441));
+            Assertions.assertEquals(0, this.dropped("flush_failed"));
+        } finally {
+            stringRedisTemplate.delete(Arrays.asList(keyOfHeartbeat, KEY_OF_WRONG_TYPE));
+        }
+    }
+
+    private double dropped(String reason) {
+        return meterRegistry.get("bitmap.heartbeat.aggregator.dropped").tag("reason", reason).counter().count();
+    }
+}
@@ -0,0 +1,57 @@
+package bitmap.cache;
+
+import bitmap.config.BitmapProperties;
+import bitmap.dto.EventDTO;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class UpdateFingerprintCacheTest {
+
+    private final BitmapProperties bitmapProperties = new BitmapProperties();
+    private final UpdateFingerprintCache cache = new UpdateFingerprintCache();
+
+    {
+        ReflectionTestUtils.setField(cache, "bitmapProperties", bitmapProperties);
+        ReflectionTestUtils.setField(cache, "meterRegistry", new SimpleMeterRegistry());
+        cache.init();
+    }
+
+    @Test
+    void testUnchanged() {
+        EventDTO fields = new EventDTO();
+        fields.put("session_duration", 42L);
+        Assertions.assertFalse(cache.isUnchanged("first_app_launch", "android_abc", fields));
+
+        cache.put("first_app_launch", "android_abc", fields);
+        Assertions.assertTrue(cache.isUnchanged("first_app_launch", "android_abc", fields));
+        Assertions.assertFalse(cache.isUnchanged("daily_app_launch_unique", "android_abc", fields));
+
+        fields.put("session_duration", 43L);
+        Assertions.assertFalse(cache.isUnchanged("first_app_launch", "android_abc", fields));
+    }
+
+    @Test
+    void testFingerprintIgnoresOrder() {
+        EventDTO fields = new EventDTO();
+        fields.put("retention_day_1", 1);
+        fields.put("user_lifetime", 3);
+        EventDTO reordered = new EventDTO();
+        reordered.put("user_lifetime", 3);
+        reordered.put("retention_day_1", 1);
+
+        Assertions.assertEquals(UpdateFingerprintCache.fingerprint(fields),
+                UpdateFingerprintCache.fingerprint(reordered));
+    }
+
+    @Test
+    void testDisabled() {
+        bitmapProperties.getFingerprint().setEnabled(false);
+        EventDTO fields = new EventDTO();
+        fields.put("session_duration", 42L);
+
+        cache.put("first_app_launch", "android_abc", fields);
+        Assertions.assertFalse(cache.isUnchanged("first_app_launch", "android_abc", fields));
+    }
+}
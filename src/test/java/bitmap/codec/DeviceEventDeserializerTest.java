@@ -0,0 +1,57 @@
+package bitmap.codec;
+
+import bitmap.dto.DeviceEvent;
+import bitmap.dto.EventDTO;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+class DeviceEventDeserializerTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void testSameAsEventDTO() throws Exception {
+        String json = "{\"platform\":\"android\",\"androidid\":\"abc\",\"request_time\":\"2022-06-01T23:59:30+08:00\","
+                + "\"event_time_offset_sec\":45,\"ext\":{\"k\":[1,2]}}";
+
+        DeviceEvent event = objectMapper.readValue(json, DeviceEvent.class);
+        EventDTO eventDTO = objectMapper.readValue(json, EventDTO.class);
+
+        Assertions.assertEquals(eventDTO.getDeviceId(), event.getDeviceId());
+        Assertions.assertEquals(eventDTO.getEventTime(), event.getEventTime());
+        Assertions.assertEquals("android_abc", event.getPlatform() + "_" + event.getPayload().get("androidid"));
+
+        // Nested values are passed through to the payload.
+        Object ext = event.getPayload().get("ext");
+        Assertions.assertTrue(ext instanceof Map);
+        Assertions.assertTrue(((Map<?, ?>) ext).get("k") instanceof List);
+    }
+
+    @Test
+    void testStringOffsetAndMissingRequestTime() throws Exception {
+        String json = "{\"platform\":\"ios\",\"idfv\":\"x\",\"event_time_offset_sec\":\"-60\"}";
+
+        long before = System.currentTimeMillis();
+        DeviceEvent event = objectMapper.readValue(json, DeviceEvent.class);
+
+        Assertions.assertEquals("ios_x", event.getDeviceId());
+        Assertions.assertNotNull(event.getPayload().get("request_time"));
+        Assertions.assertTrue(event.getEventTimeMillis() >= before - 60_000);
+        Assertions.assertTrue(event.getEventTimeMillis() <= System.currentTimeMillis() - 60_000);
+    }
+
+    @Test
+    void testUnknownDevice() throws Exception {
+        DeviceEvent event = objectMapper.readValue("{\"platform\":\"web\"}", DeviceEvent.class);
+        Assertions.assertNull(event.getDeviceId());
+
+        // A bare device ID is not accepted from clients.
+        event = objectMapper.readValue("{\"device_id\":\"android_abc\"}", DeviceEvent.class);
+        Assertions.assertNull(event.getDeviceId());
+        Assertions.assertNull(event.getPayload().getDeviceId());
+    }
+}
@@ -0,0 +1,54 @@
+package bitmap.codec;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.serializer.JdkSerializationRedisSerializer;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+
+class FirstLaunchTimeCodecTest {
+
+    @Test
+    void test() {
+        ZonedDateTime now = ZonedDateTime.now().withNano(0);
+        byte[] bytes = FirstLaunchTimeCodec.encode(now);
+        Assertions.assertEquals(String.format("%d%+d", now.toEpochSecond(), now.getOffset().getTotalSeconds()),
+                new String(bytes, StandardCharsets.US_ASCII));
+        Assertions.assertEquals(now.toInstant(), FirstLaunchTimeCodec.decode(bytes).toInstant());
+        Assertions.assertNull(FirstLaunchTimeCodec.decode(null));
+    }
+
+    @Test
+    void testZoneOffset() {
+        // The wall clock of the device is kept, whatever the system zone.
+        for (String time : new String[]{"2022-06-01T23:50:00-10:00", "2022-06-01T00:10:00+14:00",
+                "2022-06-01T20:00:00+05:30"}) {
+            ZonedDateTime firstLaunchTime = ZonedDateTime.parse(time, DateTimeFormatter.ISO_OFFSET_DATE_TIME);
+            ZonedDateTime decoded = FirstLaunchTimeCodec.decode(FirstLaunchTimeCodec.encode(firstLaunchTime));
+            Assertions.assertEquals(firstLaunchTime.toInstant(), decoded.toInstant());
+            Assertions.assertEquals(firstLaunchTime.toLocalDateTime(), decoded.toLocalDateTime());
+        }
+        Assertions.assertEquals("1654163400-36000", new String(FirstLaunchTimeCodec.encode(
+                ZonedDateTime.parse("2022-06-01T23:50:00-10:00")), StandardCharsets.US_ASCII));
+
+        // Epoch seconds written without offset are in the system default zone.
+        Assertions.assertEquals(Instant.ofEpochSecond(1654163400).atZone(ZoneId.systemDefault()),
+                FirstLaunchTimeCodec.decode("1654163400".getBytes(StandardCharsets.US_ASCII)));
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> FirstLaunchTimeCodec.decode("1654163400+".getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    @Test
+    void testLegacy() {
+        LocalDateTime now = LocalDateTime.now();
+        byte[] bytes = new JdkSerializationRedisSerializer().serialize(now);
+        Assertions.assertNotNull(bytes);
+        Assertions.assertTrue(FirstLaunchTimeCodec.isLegacy(bytes));
+        Assertions.assertEquals(now.atZone(ZoneId.systemDefault()), FirstLaunchTimeCodec.decode(bytes));
+    }
+}
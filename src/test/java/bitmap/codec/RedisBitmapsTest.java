@@ -0,0 +1,29 @@
+package bitmap.codec;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.roaringbitmap.RoaringBitmap;
+
+class RedisBitmapsTest {
+
+    @Test
+    void testToRoaring() {
+        // Bits 0, 7, 9, 63, 64 and 77 in the Redis bit order.
+        byte[] bytes = new byte[10];
+        bytes[0] = (byte) 0b1000_0001;
+        bytes[1] = (byte) 0b0100_0000;
+        bytes[7] = (byte) 0b0000_0001;
+        bytes[8] = (byte) 0b1000_0000;
+        bytes[9] = (byte) 0b0000_0100;
+
+        RoaringBitmap bitmap = RedisBitmaps.toRoaring(bytes);
+        Assertions.assertArrayEquals(new int[]{0, 7, 9, 63, 64, 77}, bitmap.toArray());
+        Assertions.assertTrue(RedisBitmaps.toRoaring(null).isEmpty());
+    }
+
+    @Test
+    void testSerialize() {
+        RoaringBitmap bitmap = RoaringBitmap.bitmapOf(1, 2, 3, 1_000_000);
+        Assertions.assertEquals(bitmap, RedisBitmaps.deserialize(RedisBitmaps.serialize(bitmap)));
+    }
+}
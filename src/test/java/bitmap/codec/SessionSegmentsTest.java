@@ -0,0 +1,98 @@
+package bitmap.codec;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+class SessionSegmentsTest {
+
+    @Test
+    void testSessions() {
+        // Minutes 0-2, 62-63, 64 and 1439: sessions across a word boundary and at the end of the day.
+        byte[] slice = new byte[180];
+        this.set(slice, 0, 1, 2, 62, 63, 64, 1439);
+        SessionSegments sessions = SessionSegments.of(slice);
+        Assertions.assertEquals(7, sessions.getActiveMinutes());
+        Assertions.assertEquals(3, sessions.getSessionCount());
+        Assertions.assertEquals(3, sessions.getLongestSession());
+        Assertions.assertEquals(3, sessions.getMedianSession());
+        Assertions.assertEquals(0, sessions.getFirstActiveMinute());
+        Assertions.assertEquals(1439, sessions.getLastActiveMinute());
+
+        // A slice cut at the end of the bitmap.
+        sessions = SessionSegments.of(new byte[]{0, (byte) 0b0011_1100});
+        Assertions.assertEquals(1, sessions.getSessionCount());
+        Assertions.assertEquals(4, sessions.getLongestSession());
+        Assertions.assertEquals(10, sessions.getFirstActiveMinute());
+        Assertions.assertEquals(13, sessions.getLastActiveMinute());
+
+        // The whole day.
+        byte[] day = new byte[180];
+        Arrays.fill(day, (byte) 0xff);
+        sessions = SessionSegments.of(day);
+        Assertions.assertEquals(1, sessions.getSessionCount());
+        Assertions.assertEquals(1440, sessions.getLongestSession());
+        Assertions.assertEquals(1439, sessions.getLastActiveMinute());
+
+        for (byte[] empty : new byte[][]{null, new byte[0], new byte[180]}) {
+            sessions = SessionSegments.of(empty);
+            Assertions.assertEquals(0, sessions.getSessionCount());
+            Assertions.assertEquals(0, sessions.getMedianSession());
+            Assertions.assertEquals(-1, sessions.getFirstActiveMinute());
+            Assertions.assertEquals(-1, sessions.getLastActiveMinute());
+        }
+    }
+
+    @Test
+    void testRandom() {
+        Random random = new Random(42);
+        for (int n = 0; n < 1000; n++) {
+            byte[] slice = new byte[180];
+            random.nextBytes(slice);
+            // Sparse and dense days.
+            if (n % 2 == 0) {
+                for (int i = 0; i < slice.length; i++) {
+                    slice[i] &= (byte) random.nextInt(256);
+                    slice[i] &= (byte) random.nextInt(256);
+                }
+            }
+
+            // Runs found minute by minute.
+            List<Integer> runs = new ArrayList<>();
+            int first = -1;
+            int last = -1;
+            int run = 0;
+            for (int minute = 0; minute <= 1440; minute++) {
+                boolean set = minute < 1440 && (slice[minute >>> 3] & (0x80 >>> (minute & 7))) != 0;
+                if (set) {
+                    run++;
+                    first = first < 0 ? minute : first;
+                    last = minute;
+                } else if (run > 0) {
+                    runs.add(run);
+                    run = 0;
+                }
+            }
+            Collections.sort(runs);
+
+            SessionSegments sessions = SessionSegments.of(slice);
+            Assertions.assertEquals(runs.stream().mapToInt(Integer::intValue).sum(), sessions.getActiveMinutes());
+            Assertions.assertEquals(runs.size(), sessions.getSessionCount());
+            Assertions.assertEquals(runs.get(runs.size() - 1), sessions.getLongestSession());
+            Assertions.assertEquals(runs.get((runs.size() - 1) / 2), sessions.getMedianSession());
+            Assertions.assertEquals(first, sessions.getFirstActiveMinute());
+            Assertions.assertEquals(last, sessions.getLastActiveMinute());
+        }
+    }
+
+    private void set(byte[] slice, int... minutes) {
+        for (int minute : minutes) {
+            slice[minute >>> 3] |= (byte) (0x80 >>> (minute & 7));
+        }
+    }
+}
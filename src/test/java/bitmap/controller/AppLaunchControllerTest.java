@@ -1,5 +1,6 @@
 package bitmap.controller;
 
+import bitmap.dictionary.DeviceDictionary;
 import bitmap.dto.EventDTO;
 import bitmap.service.AppLaunchService;
 import bitmap.service.impl.AppLaunchServiceImpl;
@@ -37,6 +38,8 @@ class AppLaunchControllerTest {
     StringRedisTemplate stringRedisTemplate;
     @Resource
     AppLaunchService appLaunchService;
+    @Resource
+    DeviceDictionary deviceDictionary;
 
     @Test
     void test(@Autowired MockMvc mvc) throws Exception {
@@ -97,4 +100,30 @@ class AppLaunchControllerTest {
                 -> connection.bitCount(keyOfDailyLaunch.getBytes()));
         Assertions.assertEquals(2, count);
     }
-}
\ No newline at end of file
+
+    @Test
+    void testPopulation(@Autowired MockMvc mvc) throws Exception {
+        // App launch.
+        ZonedDateTime requestTime = ZonedDateTime.now();
+        Map<String, Object> map = new HashMap<>();
+        map.put("platform", "ios");
+        map.put("idfv", UUID.randomUUID().toString());
+        map.put("request_time", requestTime.format(DateTimeFormatter.ISO_OFFSET_DATE_TIME));
+        mvc.perform(post("/app_launch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(JSON.toJSONString(map)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.code").value(0))
+                .andExpect(jsonPath("$.msg").value("SUCCESS"));
+
+        // Validate: the device is both new and active today.
+        long denseId = deviceDictionary.getOrAllocate(map.get("platform") + "_" + map.get("idfv"));
+        String date = requestTime.toLocalDate().format(DateTimeFormatter.ISO_DATE);
+        Assertions.assertEquals(Boolean.TRUE, stringRedisTemplate.opsForValue()
+                .getBit(String.format(AppLaunchServiceImpl.KEY_OF_NEW_PER_DAY, date), denseId));
+        Assertions.assertEquals(Boolean.TRUE, stringRedisTemplate.opsForValue()
+                .getBit(String.format(AppLaunchServiceImpl.KEY_OF_ACTIVE_PER_DAY, date), denseId));
+        Assertions.assertTrue(appLaunchService.countRetainedDevices(requestTime.toLocalDate(),
+                requestTime.toLocalDate()) > 0);
+    }
+}
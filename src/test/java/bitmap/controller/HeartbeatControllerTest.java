@@ -16,7 +16,9 @@ import org.springframework.test.web.servlet.MockMvc;
 import javax.annotation.Resource;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
@@ -129,6 +131,49 @@ class HeartbeatControllerTest {
         Assertions.assertEquals(2, sessionDuration);
     }
 
+    @Test
+    void testBatch(@Autowired MockMvc mvc) throws Exception {
+        ZonedDateTime requestTime = ZonedDateTime.now();
+        Map<String, Object> map = new HashMap<>();
+        map.put("platform", "android");
+        map.put("androidid", UUID.randomUUID().toString());
+        map.put("event_time_offset_sec", 5);
+        map.put("request_time", requestTime.format(DateTimeFormatter.ISO_OFFSET_DATE_TIME));
+        String deviceId = map.get("platform") + "_" + map.get("androidid");
+
+        // App launch.
+        mvc.perform(post("/app_launch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(JSON.toJSONString(map)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.code").value(0))
+                .andExpect(jsonPath("$.msg").value("SUCCESS"));
+
+        // Heartbeat of three different minutes, one of them twice, and one unknown device.
+        List<Map<String, Object>> events = new ArrayList<>();
+        for (int minutes : new int[]{0, 1, 2, 2}) {
+            Map<String, Object> event = new HashMap<>(map);
+            event.put("request_time", requestTime.plusMinutes(minutes).format(DateTimeFormatter.ISO_OFFSET_DATE_TIME));
+            events.add(event);
+        }
+        Map<String, Object> unknown = new HashMap<>(map);
+        unknown.put("androidid", UUID.randomUUID().toString());
+        events.add(unknown);
+
+        mvc.perform(post("/heartbeat/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(JSON.toJSONString(events)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.code").value(0))
+                .andExpect(jsonPath("$.msg").value("SUCCESS"));
+
+        // Validate: get total session duration from Redis.
+        String key = String.format(HeartbeatServiceImpl.KEY_OF_HEARTBEAT_PER_MINUTE, deviceId);
+        Long count = stringRedisTemplate.execute((RedisConnection connection)
+                -> connection.bitCount(key.getBytes()));
+        Assertions.assertEquals(3, count);
+    }
+
     private Long bitCount(String deviceId, long start, long end) {
         String key = String.format(HeartbeatServiceImpl.KEY_OF_HEARTBEAT_PER_MINUTE, deviceId);
         Long sessionDuration = stringRedisTemplate.execute((RedisConnection connection)
@@ -0,0 +1,114 @@
+package bitmap.controller;
+
+import bitmap.codec.FirstLaunchTimeCodec;
+import bitmap.config.BitmapProperties;
+import bitmap.service.impl.AppLaunchServiceImpl;
+import bitmap.service.impl.HeartbeatServiceImpl;
+import com.alibaba.fastjson2.JSON;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+
+import javax.annotation.Resource;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(properties = "bitmap.ingestion.enabled=true")
+@AutoConfigureMockMvc
+class IngestionControllerTest {
+
+    @Resource
+    StringRedisTemplate stringRedisTemplate;
+    @Resource
+    BitmapProperties bitmapProperties;
+
+    @Test
+    void testHeartbeat(@Autowired MockMvc mvc) throws Exception {
+        ZonedDateTime requestTime = ZonedDateTime.now();
+        Map<String, Object> map = this.event(requestTime);
+        String deviceId = map.get("platform") + "_" + map.get("androidid");
+
+        // A known device, without going through ES.
+        String keyOfFirstLaunchTime = String.format(AppLaunchServiceImpl.KEY_OF_FIRST_LAUNCH_TIME, deviceId);
+        String key = String.format(HeartbeatServiceImpl.KEY_OF_HEARTBEAT_PER_MINUTE, deviceId);
+        stringRedisTemplate.execute((RedisConnection connection) -> connection.set(keyOfFirstLaunchTime.getBytes(),
+                FirstLaunchTimeCodec.encode(requestTime.minusDays(1))));
+        try {
+            mvc.perform(post("/heartbeat")
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content(JSON.toJSONString(map)))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.code").value(0));
+
+            List<Map<String, Object>> events = new ArrayList<>();
+            for (int minutes : new int[]{1, 2, 2}) {
+                Map<String, Object> event = new HashMap<>(map);
+                event.put("request_time", requestTime.plusMinutes(minutes)
+                        .format(DateTimeFormatter.ISO_OFFSET_DATE_TIME));
+                events.add(event);
+            }
+            mvc.perform(post("/heartbeat/batch")
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content(JSON.toJSONString(events)))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.code").value(0));
+
+            // Recorded by the workers after the response.
+            long deadline = System.currentTimeMillis() + 5000;
+            while (this.bitCount(key) < 3 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            Assertions.assertEquals(3, this.bitCount(key));
+        } finally {
+            stringRedisTemplate.delete(Arrays.asList(keyOfFirstLaunchTime, key));
+        }
+    }
+
+    @Test
+    void testShed(@Autowired MockMvc mvc) throws Exception {
+        BitmapProperties.Ingestion ingestion = bitmapProperties.getIngestion();
+        int heartbeatMaxDepth = ingestion.getHeartbeatMaxDepth();
+        ingestion.setHeartbeatMaxDepth(0);
+        try {
+            mvc.perform(post("/heartbeat")
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content(JSON.toJSONString(this.event(ZonedDateTime.now()))))
+                    .andExpect(status().isTooManyRequests())
+                    .andExpect(header().string(HttpHeaders.RETRY_AFTER, "1"))
+                    .andExpect(jsonPath("$.code").value(429));
+        } finally {
+            ingestion.setHeartbeatMaxDepth(heartbeatMaxDepth);
+        }
+    }
+
+    private Map<String, Object> event(ZonedDateTime requestTime) {
+        Map<String, Object> map = new HashMap<>();
+        map.put("platform", "android");
+        map.put("androidid", UUID.randomUUID().toString());
+        map.put("event_time_offset_sec", 5);
+        map.put("request_time", requestTime.format(DateTimeFormatter.ISO_OFFSET_DATE_TIME));
+        return map;
+    }
+
+    private Long bitCount(String key) {
+        return stringRedisTemplate.execute((RedisConnection connection) -> connection.bitCount(key.getBytes()));
+    }
+}
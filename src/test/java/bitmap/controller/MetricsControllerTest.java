@@ -0,0 +1,89 @@
+package bitmap.controller;
+
+import bitmap.service.impl.AppLaunchServiceImpl;
+import bitmap.service.impl.HeartbeatServiceImpl;
+import bitmap.service.impl.RetentionServiceImpl;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.web.servlet.MockMvc;
+
+import javax.annotation.Resource;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@Slf4j
+@SpringBootTest
+@AutoConfigureMockMvc
+class MetricsControllerTest {
+
+    @Resource
+    StringRedisTemplate stringRedisTemplate;
+
+    @Test
+    void test(@Autowired MockMvc mvc) throws Exception {
+        // A date of the past nobody else writes to.
+        LocalDate cohortDate = LocalDate.of(2000, 1, 1).plusDays(ThreadLocalRandom.current().nextInt(3000));
+        LocalDate nextDate = cohortDate.plusDays(1);
+        String cohort = cohortDate.format(DateTimeFormatter.ISO_DATE);
+        String next = nextDate.format(DateTimeFormatter.ISO_DATE);
+        String keyOfNew = String.format(AppLaunchServiceImpl.KEY_OF_NEW_PER_DAY, cohort);
+        String keyOfActive = String.format(AppLaunchServiceImpl.KEY_OF_ACTIVE_PER_DAY, cohort);
+        String keyOfNextActive = String.format(AppLaunchServiceImpl.KEY_OF_ACTIVE_PER_DAY, next);
+        String keyOfSessionDuration = String.format(HeartbeatServiceImpl.KEY_OF_SESSION_DURATION_PER_DAY, next);
+        try {
+            // 3 new devices, 2 of them back the next day with another device.
+            for (long denseId : new long[]{1, 2, 3}) {
+                stringRedisTemplate.opsForValue().setBit(keyOfNew, denseId, true);
+                stringRedisTemplate.opsForValue().setBit(keyOfActive, denseId, true);
+            }
+            for (long denseId : new long[]{2, 3, 4}) {
+                stringRedisTemplate.opsForValue().setBit(keyOfNextActive, denseId, true);
+            }
+            Map<String, String> totals = new HashMap<>();
+            totals.put("devices", "3");
+            totals.put("minutes", "90");
+            stringRedisTemplate.opsForHash().putAll(keyOfSessionDuration, totals);
+
+            mvc.perform(get("/metrics/dau").param("date", cohort))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.code").value(0))
+                    .andExpect(jsonPath("$.data.activeDevices").value(3))
+                    .andExpect(jsonPath("$.data.newDevices").value(3));
+
+            mvc.perform(get("/metrics/retention").param("cohort", cohort).param("days", "1", "2"))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.data.cohortSize").value(3))
+                    .andExpect(jsonPath("$.data.retainedDevices.1").value(2))
+                    .andExpect(jsonPath("$.data.retainedDevices.2").value(0));
+
+            mvc.perform(get("/metrics/session-duration").param("date", next))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.data.activeDevices").value(3))
+                    .andExpect(jsonPath("$.data.averageSessionMinutes").value(30.0));
+
+            // Not calculated yet.
+            mvc.perform(get("/metrics/session-duration").param("date", cohort))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.code").value(0))
+                    .andExpect(jsonPath("$.data").doesNotExist());
+        } finally {
+            stringRedisTemplate.delete(Arrays.asList(keyOfNew, keyOfActive, keyOfNextActive, keyOfSessionDuration,
+                    String.format(RetentionServiceImpl.KEY_OF_ROARING, keyOfNew, 0),
+                    String.format(RetentionServiceImpl.KEY_OF_ROARING, keyOfNextActive, 0),
+                    String.format(RetentionServiceImpl.KEY_OF_ROARING,
+                            String.format(AppLaunchServiceImpl.KEY_OF_ACTIVE_PER_DAY, cohortDate.plusDays(2)), 0)));
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package bitmap.controller;
+
+import bitmap.codec.FirstLaunchTimeCodec;
+import bitmap.service.impl.AppLaunchServiceImpl;
+import bitmap.service.impl.HeartbeatServiceImpl;
+import com.alibaba.fastjson2.JSON;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import javax.annotation.Resource;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@Slf4j
+@SpringBootTest(properties = "bitmap.reactive.enabled=true")
+@AutoConfigureMockMvc
+class ReactiveIngestionControllerTest {
+
+    @Resource
+    StringRedisTemplate stringRedisTemplate;
+
+    @Test
+    void testHeartbeat(@Autowired MockMvc mvc) throws Exception {
+        ZonedDateTime requestTime = ZonedDateTime.now();
+        Map<String, Object> map = new HashMap<>();
+        map.put("platform", "android");
+        map.put("androidid", UUID.randomUUID().toString());
+        map.put("event_time_offset_sec", 5);
+        map.put("request_time", requestTime.format(DateTimeFormatter.ISO_OFFSET_DATE_TIME));
+        String deviceId = map.get("platform") + "_" + map.get("androidid");
+
+        // A known device, without going through ES.
+        String keyOfFirstLaunchTime = String.format(AppLaunchServiceImpl.KEY_OF_FIRST_LAUNCH_TIME, deviceId);
+        String key = String.format(HeartbeatServiceImpl.KEY_OF_HEARTBEAT_PER_MINUTE, deviceId);
+        stringRedisTemplate.execute((RedisConnection connection) -> connection.set(keyOfFirstLaunchTime.getBytes(),
+                FirstLaunchTimeCodec.encode(requestTime.minusDays(1))));
+        try {
+            this.perform(mvc, "/heartbeat", map);
+            Assertions.assertEquals(1, this.bitCount(key));
+
+            // Heartbeat of three different minutes, one of them twice, and one unknown device.
+            List<Map<String, Object>> events = new ArrayList<>();
+            for (int minutes : new int[]{1, 2, 3, 3}) {
+                Map<String, Object> event = new HashMap<>(map);
+                event.put("request_time", requestTime.plusMinutes(minutes)
+                        .format(DateTimeFormatter.ISO_OFFSET_DATE_TIME));
+                events.add(event);
+            }
+            Map<String, Object> unknown = new HashMap<>(map);
+            unknown.put("androidid", UUID.randomUUID().toString());
+            events.add(unknown);
+
+            this.perform(mvc, "/heartbeat/batch", events);
+            Assertions.assertEquals(4, this.bitCount(key));
+        } finally {
+            stringRedisTemplate.delete(Arrays.asList(keyOfFirstLaunchTime, key));
+        }
+    }
+
+    // The request is released while Redis replies, the response is written on the async dispatch.
+    private void perform(MockMvc mvc, String path, Object content) throws Exception {
+        MvcResult result = mvc.perform(post(path)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(JSON.toJSONString(content)))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.code").value(0))
+                .andExpect(jsonPath("$.msg").value("SUCCESS"));
+    }
+
+    private Long bitCount(String key) {
+        return stringRedisTemplate.execute((RedisConnection connection) -> connection.bitCount(key.getBytes()));
+    }
+}
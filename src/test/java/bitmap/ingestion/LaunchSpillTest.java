@@ -0,0 +1,131 @@
+package bitmap.ingestion;
+
+import bitmap.dto.DeviceEvent;
+import bitmap.dto.EventDTO;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+class LaunchSpillTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testRestore() throws Exception {
+        LaunchSpill spill = new LaunchSpill(directory, objectMapper);
+        List<DeviceEvent> events = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            events.add(this.event("device-" + i));
+            spill.append(events.get(i));
+        }
+        Assertions.assertEquals(3, spill.size());
+
+        // Events spilled during the restore are kept for the next one.
+        List<DeviceEvent> restored = new ArrayList<>();
+        DeviceEvent late = this.event("device-late");
+        Assertions.assertEquals(3, spill.restore(event -> {
+            restored.add(event);
+            if (restored.size() == 1) {
+                try {
+                    spill.append(late);
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }));
+        Assertions.assertEquals(1, spill.size());
+        for (int i = 0; i < events.size(); i++) {
+            DeviceEvent expected = events.get(i);
+            DeviceEvent actual = restored.get(i);
+            Assertions.assertEquals(expected.getPlatform(), actual.getPlatform());
+            Assertions.assertEquals(expected.getDeviceId(), actual.getDeviceId());
+            Assertions.assertEquals(expected.getEventTime(), actual.getEventTime());
+            Assertions.assertEquals(expected.getPayload(), actual.getPayload());
+        }
+        spill.close();
+
+        // Events left by a previous run are restored.
+        LaunchSpill reopened = new LaunchSpill(directory, objectMapper);
+        Assertions.assertEquals(1, reopened.size());
+        restored.clear();
+        Assertions.assertEquals(1, reopened.restore(restored::add));
+        Assertions.assertEquals(late.getDeviceId(), restored.get(0).getDeviceId());
+        Assertions.assertEquals(0, reopened.size());
+        Assertions.assertEquals(0, reopened.restore(restored::add));
+        reopened.close();
+    }
+
+    @Test
+    void testTornLine() throws Exception {
+        LaunchSpill spill = new LaunchSpill(directory, objectMapper);
+        spill.append(this.event("device-0"));
+        spill.close();
+        Path file;
+        try (Stream<Path> files = Files.list(directory)) {
+            file = files.findFirst().orElseThrow(IllegalStateException::new);
+        }
+        Files.write(file, "{\"event_time_millis\":1".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        spill = new LaunchSpill(directory, objectMapper);
+        spill.append(this.event("device-1"));
+        Assertions.assertEquals(3, spill.size());
+
+        // The torn line is set aside, the launches around it are restored once.
+        List<DeviceEvent> restored = new ArrayList<>();
+        Assertions.assertEquals(2, spill.restore(restored::add));
+        Assertions.assertEquals(0, spill.size());
+        Assertions.assertEquals(0, spill.restore(restored::add));
+        Assertions.assertEquals(2, restored.size());
+        try (Stream<Path> files = Files.list(directory)) {
+            Assertions.assertEquals(Collections.singletonList(file.getFileName().toString().replace(".log", ".rejected")),
+                    files.map(rejected -> rejected.getFileName().toString()).collect(Collectors.toList()));
+        }
+        spill.close();
+    }
+
+    @Test
+    void testFailedRestore() throws Exception {
+        LaunchSpill spill = new LaunchSpill(directory, objectMapper);
+        for (int i = 0; i < 3; i++) {
+            spill.append(this.event("device-" + i));
+        }
+
+        // The events of the file are kept until it is handed over as a whole.
+        List<DeviceEvent> restored = new ArrayList<>();
+        Assertions.assertThrows(IllegalStateException.class, () -> spill.restore(event -> {
+            if (restored.size() == 1) {
+                throw new IllegalStateException("Queue is full");
+            }
+            restored.add(event);
+        }));
+        Assertions.assertEquals(3, spill.size());
+        restored.clear();
+        Assertions.assertEquals(3, spill.restore(restored::add));
+        Assertions.assertEquals(0, spill.size());
+        spill.close();
+    }
+
+    private DeviceEvent event(String androidId) {
+        EventDTO payload = new EventDTO();
+        payload.put("platform", "android");
+        payload.put("androidid", androidId);
+        payload.put("event_time_offset_sec", 5);
+        payload.put("request_time", ZonedDateTime.now().format(DateTimeFormatter.ISO_OFFSET_DATE_TIME));
+        return DeviceEvent.of(payload);
+    }
+}
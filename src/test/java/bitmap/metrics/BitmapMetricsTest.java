@@ -0,0 +1,56 @@
+package bitmap.metrics;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+
+class BitmapMetricsTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final BitmapMetrics bitmapMetrics = new BitmapMetrics();
+
+    {
+        ReflectionTestUtils.setField(bitmapMetrics, "meterRegistry", meterRegistry);
+    }
+
+    @Test
+    void testCallsByOutcome() {
+        Assertions.assertEquals("OK", bitmapMetrics.redis("first_launch_time_get", () -> "OK"));
+        Assertions.assertEquals("OK", bitmapMetrics.redis("first_launch_time_get", () -> "OK"));
+        Assertions.assertThrows(IllegalStateException.class, () -> bitmapMetrics.elasticsearch("bulk_update", () -> {
+            throw new IllegalStateException("down");
+        }));
+
+        Assertions.assertEquals(2, meterRegistry.get("bitmap.dependency.calls")
+                .tags("dependency", "redis", "operation", "first_launch_time_get", "outcome", "success")
+                .timer()
+                .count());
+        Assertions.assertEquals(1, meterRegistry.get("bitmap.dependency.calls")
+                .tags("dependency", "elasticsearch", "operation", "bulk_update", "outcome", "error")
+                .timer()
+                .count());
+    }
+
+    @Test
+    void testPages() {
+        bitmapMetrics.page("session_duration", Arrays.asList("a", "b", "c"), () -> {
+        });
+        Assertions.assertThrows(IllegalStateException.class, () -> bitmapMetrics.page("session_duration",
+                Arrays.asList("d", "e"), () -> {
+                    throw new IllegalStateException("down");
+                }));
+
+        // Devices of a failed page are not counted as processed.
+        Assertions.assertEquals(3, meterRegistry.get("bitmap.statistics.devices")
+                .tag("job", "session_duration")
+                .counter()
+                .count());
+        Assertions.assertEquals(1, meterRegistry.get("bitmap.statistics.page")
+                .tags("job", "session_duration", "outcome", "error")
+                .timer()
+                .count());
+    }
+}
@@ -1,11 +1,30 @@
 package bitmap.service.impl;
 
+import bitmap.config.BitmapProperties;
+import bitmap.dto.EventDTO;
+import bitmap.metrics.BitmapMetrics;
+import bitmap.store.BitmapStore;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.http.HttpHost;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.elasticsearch.core.ElasticsearchRestTemplate;
+import org.springframework.data.elasticsearch.core.MultiGetItem;
+import org.springframework.data.elasticsearch.core.mapping.IndexCoordinates;
+import org.springframework.data.elasticsearch.core.query.BulkOptions;
+import org.springframework.data.elasticsearch.core.query.Query;
+import org.springframework.data.elasticsearch.core.query.UpdateQuery;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import javax.annotation.Resource;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 @Slf4j
 @SpringBootTest
@@ -13,9 +32,86 @@ class AppLaunchServiceImplTest {
 
     @Resource
     AppLaunchServiceImpl appLaunchService;
+    @Resource
+    BitmapStore bitmapStore;
+    @Resource
+    BitmapProperties bitmapProperties;
+    @Resource
+    BitmapMetrics bitmapMetrics;
+    @Resource
+    StringRedisTemplate stringRedisTemplate;
 
     @Test
     void statisticsRetentionAndLifetime() {
         appLaunchService.statisticsRetentionAndLifetime(LocalDate.now());
     }
+
+    @Test
+    void reconcileRetentionAndLifetime() {
+        // Scanned hits are source-filtered, they only carry the device ID.
+        List<EventDTO> hits = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            EventDTO hit = new EventDTO();
+            hit.put("device_id", "android_test_reconcile_" + i);
+            hit.put("launch_time", "2022-06-02T10:00:00+08:00");
+            hits.add(hit);
+            // Launched on the day after the first launch.
+            bitmapStore.setBit(String.format(AppLaunchServiceImpl.KEY_OF_LAUNCH_PER_DAY, hit.get("device_id")), 1,
+                    true);
+        }
+
+        List<String> multiGetIds = new ArrayList<>();
+        List<String> updatedIds = new ArrayList<>();
+        AppLaunchServiceImpl service = new AppLaunchServiceImpl();
+        ReflectionTestUtils.setField(service, "bitmapStore", bitmapStore);
+        ReflectionTestUtils.setField(service, "bitmapProperties", bitmapProperties);
+        ReflectionTestUtils.setField(service, "bitmapMetrics", bitmapMetrics);
+        ReflectionTestUtils.setField(service, "elasticsearchRestTemplate", new ElasticsearchRestTemplate(
+                new RestHighLevelClient(RestClient.builder(HttpHost.create("localhost:9200")))) {
+            @Override
+            public <T> List<MultiGetItem<T>> multiGet(Query query, Class<T> clazz, IndexCoordinates index) {
+                multiGetIds.addAll(query.getIds());
+                // Indexed before the launch of the next day.
+                List<MultiGetItem<T>> items = new ArrayList<>();
+                for (int i = 0; i < query.getIds().size(); i++) {
+                    items.add(MultiGetItem.of(clazz.cast(new EventDTO()), null));
+                }
+                return items;
+            }
+
+            @Override
+            public void bulkUpdate(List<UpdateQuery> queries, BulkOptions bulkOptions, IndexCoordinates index) {
+                queries.forEach(query -> updatedIds.add(query.getId()));
+            }
+        });
+
+        try {
+            ReflectionTestUtils.invokeMethod(service, "reconcileRetentionAndLifetime", hits);
+            List<String> deviceIds = Arrays.asList("android_test_reconcile_0", "android_test_reconcile_1");
+            Assertions.assertEquals(deviceIds, multiGetIds);
+            Assertions.assertEquals(deviceIds, updatedIds);
+        } finally {
+            hits.forEach(hit -> stringRedisTemplate.delete(
+                    String.format(AppLaunchServiceImpl.KEY_OF_LAUNCH_PER_DAY, hit.get("device_id"))));
+        }
+    }
+
+    @Test
+    void isUpToDate() {
+        EventDTO entity = new EventDTO();
+        entity.put("retention_day_1", 1);
+        entity.put("user_lifetime", 3L);
+
+        // ES returns small numbers as integers.
+        EventDTO indexed = new EventDTO();
+        indexed.put("retention_day_1", 1);
+        indexed.put("user_lifetime", 3);
+        Assertions.assertTrue(AppLaunchServiceImpl.isUpToDate(indexed, entity));
+
+        indexed.put("user_lifetime", 2);
+        Assertions.assertFalse(AppLaunchServiceImpl.isUpToDate(indexed, entity));
+
+        indexed.remove("user_lifetime");
+        Assertions.assertFalse(AppLaunchServiceImpl.isUpToDate(indexed, entity));
+    }
 }
@@ -0,0 +1,56 @@
+package bitmap.service.impl;
+
+import bitmap.config.BitmapProperties;
+import bitmap.dto.DeviceEvent;
+import bitmap.dto.EventDTO;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import javax.annotation.Resource;
+import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.UUID;
+
+@SpringBootTest(properties = {"bitmap.heartbeat.layout=bucketed", "bitmap.heartbeat.bucket=week"})
+class HeartbeatServiceImplBucketedTest {
+
+    @Resource
+    HeartbeatServiceImpl heartbeatService;
+    @Resource
+    AppLaunchServiceImpl appLaunchService;
+    @Resource
+    StringRedisTemplate stringRedisTemplate;
+
+    @Test
+    void receiveHeartbeat() {
+        ZonedDateTime eventTime = ZonedDateTime.now().withHour(1).withMinute(0);
+        EventDTO eventDTO = new EventDTO();
+        eventDTO.put("platform", "android");
+        eventDTO.put("androidid", UUID.randomUUID().toString());
+        eventDTO.put("request_time", eventTime.format(DateTimeFormatter.ISO_OFFSET_DATE_TIME));
+        appLaunchService.recordFirstLaunchTime(DeviceEvent.of(eventDTO));
+
+        // The minute is newly recorded and counted only once.
+        Assertions.assertTrue(heartbeatService.receiveHeartbeat(DeviceEvent.of(eventDTO)));
+        Assertions.assertFalse(heartbeatService.receiveHeartbeat(DeviceEvent.of(eventDTO)));
+
+        String deviceId = eventDTO.getDeviceId();
+        LocalDate start = BitmapProperties.Bucket.WEEK.startOf(eventTime.toLocalDate());
+        String key = String.format(HeartbeatServiceImpl.KEY_OF_HEARTBEAT_PER_BUCKET, deviceId,
+                start.format(DateTimeFormatter.BASIC_ISO_DATE));
+        long offset = ChronoUnit.DAYS.between(start, eventTime.toLocalDate()) * 1440 + 60;
+        Assertions.assertEquals(Boolean.TRUE, stringRedisTemplate.opsForValue().getBit(key, offset));
+        Assertions.assertEquals("1",
+                stringRedisTemplate.opsForValue().get(String.format(HeartbeatServiceImpl.KEY_OF_SESSION_MINUTES, deviceId)));
+
+        // The bucket expires, the legacy record is not written.
+        Long ttl = stringRedisTemplate.getExpire(key);
+        Assertions.assertTrue(ttl != null && ttl > 0);
+        Assertions.assertEquals(Boolean.FALSE, stringRedisTemplate.hasKey(
+                String.format(HeartbeatServiceImpl.KEY_OF_HEARTBEAT_PER_MINUTE, deviceId)));
+    }
+}
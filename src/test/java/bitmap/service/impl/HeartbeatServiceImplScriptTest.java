@@ -0,0 +1,79 @@
+package bitmap.service.impl;
+
+import bitmap.dto.DeviceEvent;
+import bitmap.dto.EventDTO;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import javax.annotation.Resource;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.UUID;
+
+@SpringBootTest(properties = "bitmap.heartbeat.write-mode=script")
+class HeartbeatServiceImplScriptTest {
+
+    @Resource
+    HeartbeatServiceImpl heartbeatService;
+    @Resource
+    AppLaunchServiceImpl appLaunchService;
+    @Resource
+    StringRedisTemplate stringRedisTemplate;
+
+    @Test
+    void receiveHeartbeatByScript() {
+        ZonedDateTime firstLaunchTime = ZonedDateTime.now().withHour(1).withMinute(0);
+        EventDTO eventDTO = new EventDTO();
+        eventDTO.put("platform", "android");
+        eventDTO.put("androidid", UUID.randomUUID().toString());
+        eventDTO.put("request_time", firstLaunchTime.format(DateTimeFormatter.ISO_OFFSET_DATE_TIME));
+        appLaunchService.recordFirstLaunchTime(DeviceEvent.of(eventDTO));
+
+        // The minute is newly recorded only once.
+        Assertions.assertTrue(heartbeatService.receiveHeartbeat(DeviceEvent.of(eventDTO)));
+        Assertions.assertFalse(heartbeatService.receiveHeartbeat(DeviceEvent.of(eventDTO)));
+
+        // Same offset as calculated in Java: 01:00 of the first launch day is minute 60.
+        String key = String.format(HeartbeatServiceImpl.KEY_OF_HEARTBEAT_PER_MINUTE, eventDTO.getDeviceId());
+        Assertions.assertEquals(Boolean.TRUE, stringRedisTemplate.opsForValue().getBit(key, 60));
+        Assertions.assertEquals(1, stringRedisTemplate.execute((RedisConnection connection)
+                -> connection.bitCount(key.getBytes())));
+
+        // Unknown device.
+        eventDTO.put("androidid", UUID.randomUUID().toString());
+        Assertions.assertFalse(heartbeatService.receiveHeartbeat(DeviceEvent.of(eventDTO)));
+    }
+
+    @Test
+    void receiveHeartbeatInZoneOfDevice() {
+        // A device 10 hours away from the system zone, first launched 10 minutes before its midnight.
+        ZoneOffset systemOffset = ZoneId.systemDefault().getRules().getOffset(Instant.now());
+        ZoneOffset offset = ZoneOffset.ofHours(systemOffset.getTotalSeconds() >= 0 ? -10 : 10);
+        ZonedDateTime firstLaunchTime = LocalDate.now().atTime(23, 50).atZone(offset);
+        EventDTO eventDTO = new EventDTO();
+        eventDTO.put("platform", "android");
+        eventDTO.put("androidid", UUID.randomUUID().toString());
+        eventDTO.put("request_time", firstLaunchTime.format(DateTimeFormatter.ISO_OFFSET_DATE_TIME));
+        appLaunchService.recordFirstLaunchTime(DeviceEvent.of(eventDTO));
+
+        // Minutes are counted from the midnight of the device, across its midnight.
+        for (int minutes : new int[]{5, 15}) {
+            eventDTO.put("request_time", firstLaunchTime.plusMinutes(minutes)
+                    .format(DateTimeFormatter.ISO_OFFSET_DATE_TIME));
+            Assertions.assertTrue(heartbeatService.receiveHeartbeat(DeviceEvent.of(eventDTO)));
+        }
+        String key = String.format(HeartbeatServiceImpl.KEY_OF_HEARTBEAT_PER_MINUTE, eventDTO.getDeviceId());
+        Assertions.assertEquals(Boolean.TRUE, stringRedisTemplate.opsForValue().getBit(key, 1435));
+        Assertions.assertEquals(Boolean.TRUE, stringRedisTemplate.opsForValue().getBit(key, 1445));
+        Assertions.assertEquals(appLaunchService.getFirstLaunchTime(eventDTO.getDeviceId()).toLocalDateTime(),
+                firstLaunchTime.toLocalDateTime());
+        stringRedisTemplate.delete(key);
+    }
+}
@@ -1,11 +1,21 @@
 package bitmap.service.impl;
 
+import bitmap.dto.DeviceEvent;
+import bitmap.dto.EventDTO;
 import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.StringRedisTemplate;
 
 import javax.annotation.Resource;
+import java.time.Instant;
 import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.UUID;
 
 @Slf4j
 @SpringBootTest
@@ -13,9 +23,39 @@ class HeartbeatServiceImplTest {
 
     @Resource
     HeartbeatServiceImpl heartbeatService;
+    @Resource
+    AppLaunchServiceImpl appLaunchService;
+    @Resource
+    StringRedisTemplate stringRedisTemplate;
 
     @Test
     void statisticsAverageSessionDuration() {
         heartbeatService.statisticsSessionDuration(LocalDate.now());
     }
+
+    @Test
+    void receiveHeartbeatInZoneOfDevice() {
+        // A device 10 hours away from the system zone, first launched 10 minutes before its midnight.
+        ZoneOffset systemOffset = ZoneId.systemDefault().getRules().getOffset(Instant.now());
+        ZoneOffset offset = ZoneOffset.ofHours(systemOffset.getTotalSeconds() >= 0 ? -10 : 10);
+        ZonedDateTime firstLaunchTime = LocalDate.now().atTime(23, 50).atZone(offset);
+        EventDTO eventDTO = new EventDTO();
+        eventDTO.put("platform", "android");
+        eventDTO.put("androidid", UUID.randomUUID().toString());
+        eventDTO.put("request_time", firstLaunchTime.format(DateTimeFormatter.ISO_OFFSET_DATE_TIME));
+        appLaunchService.recordFirstLaunchTime(DeviceEvent.of(eventDTO));
+
+        // Minutes are counted from the midnight of the device, across its midnight.
+        for (int minutes : new int[]{5, 15}) {
+            eventDTO.put("request_time", firstLaunchTime.plusMinutes(minutes)
+                    .format(DateTimeFormatter.ISO_OFFSET_DATE_TIME));
+            Assertions.assertTrue(heartbeatService.receiveHeartbeat(DeviceEvent.of(eventDTO)));
+        }
+        String key = String.format(HeartbeatServiceImpl.KEY_OF_HEARTBEAT_PER_MINUTE, eventDTO.getDeviceId());
+        Assertions.assertEquals(Boolean.TRUE, stringRedisTemplate.opsForValue().getBit(key, 1435));
+        Assertions.assertEquals(Boolean.TRUE, stringRedisTemplate.opsForValue().getBit(key, 1445));
+        Assertions.assertEquals(appLaunchService.getFirstLaunchTime(eventDTO.getDeviceId()).toLocalDateTime(),
+                firstLaunchTime.toLocalDateTime());
+        stringRedisTemplate.delete(key);
+    }
 }
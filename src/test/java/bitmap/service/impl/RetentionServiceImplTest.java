@@ -0,0 +1,89 @@
+package bitmap.service.impl;
+
+import bitmap.dictionary.DeviceDictionary;
+import bitmap.dto.RetentionDTO;
+import bitmap.store.BitmapStore;
+import com.alibaba.fastjson2.JSON;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.annotation.Resource;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+
+@Slf4j
+@SpringBootTest
+class RetentionServiceImplTest {
+
+    @Resource
+    RetentionServiceImpl retentionService;
+    @Resource
+    AppLaunchServiceImpl appLaunchService;
+    @Resource
+    BitmapStore bitmapStore;
+    @Resource
+    StringRedisTemplate stringRedisTemplate;
+    @Resource
+    DeviceDictionary deviceDictionary;
+
+    @Test
+    void calculateRetention() {
+        LocalDate cohortDate = LocalDate.now().minusDays(7);
+        RetentionDTO retentionDTO = retentionService.calculateRetention(cohortDate, Arrays.asList(1, 7, 30));
+        log.info("retention: {}", JSON.toJSONString(retentionDTO));
+
+        // Day 30 is in the future.
+        Assertions.assertEquals(2, retentionDTO.getRetainedDevices().size());
+        Assertions.assertEquals(appLaunchService.countNewDevices(cohortDate), retentionDTO.getCohortSize());
+        Assertions.assertEquals(appLaunchService.countRetainedDevices(cohortDate, cohortDate.plusDays(1)),
+                retentionDTO.getRetainedDevices().get(1));
+    }
+
+    @Test
+    void calculateRetentionAfterLateWrite() {
+        LocalDate cohortDate = LocalDate.of(1999, 1, 1);
+        List<String> keys = Arrays.asList(
+                String.format(AppLaunchServiceImpl.KEY_OF_NEW_PER_DAY, cohortDate),
+                String.format(AppLaunchServiceImpl.KEY_OF_ACTIVE_PER_DAY, cohortDate.plusDays(1)));
+        String deviceId = "android_test_retention_cleared";
+        long denseId = deviceDictionary.getOrAllocate(deviceId);
+        try {
+            bitmapStore.batch()
+                    .setBit(keys.get(0), 1, true)
+                    .setBit(keys.get(0), 2, true)
+                    .setBit(keys.get(0), denseId, true)
+                    .setBit(keys.get(1), 1, true)
+                    .execute();
+            Assertions.assertEquals(1, retentionService.calculateRetention(cohortDate, Arrays.asList(1))
+                    .getRetainedDevices()
+                    .get(1));
+
+            // A launch restored late to a settled day is counted.
+            bitmapStore.setBit(keys.get(1), 2, true);
+            bitmapStore.setBit(keys.get(1), denseId, true);
+            Assertions.assertEquals(3, retentionService.calculateRetention(cohortDate, Arrays.asList(1))
+                    .getRetainedDevices()
+                    .get(1));
+
+            // A launch cleared, and another one set that leaves the count unchanged, is not counted any more.
+            ReflectionTestUtils.invokeMethod(appLaunchService, "clearPopulation",
+                    AppLaunchServiceImpl.KEY_OF_ACTIVE_PER_DAY, cohortDate.plusDays(1), deviceId);
+            bitmapStore.setBit(keys.get(1), 3, true);
+            Assertions.assertEquals(2, retentionService.calculateRetention(cohortDate, Arrays.asList(1))
+                    .getRetainedDevices()
+                    .get(1));
+        } finally {
+            for (String key : keys) {
+                stringRedisTemplate.delete(Arrays.asList(key,
+                        String.format(RetentionServiceImpl.KEY_OF_ROARING, key, 0),
+                        String.format(RetentionServiceImpl.KEY_OF_ROARING, key, 1),
+                        String.format(RetentionServiceImpl.KEY_OF_VERSION, key)));
+            }
+        }
+    }
+}
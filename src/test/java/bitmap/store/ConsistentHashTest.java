@@ -0,0 +1,44 @@
+package bitmap.store;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+class ConsistentHashTest {
+
+    @Test
+    void testBalanced() {
+        ConsistentHash consistentHash = new ConsistentHash(Arrays.asList("a", "b", "c", "d"), 160);
+        int[] counts = new int[4];
+        for (int i = 0; i < 100_000; i++) {
+            counts[consistentHash.get("android_" + i)]++;
+        }
+        for (int count : counts) {
+            Assertions.assertTrue(count > 20_000 && count < 30_000, Arrays.toString(counts));
+        }
+    }
+
+    @Test
+    void testNodeAdded() {
+        List<String> nodes = Arrays.asList("a", "b", "c", "d");
+        ConsistentHash before = new ConsistentHash(nodes, 160);
+        ConsistentHash after = new ConsistentHash(Arrays.asList("a", "b", "c", "d", "e"), 160);
+        ConsistentHash reordered = new ConsistentHash(Arrays.asList("d", "c", "b", "a"), 160);
+
+        int moved = 0;
+        for (int i = 0; i < 100_000; i++) {
+            String key = "android_" + i;
+            int node = before.get(key);
+            int nodeAfter = after.get(key);
+            if (node != nodeAfter) {
+                // Keys only move to the new node.
+                Assertions.assertEquals(4, nodeAfter);
+                moved++;
+            }
+            Assertions.assertEquals(nodes.get(node), Arrays.asList("d", "c", "b", "a").get(reordered.get(key)));
+        }
+        Assertions.assertTrue(moved > 15_000 && moved < 25_000, String.valueOf(moved));
+    }
+}
@@ -0,0 +1,161 @@
+package bitmap.store;
+
+import bitmap.config.BitmapProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+class LocalBitmapStoreTest {
+
+    @TempDir
+    Path directory;
+
+    private LocalBitmapStore store;
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (store != null) {
+            store.destroy();
+        }
+    }
+
+    @Test
+    void testBits() throws IOException {
+        store = this.open();
+
+        Assertions.assertFalse(store.setBit("device:a:launch_per_day", 0, true));
+        Assertions.assertTrue(store.setBit("device:a:launch_per_day", 0, true));
+        Assertions.assertFalse(store.setBit("device:a:launch_per_day", 9, true));
+
+        // Bits are in the Redis order, most significant bit first, grown to the byte of the last bit.
+        Assertions.assertArrayEquals(new byte[]{(byte) 0x80, 0x40}, store.get("device:a:launch_per_day"));
+        Assertions.assertEquals(2, store.bitCount("device:a:launch_per_day"));
+        Assertions.assertNull(store.get("device:b:launch_per_day"));
+        Assertions.assertEquals(0, store.bitCount("device:b:launch_per_day"));
+
+        List<Object> results = store.batch()
+                .getBit("device:a:launch_per_day", 9)
+                .getBit("device:a:launch_per_day", 100)
+                .bitCount("device:a:launch_per_day", 1, 1)
+                .bitCount("device:a:launch_per_day", -1, -1)
+                .getCounter("device:a:session_minutes")
+                .execute();
+        Assertions.assertEquals(Arrays.asList(true, false, 1L, 1L, null), results);
+
+        // Ranges are cut at the end of the bitmap.
+        results = store.batch()
+                .getRange("device:a:launch_per_day", 1, 179)
+                .getRange("device:a:launch_per_day", 2, 179)
+                .getRange("device:b:launch_per_day", 0, 179)
+                .execute();
+        Assertions.assertArrayEquals(new byte[]{0x40}, (byte[]) results.get(0));
+        Assertions.assertArrayEquals(new byte[0], (byte[]) results.get(1));
+        Assertions.assertArrayEquals(new byte[0], (byte[]) results.get(2));
+
+        Assertions.assertTrue(store.setBit("device:a:launch_per_day", 9, false));
+        Assertions.assertEquals(1, store.bitCount("device:a:launch_per_day"));
+    }
+
+    @Test
+    void testBitCountAnd() throws IOException {
+        store = this.open();
+        for (long offset : new long[]{1, 5, 20, 300}) {
+            store.setBit("new:2022-06-01", offset, true);
+        }
+        for (long offset : new long[]{5, 300, 301}) {
+            store.setBit("active:2022-06-02", offset, true);
+        }
+
+        Assertions.assertEquals(2, store.bitCountAnd("new:2022-06-01", "active:2022-06-02"));
+        Assertions.assertEquals(0, store.bitCountAnd("new:2022-06-01", "active:2022-06-03"));
+    }
+
+    @Test
+    void testExpire() throws IOException {
+        store = this.open();
+        store.setBit("active:2022-06-01", 1, true);
+        store.expire("active:2022-06-01", Duration.ofMillis(-1));
+
+        Assertions.assertNull(store.get("active:2022-06-01"));
+        Assertions.assertEquals(0, store.bitCount("active:2022-06-01"));
+    }
+
+    @Test
+    void testRecovery() throws Exception {
+        store = this.open();
+        store.setBit("active:2022-06-01", 3, true);
+        store.setBit("active:2022-06-02", 3, true);
+        store.snapshot();
+
+        // Changes after the snapshot are only in the log, spanning several segments.
+        for (long offset = 0; offset < 1000; offset++) {
+            store.setBit("device:a:heartbeat_per_minute", offset, true);
+        }
+        store.setBit("active:2022-06-01", 3, false);
+        store.expire("active:2022-06-02", Duration.ofDays(1));
+        store.setBit("active:2022-06-03", 7, true);
+        store.expire("active:2022-06-03", Duration.ofMillis(-1));
+
+        // Reopen without the final snapshot, as after a crash.
+        LocalBitmapStore crashed = store;
+        store = this.open();
+        Assertions.assertEquals(1000, store.bitCount("device:a:heartbeat_per_minute"));
+        Assertions.assertEquals(0, store.bitCount("active:2022-06-01"));
+        Assertions.assertEquals(1, store.bitCount("active:2022-06-02"));
+        Assertions.assertNull(store.get("active:2022-06-03"));
+        ((ExecutorService) ReflectionTestUtils.getField(crashed, "scheduler")).shutdownNow();
+
+        // Reopen after a clean shutdown, from the final snapshot.
+        store.destroy();
+        store = this.open();
+        Assertions.assertEquals(1000, store.bitCount("device:a:heartbeat_per_minute"));
+        Assertions.assertEquals(1, store.bitCount("active:2022-06-02"));
+        // Cleared bitmaps are kept like in Redis, expired ones are dropped.
+        Assertions.assertEquals(3, store.size());
+    }
+
+    @Test
+    void testRecoveryOfExpired() throws Exception {
+        store = this.open();
+        store.setBit("active:2022-06-01", 1, true);
+        store.expire("active:2022-06-01", Duration.ofMillis(200));
+        store.setBit("active:2022-06-02", 1, true);
+        store.expire("active:2022-06-02", Duration.ofMillis(200));
+        store.snapshot();
+
+        // Set before the expiration, only in the log.
+        store.setBit("active:2022-06-01", 2, true);
+        Thread.sleep(300);
+        // Created again after the expiration, without it.
+        store.setBit("active:2022-06-02", 3, true);
+
+        LocalBitmapStore crashed = store;
+        store = this.open();
+        Assertions.assertNull(store.get("active:2022-06-01"));
+        Assertions.assertEquals(1, store.bitCount("active:2022-06-02"));
+        Assertions.assertEquals(1, store.size());
+        ((ExecutorService) ReflectionTestUtils.getField(crashed, "scheduler")).shutdownNow();
+    }
+
+    private LocalBitmapStore open() throws IOException {
+        BitmapProperties bitmapProperties = new BitmapProperties();
+        BitmapProperties.Local local = bitmapProperties.getStore().getLocal();
+        local.setDirectory(directory.toString());
+        local.setSegmentSize(DataSize.ofKilobytes(4));
+
+        LocalBitmapStore store = new LocalBitmapStore();
+        ReflectionTestUtils.setField(store, "bitmapProperties", bitmapProperties);
+        store.init();
+        return store;
+    }
+}
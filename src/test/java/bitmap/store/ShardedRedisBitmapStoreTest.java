@@ -0,0 +1,162 @@
+package bitmap.store;
+
+import bitmap.config.BitmapProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Runs against the Redis nodes of the system property {@code bitmap.test.shards}, comma-separated URIs of several
+ * local Redis processes, by default three databases of the local Redis.
+ */
+class ShardedRedisBitmapStoreTest {
+
+    private static final String KEY_OF_NEW = "new:1999-01-01";
+    private static final String KEY_OF_ACTIVE = "active:1999-01-02";
+
+    private List<String> nodes;
+    private ShardedRedisBitmapStore store;
+
+    @BeforeEach
+    void setUp() {
+        nodes = Arrays.asList(System.getProperty("bitmap.test.shards",
+                "redis://localhost:6379/1,redis://localhost:6379/2,redis://localhost:6379/3").split(","));
+        store = this.newStore(nodes);
+    }
+
+    private ShardedRedisBitmapStore newStore(List<String> nodes) {
+        BitmapProperties bitmapProperties = new BitmapProperties();
+        bitmapProperties.getStore().getSharded().setNodes(nodes);
+        ShardedRedisBitmapStore store = new ShardedRedisBitmapStore();
+        ReflectionTestUtils.setField(store, "bitmapProperties", bitmapProperties);
+        store.init();
+        return store;
+    }
+
+    @AfterEach
+    @SuppressWarnings("unchecked")
+    void tearDown() {
+        for (StringRedisTemplate shard : (List<StringRedisTemplate>) ReflectionTestUtils.getField(store, "shards")) {
+            Set<String> keys = new HashSet<>(Arrays.asList(KEY_OF_NEW, KEY_OF_ACTIVE));
+            Set<String> deviceKeys = shard.keys("device:test_shard_*");
+            if (deviceKeys != null) {
+                keys.addAll(deviceKeys);
+            }
+            shard.delete(keys);
+        }
+        store.destroy();
+    }
+
+    @Test
+    void testDeviceBitmaps() {
+        // Devices spread across the nodes, all bitmaps of a device on one node.
+        Set<Integer> shardsUsed = new HashSet<>();
+        for (int i = 0; i < 30; i++) {
+            String keyOfHeartbeat = "device:test_shard_" + i + ":heartbeat_per_minute";
+            String keyOfLaunch = "device:test_shard_" + i + ":launch_per_day";
+            Assertions.assertEquals(store.shardOf(keyOfHeartbeat, 0), store.shardOf(keyOfLaunch, 0));
+            shardsUsed.add(store.shardOf(keyOfHeartbeat, 0));
+        }
+        Assertions.assertTrue(shardsUsed.size() > 1);
+
+        BitmapStore.Batch batch = store.batch();
+        for (int i = 0; i < 30; i++) {
+            String keyOfHeartbeat = "device:test_shard_" + i + ":heartbeat_per_minute";
+            for (int minute = 0; minute <= i; minute++) {
+                batch.setBit(keyOfHeartbeat, 1440 + minute, true);
+            }
+        }
+        batch.execute();
+
+        // Results come back in the order of the commands, whatever their node.
+        batch = store.batch();
+        for (int i = 0; i < 30; i++) {
+            String keyOfHeartbeat = "device:test_shard_" + i + ":heartbeat_per_minute";
+            batch.bitCount(keyOfHeartbeat)
+                    .bitCount(keyOfHeartbeat, 180, 180 + 179)
+                    .getBit(keyOfHeartbeat, 1440 + i)
+                    .getCounter("device:test_shard_" + i + ":session_minutes")
+                    .getRange(keyOfHeartbeat, 180, 180);
+        }
+        List<Object> results = batch.execute();
+        for (int i = 0; i < 30; i++) {
+            Assertions.assertEquals((long) i + 1, results.get(i * 5));
+            Assertions.assertEquals((long) i + 1, results.get(i * 5 + 1));
+            Assertions.assertEquals(true, results.get(i * 5 + 2));
+            Assertions.assertNull(results.get(i * 5 + 3));
+            // Minutes 1440 to 1440 + i, the first byte of the second day.
+            Assertions.assertArrayEquals(new byte[]{(byte) (0xff00 >>> Math.min(i + 1, 8))},
+                    (byte[]) results.get(i * 5 + 4));
+        }
+        Assertions.assertArrayEquals(new byte[0], (byte[]) store.batch()
+                .getRange("device:test_shard_none:heartbeat_per_minute", 0, 179)
+                .execute()
+                .get(0));
+        Assertions.assertTrue(store.setBit("device:test_shard_0:heartbeat_per_minute", 1440, true));
+    }
+
+    @Test
+    void testPopulationBitmaps() {
+        // Dense IDs across several chunks, so across several nodes.
+        BitSet news = new BitSet();
+        BitSet actives = new BitSet();
+        for (int denseId = 0; denseId < 400_000; denseId += 997) {
+            news.set(denseId);
+            if (denseId % 3 == 0) {
+                actives.set(denseId);
+            }
+        }
+        actives.set(400_001);
+        BitmapStore.Batch batch = store.batch();
+        news.stream().forEach(denseId -> batch.setBit(KEY_OF_NEW, denseId, true));
+        actives.stream().forEach(denseId -> batch.setBit(KEY_OF_ACTIVE, denseId, true));
+        batch.execute();
+        store.expire(KEY_OF_NEW, Duration.ofMinutes(1));
+
+        Assertions.assertEquals(news.cardinality(), store.bitCount(KEY_OF_NEW));
+        Assertions.assertEquals(actives.cardinality(), store.bitCount(KEY_OF_ACTIVE));
+        BitSet retained = (BitSet) news.clone();
+        retained.and(actives);
+        Assertions.assertEquals(retained.cardinality(), store.bitCountAnd(KEY_OF_NEW, KEY_OF_ACTIVE));
+
+        // The parts are put back together in the Redis bit order.
+        byte[] bytes = store.get(KEY_OF_ACTIVE);
+        Assertions.assertEquals(400_001 / 8 + 1, bytes.length);
+        BitSet read = new BitSet();
+        for (int i = 0; i < bytes.length * 8; i++) {
+            if ((bytes[i >>> 3] & (0x80 >>> (i & 7))) != 0) {
+                read.set(i);
+            }
+        }
+        Assertions.assertEquals(actives, read);
+        Assertions.assertNull(store.get("active:1999-01-03"));
+    }
+
+    @Test
+    void testNodesChanged() {
+        // Same nodes in another order.
+        List<String> reordered = new ArrayList<>(nodes);
+        Collections.reverse(reordered);
+        this.newStore(reordered).destroy();
+
+        // A node added, the devices that would move lose their history.
+        List<String> added = new ArrayList<>(nodes);
+        added.add("redis://localhost:6379/4");
+        Assertions.assertThrows(IllegalStateException.class, () -> this.newStore(added));
+
+        // A node removed.
+        Assertions.assertThrows(IllegalStateException.class, () -> this.newStore(nodes.subList(1, nodes.size())));
+    }
+}